@@ -0,0 +1,57 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.benchmarks;
+
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import com.scottescue.backporchshedlock.support.AbstractStorageAccessor;
+import org.jetbrains.annotations.NotNull;
+import org.threeten.bp.Instant;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps lock_until in a map, so that the benchmarks measure the library and not a database.
+ */
+class InMemoryStorageAccessor extends AbstractStorageAccessor {
+    private final ConcurrentMap<String, Instant> lockUntil = new ConcurrentHashMap<String, Instant>();
+
+    @Override
+    public boolean insertRecord(@NotNull LockConfiguration lockConfiguration) {
+        return lockUntil.putIfAbsent(lockConfiguration.getName(), lockConfiguration.getLockAtMostUntil()) == null;
+    }
+
+    @Override
+    public boolean updateRecord(@NotNull LockConfiguration lockConfiguration) {
+        String name = lockConfiguration.getName();
+        Instant current = lockUntil.get(name);
+        return current != null && !current.isAfter(Instant.now())
+            && lockUntil.replace(name, current, lockConfiguration.getLockAtMostUntil());
+    }
+
+    @Override
+    public boolean extend(@NotNull LockConfiguration lockConfiguration) {
+        String name = lockConfiguration.getName();
+        Instant current = lockUntil.get(name);
+        return current != null && current.isAfter(Instant.now())
+            && lockUntil.replace(name, current, lockConfiguration.getLockAtMostUntil());
+    }
+
+    @Override
+    public void unlock(@NotNull LockConfiguration lockConfiguration) {
+        lockUntil.put(lockConfiguration.getName(), lockConfiguration.getUnlockTime());
+    }
+}
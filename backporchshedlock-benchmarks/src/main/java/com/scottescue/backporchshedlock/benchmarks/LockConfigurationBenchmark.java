@@ -0,0 +1,66 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.benchmarks;
+
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.threeten.bp.Instant;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of {@link LockConfiguration}, done for every scheduled execution.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LockConfigurationBenchmark {
+    private Instant lockAtMostUntil;
+    private Instant lockAtLeastUntil;
+
+    @Setup
+    public void setUp() {
+        lockAtMostUntil = Instant.now().plusSeconds(3600);
+        lockAtLeastUntil = Instant.now().plusSeconds(60);
+    }
+
+    @Benchmark
+    public LockConfiguration lockAtMost() {
+        return new LockConfiguration("name", lockAtMostUntil);
+    }
+
+    @Benchmark
+    public LockConfiguration lockAtMostAndAtLeast() {
+        return new LockConfiguration("name", lockAtMostUntil, lockAtLeastUntil);
+    }
+
+    @Benchmark
+    public Instant unlockTime() {
+        return new LockConfiguration("name", lockAtMostUntil, lockAtLeastUntil).getUnlockTime();
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.benchmarks;
+
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.core.DefaultLockManager;
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import com.scottescue.backporchshedlock.core.LockConfigurationExtractor;
+import com.scottescue.backporchshedlock.core.LockManager;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.threeten.bp.Instant;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DefaultLockManager#executeWithLock(Runnable)} including the extraction of the lock configuration.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LockManagerBenchmark {
+    private LockManager lockManager;
+    private Runnable lockedTask;
+    private Runnable unlockedTask;
+
+    @Setup
+    public void setUp() {
+        lockedTask = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        unlockedTask = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        final Optional<LockConfiguration> lockConfiguration = Optional.of(new LockConfiguration("task", Instant.now().plusSeconds(3600)));
+        LockConfigurationExtractor extractor = new LockConfigurationExtractor() {
+            @NotNull
+            @Override
+            public Optional<LockConfiguration> getLockConfiguration(@NotNull Runnable task) {
+                return task == lockedTask ? lockConfiguration : Optional.<LockConfiguration>empty();
+            }
+        };
+        lockManager = new DefaultLockManager(new InMemoryLockProvider(), extractor);
+    }
+
+    @Benchmark
+    public void locked() {
+        lockManager.executeWithLock(lockedTask);
+    }
+
+    @Benchmark
+    public void withoutLockConfiguration() {
+        lockManager.executeWithLock(unlockedTask);
+    }
+}
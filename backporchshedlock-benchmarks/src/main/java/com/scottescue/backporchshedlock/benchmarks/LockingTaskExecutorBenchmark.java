@@ -0,0 +1,89 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.benchmarks;
+
+import com.scottescue.backporchshedlock.core.DefaultLockingTaskExecutor;
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import com.scottescue.backporchshedlock.core.LockingTaskExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.threeten.bp.Instant;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link DefaultLockingTaskExecutor#executeWithLock(Runnable, LockConfiguration)} with a storage based provider. Each
+ * thread either has a lock of its own (uncontended) or all the threads fight for one lock (contended).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockingTaskExecutorBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedState {
+        private final AtomicInteger threadCounter = new AtomicInteger();
+        LockingTaskExecutor executor;
+        LockConfiguration sharedLockConfiguration;
+
+        @Setup
+        public void setUp() {
+            executor = new DefaultLockingTaskExecutor(new InMemoryLockProvider());
+            sharedLockConfiguration = new LockConfiguration("shared", Instant.now().plusSeconds(3600));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        LockConfiguration lockConfiguration;
+        Runnable task;
+
+        @Setup
+        public void setUp(SharedState sharedState, final Blackhole blackhole) {
+            lockConfiguration = new LockConfiguration("lock-" + sharedState.threadCounter.incrementAndGet(), Instant.now().plusSeconds(3600));
+            task = new Runnable() {
+                @Override
+                public void run() {
+                    blackhole.consume(this);
+                }
+            };
+        }
+    }
+
+    @Benchmark
+    public void uncontended(SharedState sharedState, ThreadState threadState) {
+        sharedState.executor.executeWithLock(threadState.task, threadState.lockConfiguration);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void contended(SharedState sharedState, ThreadState threadState) {
+        sharedState.executor.executeWithLock(threadState.task, sharedState.sharedLockConfiguration);
+    }
+}
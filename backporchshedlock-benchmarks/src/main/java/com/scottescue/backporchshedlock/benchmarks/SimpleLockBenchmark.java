@@ -0,0 +1,64 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.benchmarks;
+
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import com.scottescue.backporchshedlock.core.LockProvider;
+import com.scottescue.backporchshedlock.core.SimpleLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.threeten.bp.Instant;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Obtaining, extending and releasing a lock of a storage based provider, i.e. the {@code AbstractSimpleLock} paths.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SimpleLockBenchmark {
+    private LockProvider lockProvider;
+    private LockConfiguration lockConfiguration;
+
+    @Setup
+    public void setUp() {
+        lockProvider = new InMemoryLockProvider();
+        lockConfiguration = new LockConfiguration("name", Instant.now().plusSeconds(3600));
+    }
+
+    @Benchmark
+    public void lockAndUnlock() {
+        lockProvider.lock(lockConfiguration).get().unlock();
+    }
+
+    @Benchmark
+    public void lockExtendAndUnlock() {
+        SimpleLock lock = lockProvider.lock(lockConfiguration).get();
+        lock.extend(Instant.now().plusSeconds(7200), Instant.now()).get().unlock();
+    }
+}
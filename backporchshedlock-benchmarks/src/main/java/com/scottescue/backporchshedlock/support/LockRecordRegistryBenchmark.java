@@ -0,0 +1,86 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.support;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LockRecordRegistry} is consulted on every lock attempt of a storage based provider. Lives in the same package,
+ * the registry is not public.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LockRecordRegistryBenchmark {
+    private static final int NAMES = 1000;
+
+    private final LockRecordRegistry registry = new LockRecordRegistry();
+    private final String[] names = new String[NAMES];
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < NAMES; i++) {
+            names[i] = "lock-" + i;
+            registry.addLockRecord(names[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        String nextName(String[] names) {
+            next = (next + 1) % names.length;
+            return names[next];
+        }
+    }
+
+    @Benchmark
+    public boolean hit(Cursor cursor) {
+        return registry.lockRecordRecentlyCreated(cursor.nextName(names));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean hitContended(Cursor cursor) {
+        return registry.lockRecordRecentlyCreated(cursor.nextName(names));
+    }
+
+    @Benchmark
+    public boolean miss() {
+        return registry.lockRecordRecentlyCreated("unknown");
+    }
+
+    @Benchmark
+    public void add(Cursor cursor) {
+        registry.addLockRecord(cursor.nextName(names));
+    }
+}
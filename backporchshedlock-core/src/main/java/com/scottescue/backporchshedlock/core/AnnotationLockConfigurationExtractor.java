@@ -0,0 +1,209 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.support.Utils;
+import org.jetbrains.annotations.NotNull;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.threeten.bp.jdk8.Jdk8Methods.requireNonNull;
+
+/**
+ * {@link LockConfigurationExtractor} reading the {@link SchedulerLock} annotation from the task class or from its
+ * {@code run()} method.
+ * <p>
+ * The annotation is looked up and its durations are parsed only once per task class, so extracting the configuration
+ * for a task seen before costs a map lookup. Classes without the annotation are remembered as well. The classes are
+ * held weakly, the cache does not keep the classes of an undeployed application and their class loader in memory.
+ */
+public class AnnotationLockConfigurationExtractor implements LockConfigurationExtractor {
+    private final Duration defaultLockAtMostFor;
+    private final Duration defaultLockAtLeastFor;
+
+    // keys are ClassKeys, looked up with ClassLookups; the definitions must not refer to the classes, or the classes
+    // would never be collected
+    private final ConcurrentMap<Object, Optional<LockDefinition>> definitions = new ConcurrentHashMap<Object, Optional<LockDefinition>>();
+    private final ReferenceQueue<Class<?>> collectedClasses = new ReferenceQueue<Class<?>>();
+
+    /**
+     * @param defaultLockAtMostFor  used if the annotation does not specify lockAtMostFor
+     * @param defaultLockAtLeastFor used if the annotation does not specify lockAtLeastFor
+     */
+    public AnnotationLockConfigurationExtractor(@NotNull Duration defaultLockAtMostFor, @NotNull Duration defaultLockAtLeastFor) {
+        this.defaultLockAtMostFor = requireNonNull(defaultLockAtMostFor);
+        this.defaultLockAtLeastFor = requireNonNull(defaultLockAtLeastFor);
+    }
+
+    @NotNull
+    @Override
+    public Optional<LockConfiguration> getLockConfiguration(@NotNull Runnable task) {
+        Optional<LockDefinition> definition = getLockDefinition(task.getClass());
+        if (!definition.isPresent()) {
+            return Optional.empty();
+        }
+        return Optional.of(definition.get().toLockConfiguration(ClockProvider.now()));
+    }
+
+    @NotNull
+    private Optional<LockDefinition> getLockDefinition(@NotNull Class<?> taskClass) {
+        Optional<LockDefinition> definition = definitions.get(new ClassLookup(taskClass));
+        if (definition == null) {
+            // the entries of collected classes are removed on misses only, new classes come with a redeployment
+            removeCollectedClasses();
+            definition = createLockDefinition(taskClass);
+            // parsing is idempotent, it does not matter if another thread got here first
+            definitions.putIfAbsent(new ClassKey(taskClass, collectedClasses), definition);
+        }
+        return definition;
+    }
+
+    private void removeCollectedClasses() {
+        Reference<? extends Class<?>> collected;
+        while ((collected = collectedClasses.poll()) != null) {
+            definitions.remove(collected);
+        }
+    }
+
+    @NotNull
+    private Optional<LockDefinition> createLockDefinition(@NotNull Class<?> taskClass) {
+        SchedulerLock annotation = findAnnotation(taskClass);
+        if (annotation == null) {
+            return Optional.empty();
+        }
+        Duration lockAtMostFor = parseDuration(annotation.lockAtMostFor(), defaultLockAtMostFor, annotation.name());
+        Duration lockAtLeastFor = parseDuration(annotation.lockAtLeastFor(), defaultLockAtLeastFor, annotation.name());
+        if (lockAtLeastFor.compareTo(lockAtMostFor) > 0) {
+            throw new IllegalArgumentException("lockAtLeastFor is longer than lockAtMostFor for lock '" + annotation.name() + "'.");
+        }
+        return Optional.of(new LockDefinition(annotation.name(), lockAtMostFor, lockAtLeastFor));
+    }
+
+    /**
+     * Finds the annotation for the task class. Can be overridden to support tasks wrapping the annotated code,
+     * the result is cached per task class either way.
+     *
+     * @return the annotation or null if the task should be executed without lock
+     */
+    protected SchedulerLock findAnnotation(@NotNull Class<?> taskClass) {
+        try {
+            Method run = taskClass.getMethod("run");
+            SchedulerLock annotation = run.getAnnotation(SchedulerLock.class);
+            if (annotation != null) {
+                return annotation;
+            }
+        } catch (NoSuchMethodException e) {
+            // can not happen for a Runnable
+        }
+        return taskClass.getAnnotation(SchedulerLock.class);
+    }
+
+    @NotNull
+    private static Duration parseDuration(@NotNull String value, @NotNull Duration defaultValue, @NotNull String lockName) {
+        if (value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Utils.parseDuration(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid duration for lock '" + lockName + "'. " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Key of the cache, holds the class weakly. Equal to the keys and lookups of the same class, a key whose class
+     * has been collected is equal only to itself.
+     */
+    private static final class ClassKey extends WeakReference<Class<?>> {
+        private final int hash;
+
+        ClassKey(Class<?> taskClass, ReferenceQueue<Class<?>> queue) {
+            super(taskClass, queue);
+            this.hash = System.identityHashCode(taskClass);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            Class<?> taskClass = get();
+            if (taskClass == null) {
+                return false;
+            }
+            if (o instanceof ClassLookup) {
+                return taskClass == ((ClassLookup) o).taskClass;
+            }
+            return o instanceof ClassKey && taskClass == ((ClassKey) o).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Looks up the cache without allocating a weak reference.
+     */
+    private static final class ClassLookup {
+        private final Class<?> taskClass;
+
+        ClassLookup(Class<?> taskClass) {
+            this.taskClass = taskClass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o instanceof ClassKey) {
+                return taskClass == ((ClassKey) o).get();
+            }
+            return o instanceof ClassLookup && taskClass == ((ClassLookup) o).taskClass;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(taskClass);
+        }
+    }
+
+    private static final class LockDefinition {
+        private final String name;
+        private final Duration lockAtMostFor;
+        private final Duration lockAtLeastFor;
+
+        LockDefinition(String name, Duration lockAtMostFor, Duration lockAtLeastFor) {
+            this.name = name;
+            this.lockAtMostFor = lockAtMostFor;
+            this.lockAtLeastFor = lockAtLeastFor;
+        }
+
+        LockConfiguration toLockConfiguration(Instant now) {
+            return new LockConfiguration(name, now.plus(lockAtMostFor), now.plus(lockAtLeastFor));
+        }
+    }
+}
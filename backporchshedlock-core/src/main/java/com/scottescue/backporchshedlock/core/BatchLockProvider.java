@@ -0,0 +1,41 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * {@link LockProvider} that is able to obtain several locks at once, usually in fewer round trips than calling
+ * {@link #lock(LockConfiguration)} for each of them.
+ * <p>
+ * Use {@link LockProviders#lockAll(LockProvider, Collection)} if the provider may not support batches.
+ */
+public interface BatchLockProvider extends LockProvider {
+
+    /**
+     * Tries to obtain all the locks. Locks that can not be obtained are skipped.
+     *
+     * @param lockConfigurations configurations with distinct lock names
+     * @return obtained locks by lock name, in the order of the configurations. The locks have to be released
+     * by the callee.
+     * @throws IllegalArgumentException if two configurations have the same name
+     */
+    @NotNull
+    Map<String, SimpleLock> lockAll(@NotNull Collection<LockConfiguration> lockConfigurations);
+}
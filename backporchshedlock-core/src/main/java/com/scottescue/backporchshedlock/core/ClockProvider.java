@@ -0,0 +1,48 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.threeten.bp.Clock;
+import org.threeten.bp.Instant;
+
+import static org.threeten.bp.jdk8.Jdk8Methods.requireNonNull;
+
+/**
+ * Source of the current time for the library and the lock providers. Uses the system UTC clock by default.
+ * <p>
+ * Set a {@link CoarseClock} to avoid reading the system time on every lock operation, or a fixed clock in tests.
+ */
+public final class ClockProvider {
+    private static volatile Clock clock = Clock.systemUTC();
+
+    private ClockProvider() {
+    }
+
+    public static void setClock(@NotNull Clock clock) {
+        ClockProvider.clock = requireNonNull(clock, "clock can not be null");
+    }
+
+    @NotNull
+    public static Clock getClock() {
+        return clock;
+    }
+
+    @NotNull
+    public static Instant now() {
+        return clock.instant();
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.threeten.bp.Clock;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneId;
+import org.threeten.bp.ZoneOffset;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.threeten.bp.jdk8.Jdk8Methods.requireNonNull;
+
+/**
+ * Clock that reads the system time only once per tick, in a background thread. Reading it is just a volatile read,
+ * it neither calls the system nor allocates.
+ * <p>
+ * The time may be behind by up to one tick, so the resolution should be much smaller than the lock durations used.
+ * Usage:
+ * <pre>
+ * ClockProvider.setClock(CoarseClock.start(10, TimeUnit.MILLISECONDS));
+ * </pre>
+ */
+public final class CoarseClock extends Clock {
+    private final Ticker ticker;
+    private final ZoneId zone;
+
+    private CoarseClock(Ticker ticker, ZoneId zone) {
+        this.ticker = ticker;
+        this.zone = zone;
+    }
+
+    /**
+     * Starts a clock in UTC updated every {@code resolution}.
+     */
+    @NotNull
+    public static CoarseClock start(long resolution, @NotNull TimeUnit unit) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("resolution has to be positive");
+        }
+        return new CoarseClock(new Ticker(Clock.systemUTC(), resolution, requireNonNull(unit, "unit can not be null")), ZoneOffset.UTC);
+    }
+
+    /**
+     * Stops the background thread, the clock does not move after that. Stops also the clocks derived by
+     * {@link #withZone(ZoneId)}.
+     */
+    public void stop() {
+        ticker.stop();
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        if (zone.equals(this.zone)) {
+            return this;
+        }
+        return new CoarseClock(ticker, zone);
+    }
+
+    @Override
+    public Instant instant() {
+        return ticker.now;
+    }
+
+    @Override
+    public long millis() {
+        return ticker.now.toEpochMilli();
+    }
+
+    private static class Ticker implements Runnable {
+        private final Clock source;
+        private final ScheduledExecutorService executor;
+        private volatile Instant now;
+
+        Ticker(Clock source, long resolution, TimeUnit unit) {
+            this.source = source;
+            this.now = source.instant();
+            this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NotNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "backporchshedlock-clock");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.scheduleAtFixedRate(this, resolution, resolution, unit);
+        }
+
+        @Override
+        public void run() {
+            now = source.instant();
+        }
+
+        void stop() {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -19,22 +19,49 @@ import com.scottescue.backporchshedlock.Optional;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.threeten.bp.Duration;
 import org.threeten.bp.Instant;
 import org.threeten.bp.jdk8.Jdk8Methods;
 
-
-import static com.scottescue.backporchshedlock.core.LockAssert.alreadyLockedBy;
-
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
 /**
  * Default {@link LockingTaskExecutor} implementation.
  */
 public class DefaultLockingTaskExecutor implements LockingTaskExecutor {
     private static final Logger logger = LoggerFactory.getLogger(DefaultLockingTaskExecutor.class);
+    private static final long MIN_BACKOFF_MS = 10;
+    private static final long MAX_BACKOFF_MS = 5000;
+    // how late a waiter may notice that a lock whose lock_until is known has been released early
+    static final long MAX_HELD_LOCK_BACKOFF_MS = 60000;
+    private static final long HELD_LOCK_JITTER_MS = 100;
+    // java.util.Random is thread safe, but all the waiting threads would contend on its seed
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
     @NotNull
     private final LockProvider lockProvider;
+    private final ScheduledExecutorService keepAliveScheduler;
 
     public DefaultLockingTaskExecutor(@NotNull LockProvider lockProvider) {
         this.lockProvider = Jdk8Methods.requireNonNull(lockProvider);
+        this.keepAliveScheduler = null;
+    }
+
+    /**
+     * Keeps the locks alive while the tasks are running. Each lock is extended by its original lease (lockAtMostUntil
+     * - the time the lock has been obtained) every half of the lease, so short lockAtMostUntil can be used even for long
+     * tasks and the lock is released soon if the node dies. The lock provider has to support lock extension.
+     *
+     * @param keepAliveScheduler scheduler extending the locks, a single thread is enough for all the locks. Not shut down
+     *                           by the executor.
+     */
+    public DefaultLockingTaskExecutor(@NotNull LockProvider lockProvider, @NotNull ScheduledExecutorService keepAliveScheduler) {
+        this.lockProvider = Jdk8Methods.requireNonNull(lockProvider);
+        this.keepAliveScheduler = Jdk8Methods.requireNonNull(keepAliveScheduler);
     }
 
     @Override
@@ -54,23 +81,142 @@ public class DefaultLockingTaskExecutor implements LockingTaskExecutor {
 
     @Override
     public void executeWithLock(@NotNull Task task, @NotNull LockConfiguration lockConfig) throws Throwable {
-        Optional<? extends SimpleLock> lock = lockProvider.lock(lockConfig);
+        tryExecuteWithLock(task, lockConfig);
+    }
+
+    /**
+     * Like {@link #executeWithLock(Runnable, LockConfiguration)}, but if the lock is held by someone else, waits for it
+     * at most {@code maxWait}.
+     *
+     * @return true if the task has been executed, false if the lock has not been obtained in time or the thread has been
+     * interrupted while waiting
+     * @see #executeWithLock(Task, LockConfiguration, Duration)
+     */
+    public boolean executeWithLock(@NotNull final Runnable task, @NotNull LockConfiguration lockConfig, @NotNull Duration maxWait) {
+        try {
+            return executeWithLock(new Task() {
+                @Override
+                public void call() throws Throwable {
+                    task.run();
+                }
+            }, lockConfig, maxWait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Throwable throwable) {
+            // Should not happen
+            throw new IllegalStateException(throwable);
+        }
+    }
+
+    /**
+     * Like {@link #executeWithLock(Task, LockConfiguration)}, but if the lock is held by someone else, waits for it
+     * at most {@code maxWait}.
+     * <p>
+     * The lock is requested again after an exponentially growing, randomized delay of at most 5 seconds. If the lock
+     * provider is an {@link InspectableLockProvider}, the time the lock is held until is read once, after the first
+     * failed attempt. Until that time the delays grow up to a minute, so a lock released early is noticed at most a
+     * minute late, and the last delay ends shortly before that time. Since the lock may be obtained later than the
+     * configuration has been created, lockAtMostUntil and lockAtLeastUntil are moved by the time spent waiting.
+     *
+     * @return true if the task has been executed, false if the lock has not been obtained in time
+     * @throws InterruptedException if the thread has been interrupted while waiting
+     */
+    public boolean executeWithLock(@NotNull Task task, @NotNull LockConfiguration lockConfig, @NotNull Duration maxWait) throws Throwable {
+        Jdk8Methods.requireNonNull(maxWait, "maxWait can not be null");
+        Instant start = ClockProvider.now();
+        Instant deadline = start.plus(maxWait);
+        Duration lockAtMostFor = Duration.between(start, lockConfig.getLockAtMostUntil());
+        Duration lockAtLeastFor = lockConfig.getLockAtLeastUntil().isAfter(start) ? Duration.between(start, lockConfig.getLockAtLeastUntil()) : Duration.ZERO;
+
+        LockConfiguration currentConfig = lockConfig;
+        long backoff = MIN_BACKOFF_MS;
+        Optional<Instant> heldUntil = null;
+        while (true) {
+            if (tryExecuteWithLock(task, currentConfig)) {
+                return true;
+            }
+
+            Instant now = ClockProvider.now();
+            long remaining = Duration.between(now, deadline).toMillis();
+            if (remaining <= 0) {
+                logger.debug("Lock '{}' has not been obtained in {}", lockConfig.getName(), maxWait);
+                return false;
+            }
+            if (heldUntil == null) {
+                heldUntil = getLockUntil(lockConfig.getName());
+            }
+            long delay = Math.min(nextDelay(backoff, now, heldUntil), remaining);
+            logger.debug("Waiting {} ms for lock '{}'", delay, lockConfig.getName());
+            Thread.sleep(delay);
+            backoff = Math.min(backoff * 2, MAX_HELD_LOCK_BACKOFF_MS);
+
+            now = ClockProvider.now();
+            currentConfig = new LockConfiguration(lockConfig.getName(), now.plus(lockAtMostFor), now.plus(lockAtLeastFor));
+        }
+    }
+
+    private Optional<Instant> getLockUntil(String lockName) {
+        if (lockProvider instanceof InspectableLockProvider) {
+            return ((InspectableLockProvider) lockProvider).getLockUntil(lockName);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Randomized backoff, between half and full of it. The backoff is capped at 5 seconds, or at a minute while the
+     * time the lock is held until is known and has not passed yet. A delay reaching that time ends up to 100 ms before
+     * it, so the waiters do not all come back at once.
+     */
+    static long nextDelay(long backoff, Instant now, Optional<Instant> heldUntil) {
+        Random random = RANDOM.get();
+        boolean held = heldUntil.isPresent() && heldUntil.get().isAfter(now);
+        long cappedBackoff = Math.min(backoff, held ? MAX_HELD_LOCK_BACKOFF_MS : MAX_BACKOFF_MS);
+        long delay = cappedBackoff / 2 + (long) (random.nextDouble() * (cappedBackoff / 2 + 1));
+        if (held) {
+            long untilReleased = Duration.between(now, heldUntil.get()).toMillis();
+            if (delay >= untilReleased) {
+                // the jitter is skipped if the time is close already, so that the next attempt does not come early again
+                long jitter = untilReleased > HELD_LOCK_JITTER_MS ? (long) (random.nextDouble() * (HELD_LOCK_JITTER_MS + 1)) : 0;
+                delay = Math.max(untilReleased - jitter, MIN_BACKOFF_MS);
+            }
+        }
+        return Math.max(delay, 1);
+    }
+
+    /**
+     * @return true if the task has been executed
+     */
+    private boolean tryExecuteWithLock(@NotNull Task task, @NotNull LockConfiguration lockConfig) throws Throwable {
         String lockName = lockConfig.getName();
+        // nested call, we already have the lock, no need to ask the lock provider
+        if (LockAssert.reenterLock(lockName)) {
+            try {
+                logger.debug("Already locked '{}'", lockName);
+                task.call();
+            } finally {
+                LockAssert.endLock(lockName);
+            }
+            return true;
+        }
 
-        if (alreadyLockedBy(lockName)) {
-            logger.debug("Already locked '{}'", lockName);
-            task.call();
-        } else if (lock.isPresent()) {
+        Optional<? extends SimpleLock> lock = lockProvider.lock(lockConfig);
+        if (lock.isPresent()) {
+            KeptAliveLock keptAliveLock = keepAliveScheduler != null ? KeptAliveLock.start(lock.get(), lockConfig, keepAliveScheduler) : null;
             try {
                 LockAssert.startLock(lockName);
                 logger.debug("Locked '{}', lock will be held at most until {}", lockName, lockConfig.getLockAtMostUntil());
                 task.call();
             } finally {
-                LockAssert.endLock();
-                lock.get().unlock();
+                LockAssert.endLock(lockName);
+                if (keptAliveLock != null) {
+                    keptAliveLock.unlock();
+                } else {
+                    lock.get().unlock();
+                }
                 if (logger.isDebugEnabled()) {
                     Instant lockAtLeastUntil = lockConfig.getLockAtLeastUntil();
-                    Instant now = Instant.now();
+                    Instant now = ClockProvider.now();
                     if (lockAtLeastUntil.isAfter(now)) {
                         logger.debug("Task finished, lock '{}' will be released at {}", lockName, lockAtLeastUntil);
                     } else {
@@ -78,8 +224,10 @@ public class DefaultLockingTaskExecutor implements LockingTaskExecutor {
                     }
                 }
             }
+            return true;
         } else {
             logger.debug("Not executing '{}'. It's locked.", lockName);
+            return false;
         }
     }
 }
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import com.scottescue.backporchshedlock.Optional;
+import org.jetbrains.annotations.NotNull;
+import org.threeten.bp.Instant;
+
+/**
+ * {@link LockProvider} able to tell until when a lock is held. Used to wait for a lock without asking for it too often.
+ */
+public interface InspectableLockProvider extends LockProvider {
+
+    /**
+     * Returns the time until which the lock is held. The lock may be released sooner if its holder finishes.
+     *
+     * @param lockName lock name
+     * @return lockAtMostUntil of the current holder, or empty if the lock is not held or it can not be found out. May be
+     * in the past if the lock has already been released.
+     */
+    @NotNull
+    Optional<Instant> getLockUntil(@NotNull String lockName);
+}
@@ -0,0 +1,294 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.support.LatencyHistogram;
+import com.scottescue.backporchshedlock.support.StripedCounter;
+import org.jetbrains.annotations.NotNull;
+import org.threeten.bp.Instant;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.threeten.bp.jdk8.Jdk8Methods.requireNonNull;
+
+/**
+ * Wraps a {@link LockProvider} and measures how long the lock operations take and how long the locks are held.
+ * Useful to find out whether a slow scheduler is caused by the lock storage or by the tasks.
+ * <p>
+ * Nothing is reported anywhere, read the values using the getters and push them to the monitoring system of your choice.
+ * All values are cumulative since the provider has been created or {@link #reset()}.
+ * <p>
+ * {@link #lockAll(Collection)} and {@link #getLockUntil(String)} are delegated if the wrapped provider supports them,
+ * so wrapping a provider does not turn off its batches and the waiting of
+ * {@link DefaultLockingTaskExecutor#executeWithLock(Runnable, LockConfiguration, org.threeten.bp.Duration)}.
+ */
+public class InstrumentedLockProvider implements BatchLockProvider, InspectableLockProvider {
+    /**
+     * Default maximal number of lock names whose contention is counted, see {@link #getContention()}.
+     */
+    public static final int DEFAULT_MAX_CONTENDED_NAMES = 1000;
+
+    private final LockProvider lockProvider;
+    private final int maxContendedNames;
+
+    private final LatencyHistogram acquiredLatency = new LatencyHistogram();
+    private final LatencyHistogram rejectedLatency = new LatencyHistogram();
+    private final LatencyHistogram unlockLatency = new LatencyHistogram();
+    private final LatencyHistogram extendLatency = new LatencyHistogram();
+    private final LatencyHistogram holdTime = new LatencyHistogram();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+    private final StripedCounter failures = new StripedCounter();
+    private final StripedCounter untrackedContention = new StripedCounter();
+
+    /**
+     * Lock name to the number of attempts that have not obtained the lock.
+     */
+    private final ConcurrentMap<String, AtomicLong> contention = new ConcurrentHashMap<String, AtomicLong>();
+
+    public InstrumentedLockProvider(@NotNull LockProvider lockProvider) {
+        this(lockProvider, DEFAULT_MAX_CONTENDED_NAMES);
+    }
+
+    /**
+     * @param maxContendedNames maximal number of lock names whose contention is counted, keeps the memory bounded if
+     *                          the lock names are generated
+     */
+    public InstrumentedLockProvider(@NotNull LockProvider lockProvider, int maxContendedNames) {
+        this.lockProvider = requireNonNull(lockProvider, "lockProvider can not be null");
+        if (maxContendedNames < 0) {
+            throw new IllegalArgumentException("maxContendedNames can not be negative");
+        }
+        this.maxContendedNames = maxContendedNames;
+    }
+
+    @Override
+    @NotNull
+    public Optional<SimpleLock> lock(@NotNull LockConfiguration lockConfiguration) {
+        long start = System.nanoTime();
+        Optional<SimpleLock> lock;
+        try {
+            lock = lockProvider.lock(lockConfiguration);
+        } catch (RuntimeException e) {
+            failures.increment();
+            throw e;
+        }
+        long now = System.nanoTime();
+        if (lock.isPresent()) {
+            acquiredLatency.recordNanos(now - start);
+            return Optional.<SimpleLock>of(new InstrumentedLock(lock.get(), now));
+        } else {
+            rejectedLatency.recordNanos(now - start);
+            countContention(lockConfiguration.getName());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Uses {@link BatchLockProvider#lockAll(Collection)} of the wrapped provider if it supports it, otherwise the locks
+     * are obtained one by one. The duration of the whole call is recorded in {@link #getBatchLatency()}.
+     */
+    @Override
+    @NotNull
+    public Map<String, SimpleLock> lockAll(@NotNull Collection<LockConfiguration> lockConfigurations) {
+        // duplicate names are not a failure of the storage
+        LockProviders.checkDistinctNames(lockConfigurations);
+        long start = System.nanoTime();
+        Map<String, SimpleLock> obtained;
+        try {
+            obtained = LockProviders.lockAll(lockProvider, lockConfigurations);
+        } catch (RuntimeException e) {
+            failures.increment();
+            throw e;
+        }
+        long now = System.nanoTime();
+        batchLatency.recordNanos(now - start);
+        Map<String, SimpleLock> locks = new LinkedHashMap<String, SimpleLock>();
+        for (LockConfiguration lockConfiguration : lockConfigurations) {
+            SimpleLock lock = obtained.get(lockConfiguration.getName());
+            if (lock != null) {
+                locks.put(lockConfiguration.getName(), new InstrumentedLock(lock, now));
+            } else {
+                countContention(lockConfiguration.getName());
+            }
+        }
+        return locks;
+    }
+
+    /**
+     * Asks the wrapped provider if it is an {@link InspectableLockProvider}, otherwise the time can not be found out.
+     */
+    @Override
+    @NotNull
+    public Optional<Instant> getLockUntil(@NotNull String lockName) {
+        if (lockProvider instanceof InspectableLockProvider) {
+            return ((InspectableLockProvider) lockProvider).getLockUntil(lockName);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Duration of attempts that have obtained the lock.
+     */
+    @NotNull
+    public LatencyHistogram getAcquiredLatency() {
+        return acquiredLatency;
+    }
+
+    /**
+     * Duration of attempts that have not obtained the lock, because it was held by someone else.
+     */
+    @NotNull
+    public LatencyHistogram getRejectedLatency() {
+        return rejectedLatency;
+    }
+
+    @NotNull
+    public LatencyHistogram getUnlockLatency() {
+        return unlockLatency;
+    }
+
+    @NotNull
+    public LatencyHistogram getExtendLatency() {
+        return extendLatency;
+    }
+
+    /**
+     * Time from obtaining the lock to unlocking it, including extensions.
+     */
+    @NotNull
+    public LatencyHistogram getHoldTime() {
+        return holdTime;
+    }
+
+    /**
+     * Duration of {@link #lockAll(Collection)} calls.
+     */
+    @NotNull
+    public LatencyHistogram getBatchLatency() {
+        return batchLatency;
+    }
+
+    /**
+     * Number of lock operations that have thrown an exception.
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Number of attempts that have not obtained the lock, by lock name. Only the first maxContendedNames names are
+     * tracked, the attempts of the others are counted by {@link #getUntrackedContention()}.
+     */
+    @NotNull
+    public Map<String, Long> getContention() {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : contention.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    /**
+     * Number of attempts that have not obtained the lock, of the names not tracked by {@link #getContention()}.
+     */
+    public long getUntrackedContention() {
+        return untrackedContention.sum();
+    }
+
+    public void reset() {
+        acquiredLatency.reset();
+        rejectedLatency.reset();
+        unlockLatency.reset();
+        extendLatency.reset();
+        holdTime.reset();
+        batchLatency.reset();
+        failures.reset();
+        untrackedContention.reset();
+        contention.clear();
+    }
+
+    private void countContention(String name) {
+        AtomicLong counter = contention.get(name);
+        if (counter == null) {
+            if (contention.size() >= maxContendedNames) {
+                // the size is checked without a lock, a few more names may slip in under concurrent updates
+                untrackedContention.increment();
+                return;
+            }
+            AtomicLong newCounter = new AtomicLong();
+            counter = contention.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    private class InstrumentedLock extends SimpleLock {
+        private final SimpleLock delegate;
+        private final long acquiredAt;
+
+        InstrumentedLock(SimpleLock delegate, long acquiredAt) {
+            this.delegate = delegate;
+            this.acquiredAt = acquiredAt;
+        }
+
+        @Override
+        public void unlock() {
+            long start = System.nanoTime();
+            try {
+                delegate.unlock();
+            } catch (RuntimeException e) {
+                failures.increment();
+                throw e;
+            }
+            long now = System.nanoTime();
+            unlockLatency.recordNanos(now - start);
+            holdTime.recordNanos(now - acquiredAt);
+        }
+
+        @NotNull
+        @Override
+        public Optional<SimpleLock> extend(@NotNull Instant lockAtMostUntil, @NotNull Instant lockAtLeastUntil) {
+            long start = System.nanoTime();
+            Optional<SimpleLock> extended;
+            try {
+                extended = delegate.extend(lockAtMostUntil, lockAtLeastUntil);
+            } catch (UnsupportedOperationException e) {
+                // the provider does not support extension, not a failure of the storage
+                throw e;
+            } catch (RuntimeException e) {
+                failures.increment();
+                throw e;
+            }
+            long now = System.nanoTime();
+            extendLatency.recordNanos(now - start);
+            if (extended.isPresent()) {
+                return Optional.<SimpleLock>of(new InstrumentedLock(extended.get(), acquiredAt));
+            }
+            // the lock has been lost
+            holdTime.recordNanos(now - acquiredAt);
+            return Optional.empty();
+        }
+    }
+}
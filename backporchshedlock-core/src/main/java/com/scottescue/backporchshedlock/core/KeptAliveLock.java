@@ -0,0 +1,137 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import com.scottescue.backporchshedlock.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Extends a lock in the background until it is unlocked. Each extension prolongs the lock by its original lease
+ * (lockAtMostUntil - the time the lock has been obtained) and the next one is scheduled after half of the lease.
+ * <p>
+ * The lock is accessed both from the scheduler and from the thread executing the task, so all lock operations are
+ * guarded by a {@link ReentrantLock}. Not a monitor, they make round trips to the storage and a virtual thread blocked
+ * inside synchronized would pin its carrier thread.
+ */
+class KeptAliveLock implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(KeptAliveLock.class);
+
+    private final ScheduledExecutorService scheduler;
+    private final String name;
+    private final Duration lease;
+    private final Instant lockAtLeastUntil;
+    private final ReentrantLock guard = new ReentrantLock();
+
+    private SimpleLock lock;
+    private ScheduledFuture<?> nextExtension;
+    private boolean finished;
+    private boolean lost;
+
+    private KeptAliveLock(SimpleLock lock, LockConfiguration lockConfiguration, Duration lease, ScheduledExecutorService scheduler) {
+        this.lock = lock;
+        this.name = lockConfiguration.getName();
+        this.lockAtLeastUntil = lockConfiguration.getLockAtLeastUntil();
+        this.lease = lease;
+        this.scheduler = scheduler;
+    }
+
+    static KeptAliveLock start(SimpleLock lock, LockConfiguration lockConfiguration, ScheduledExecutorService scheduler) {
+        Duration lease = Duration.between(ClockProvider.now(), lockConfiguration.getLockAtMostUntil());
+        KeptAliveLock keptAliveLock = new KeptAliveLock(lock, lockConfiguration, lease, scheduler);
+        keptAliveLock.guard.lock();
+        try {
+            keptAliveLock.scheduleNextExtension();
+        } finally {
+            keptAliveLock.guard.unlock();
+        }
+        return keptAliveLock;
+    }
+
+    @Override
+    public void run() {
+        guard.lock();
+        try {
+            extend();
+        } finally {
+            guard.unlock();
+        }
+    }
+
+    private void extend() {
+        if (finished) {
+            return;
+        }
+        Instant lockAtMostUntil = ClockProvider.now().plus(lease);
+        try {
+            Optional<SimpleLock> extended = lock.extend(lockAtMostUntil, lockAtLeastUntil);
+            if (extended.isPresent()) {
+                lock = extended.get();
+                logger.debug("Lock '{}' extended until {}", name, lockAtMostUntil);
+                scheduleNextExtension();
+            } else {
+                finished = true;
+                lost = true;
+                logger.warn("Can not extend lock '{}', it has already expired and might be held by someone else", name);
+            }
+        } catch (UnsupportedOperationException e) {
+            finished = true;
+            logger.warn("Lock provider does not support extending lock '{}', it will not be kept alive", name);
+        } catch (RuntimeException e) {
+            // the lock has not been touched, let's try again
+            logger.warn("Extending lock '{}' failed", name, e);
+            scheduleNextExtension();
+        }
+    }
+
+    /**
+     * Stops extending the lock and unlocks it, unless it has already been lost.
+     */
+    void unlock() {
+        guard.lock();
+        try {
+            finished = true;
+            if (nextExtension != null) {
+                nextExtension.cancel(false);
+            }
+            if (!lost) {
+                lock.unlock();
+            }
+        } finally {
+            guard.unlock();
+        }
+    }
+
+    private void scheduleNextExtension() {
+        long delay = lease.toMillis() / 2;
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            nextExtension = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Can not schedule extension of lock '{}', it will not be kept alive", name, e);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import com.scottescue.backporchshedlock.Optional;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.threeten.bp.Instant;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.threeten.bp.jdk8.Jdk8Methods.requireNonNull;
+
+/**
+ * Wraps a {@link LockProvider} so only one thread per JVM tries to obtain a lock with a given name. Other threads
+ * asking for the same lock in the meantime do not get it, without contacting the wrapped provider.
+ * <p>
+ * Thread pool based schedulers may fan the same task out to several workers at once. Only one of them can win, so
+ * there is no point in all of them going to the database.
+ * <p>
+ * The local guard is held from the moment the lock is being obtained until it is released, so the wrapped provider
+ * is not contacted while this JVM holds the lock either. A guard of a lock that has not been released by its
+ * lockAtMostUntil, for example because its thread died, is taken over, as the wrapped provider would take over the
+ * lock.
+ * <p>
+ * {@link #getLockUntil(String)} is delegated if the wrapped provider supports it, so wrapping a provider does not turn
+ * off the waiting of
+ * {@link DefaultLockingTaskExecutor#executeWithLock(Runnable, LockConfiguration, org.threeten.bp.Duration)}.
+ */
+public class LocallyGuardedLockProvider implements BatchLockProvider, InspectableLockProvider {
+    private static final Logger logger = LoggerFactory.getLogger(LocallyGuardedLockProvider.class);
+
+    private final LockProvider lockProvider;
+
+    /**
+     * Lock name to the guard of the thread that is obtaining or holding the lock.
+     */
+    private final ConcurrentMap<String, Guard> guards = new ConcurrentHashMap<String, Guard>();
+
+    public LocallyGuardedLockProvider(@NotNull LockProvider lockProvider) {
+        this.lockProvider = requireNonNull(lockProvider, "lockProvider can not be null");
+    }
+
+    @Override
+    @NotNull
+    public Optional<SimpleLock> lock(@NotNull LockConfiguration lockConfiguration) {
+        String name = lockConfiguration.getName();
+        Guard guard = new Guard(lockConfiguration.getLockAtMostUntil());
+        if (!acquire(name, guard)) {
+            logger.debug("Lock '{}' is already being obtained or held by this JVM", name);
+            return Optional.empty();
+        }
+
+        boolean locked = false;
+        try {
+            Optional<SimpleLock> lock = lockProvider.lock(lockConfiguration);
+            if (lock.isPresent()) {
+                locked = true;
+                return Optional.<SimpleLock>of(new LocallyGuardedLock(lock.get(), name, guard));
+            }
+            return Optional.empty();
+        } finally {
+            if (!locked) {
+                release(name, guard);
+            }
+        }
+    }
+
+    @Override
+    @NotNull
+    public Map<String, SimpleLock> lockAll(@NotNull Collection<LockConfiguration> lockConfigurations) {
+        LockProviders.checkDistinctNames(lockConfigurations);
+        Map<String, Guard> acquiredGuards = new HashMap<String, Guard>();
+        List<LockConfiguration> guarded = new ArrayList<LockConfiguration>();
+        for (LockConfiguration lockConfiguration : lockConfigurations) {
+            Guard guard = new Guard(lockConfiguration.getLockAtMostUntil());
+            if (acquire(lockConfiguration.getName(), guard)) {
+                acquiredGuards.put(lockConfiguration.getName(), guard);
+                guarded.add(lockConfiguration);
+            }
+        }
+
+        Map<String, SimpleLock> locks = new LinkedHashMap<String, SimpleLock>();
+        try {
+            if (!guarded.isEmpty()) {
+                for (Map.Entry<String, SimpleLock> lock : LockProviders.lockAll(lockProvider, guarded).entrySet()) {
+                    String name = lock.getKey();
+                    locks.put(name, new LocallyGuardedLock(lock.getValue(), name, acquiredGuards.remove(name)));
+                }
+            }
+            return locks;
+        } finally {
+            // release guards of the locks we have not obtained
+            for (Map.Entry<String, Guard> guard : acquiredGuards.entrySet()) {
+                release(guard.getKey(), guard.getValue());
+            }
+        }
+    }
+
+    /**
+     * Asks the wrapped provider if it is an {@link InspectableLockProvider}, otherwise the time can not be found out.
+     */
+    @Override
+    @NotNull
+    public Optional<Instant> getLockUntil(@NotNull String lockName) {
+        if (lockProvider instanceof InspectableLockProvider) {
+            return ((InspectableLockProvider) lockProvider).getLockUntil(lockName);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Returns true if a thread of this JVM is obtaining or holding the lock and its lockAtMostUntil has not passed yet.
+     */
+    public boolean isGuarded(@NotNull String lockName) {
+        Guard guard = guards.get(lockName);
+        return guard != null && !guard.isExpired(ClockProvider.now());
+    }
+
+    private boolean acquire(String name, Guard guard) {
+        Guard existing = guards.putIfAbsent(name, guard);
+        if (existing == null) {
+            return true;
+        }
+        if (existing.isExpired(ClockProvider.now()) && guards.replace(name, existing, guard)) {
+            logger.warn("Lock '{}' has not been released by its lockAtMostUntil, taking over its local guard", name);
+            return true;
+        }
+        return false;
+    }
+
+    private void release(String name, Guard guard) {
+        guards.remove(name, guard);
+    }
+
+    private static final class Guard {
+        private volatile Instant lockAtMostUntil;
+
+        Guard(Instant lockAtMostUntil) {
+            this.lockAtMostUntil = lockAtMostUntil;
+        }
+
+        boolean isExpired(Instant now) {
+            return !now.isBefore(lockAtMostUntil);
+        }
+    }
+
+    private class LocallyGuardedLock extends SimpleLock {
+        private final SimpleLock delegate;
+        private final String name;
+        private final Guard guard;
+
+        LocallyGuardedLock(SimpleLock delegate, String name, Guard guard) {
+            this.delegate = delegate;
+            this.name = name;
+            this.guard = guard;
+        }
+
+        @Override
+        public void unlock() {
+            try {
+                delegate.unlock();
+            } finally {
+                release(name, guard);
+            }
+        }
+
+        @NotNull
+        @Override
+        public Optional<SimpleLock> extend(@NotNull Instant lockAtMostUntil, @NotNull Instant lockAtLeastUntil) {
+            Optional<SimpleLock> extended = delegate.extend(lockAtMostUntil, lockAtLeastUntil);
+            if (extended.isPresent()) {
+                guard.lockAtMostUntil = lockAtMostUntil;
+                return Optional.<SimpleLock>of(new LocallyGuardedLock(extended.get(), name, guard));
+            }
+            // the lock has expired in the meantime, we do not hold it anymore
+            release(name, guard);
+            return Optional.empty();
+        }
+    }
+}
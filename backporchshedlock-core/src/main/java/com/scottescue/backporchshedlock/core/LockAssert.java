@@ -17,6 +17,9 @@ package com.scottescue.backporchshedlock.core;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Asserts lock presence. The Spring ecosystem is so complicated, so one can not be sure that the lock is applied. This class
  * makes sure that the task is indeed locked.
@@ -25,31 +28,86 @@ import org.jetbrains.annotations.NotNull;
  * broken by Sleuth,.
  */
 public class LockAssert {
-    private static final ThreadLocal<String> currentLockName = new ThreadLocal<String>() {
-        @Override
-        protected String initialValue() {
-            return null;
-        }
-    };
+    /**
+     * Locks held by the current thread, the innermost one last.
+     */
+    private static final ThreadLocal<List<HeldLock>> heldLocks = new ThreadLocal<List<HeldLock>>();
 
-    static void startLock(String name) {
-        currentLockName.set(name);
+    static void startLock(@NotNull String name) {
+        List<HeldLock> locks = heldLocks.get();
+        if (locks == null) {
+            locks = new ArrayList<HeldLock>(4);
+            heldLocks.set(locks);
+        }
+        locks.add(new HeldLock(name));
     }
 
-    static boolean alreadyLockedBy(@NotNull String name) {
-        return name.equals(currentLockName.get());
+    /**
+     * Enters the lock again if it is already held by the current thread.
+     *
+     * @return true if the lock is held by the current thread, {@link #endLock(String)} has to be called afterwards
+     */
+    static boolean reenterLock(@NotNull String name) {
+        HeldLock lock = find(name);
+        if (lock == null) {
+            return false;
+        }
+        lock.holdCount++;
+        return true;
     }
 
-    static void endLock() {
-        currentLockName.remove();
+    /**
+     * Ends one hold of the lock, the lock is forgotten once all of them have ended.
+     */
+    static void endLock(@NotNull String name) {
+        List<HeldLock> locks = heldLocks.get();
+        if (locks == null) {
+            return;
+        }
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            HeldLock lock = locks.get(i);
+            if (lock.name.equals(name)) {
+                if (--lock.holdCount == 0) {
+                    locks.remove(i);
+                }
+                break;
+            }
+        }
+        if (locks.isEmpty()) {
+            // do not leak the list in thread pools
+            heldLocks.remove();
+        }
     }
 
     /**
      * Throws an exception if the lock is not present.
      */
     public static void assertLocked() {
-        if (currentLockName.get() == null) {
+        List<HeldLock> locks = heldLocks.get();
+        if (locks == null || locks.isEmpty()) {
             throw new IllegalStateException("The task is not locked.");
         }
     }
+
+    private static HeldLock find(String name) {
+        List<HeldLock> locks = heldLocks.get();
+        if (locks == null) {
+            return null;
+        }
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            if (locks.get(i).name.equals(name)) {
+                return locks.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static class HeldLock {
+        private final String name;
+        private int holdCount = 1;
+
+        HeldLock(String name) {
+            this.name = name;
+        }
+    }
 }
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import com.scottescue.backporchshedlock.Optional;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+import static org.threeten.bp.jdk8.Jdk8Methods.requireNonNull;
+
+/**
+ * Semaphore whose permits are locks of a {@link LockProvider}. Permit i of semaphore "name" is the lock "name#i",
+ * a row of the lock table with the JDBC providers or an entry of the lock store with Hazelcast. Acquiring a permit
+ * tries the permit locks one by one, starting at a random one so concurrent acquirers do not all compete for the
+ * first permit, until one of them is obtained.
+ * <p>
+ * A permit is a regular lock, it expires at lockAtMostUntil if its holder dies and it is held at least until
+ * lockAtLeastUntil. The semaphore names must not collide with lock names used for anything else.
+ * <p>
+ * Lowering the number of permits leaves the permits above it held until they are released, raising it takes effect
+ * right away.
+ */
+public class LockBasedSemaphoreProvider implements SemaphoreProvider {
+    private static final Logger logger = LoggerFactory.getLogger(LockBasedSemaphoreProvider.class);
+
+    private static final String PERMIT_SEPARATOR = "#";
+
+    // java.util.Random is thread safe, but all the threads would contend on its seed
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    private final LockProvider lockProvider;
+
+    public LockBasedSemaphoreProvider(@NotNull LockProvider lockProvider) {
+        this.lockProvider = requireNonNull(lockProvider, "lockProvider can not be null");
+    }
+
+    @Override
+    @NotNull
+    public Optional<SimpleLock> acquire(@NotNull LockConfiguration lockConfiguration, int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits has to be positive");
+        }
+        int first = RANDOM.get().nextInt(permits);
+        for (int i = 0; i < permits; i++) {
+            int permit = (first + i) % permits;
+            LockConfiguration permitConfiguration = new LockConfiguration(getPermitName(lockConfiguration.getName(), permit),
+                lockConfiguration.getLockAtMostUntil(), lockConfiguration.getLockAtLeastUntil());
+            Optional<SimpleLock> lock = lockProvider.lock(permitConfiguration);
+            if (lock.isPresent()) {
+                logger.debug("Acquired permit {} of semaphore '{}'", permit, lockConfiguration.getName());
+                return lock;
+            }
+        }
+        logger.debug("All {} permits of semaphore '{}' are held", permits, lockConfiguration.getName());
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the name of the lock of the permit.
+     *
+     * @param permit permit number, from 0 to permits - 1
+     */
+    @NotNull
+    public static String getPermitName(@NotNull String semaphoreName, int permit) {
+        return semaphoreName + PERMIT_SEPARATOR + permit;
+    }
+}
@@ -37,7 +37,7 @@ public class LockConfiguration {
     private final Instant lockAtLeastUntil;
 
     public LockConfiguration(@NotNull String name, @NotNull Instant lockAtMostUntil) {
-        this(name, lockAtMostUntil, Instant.now());
+        this(name, lockAtMostUntil, ClockProvider.now());
     }
 
     public LockConfiguration(@NotNull String name, @NotNull Instant lockAtMostUntil, @NotNull Instant lockAtLeastUntil) {
@@ -47,7 +47,7 @@ public class LockConfiguration {
         if (lockAtLeastUntil.isAfter(lockAtMostUntil)) {
             throw new IllegalArgumentException("lockAtMostUntil is before lockAtLeastUntil for lock '" + name + "'.");
         }
-        if (lockAtMostUntil.isBefore(Instant.now())) {
+        if (lockAtMostUntil.isBefore(ClockProvider.now())) {
             throw new IllegalArgumentException("lockAtMostUntil is in the past for lock '" + name + "'.");
         }
         if (name.isEmpty()) {
@@ -72,7 +72,7 @@ public class LockConfiguration {
      * Returns either now or lockAtLeastUntil whichever is later.
      */
     public Instant getUnlockTime() {
-        Instant now = Instant.now();
+        Instant now = ClockProvider.now();
         return lockAtLeastUntil.isAfter(now) ? lockAtLeastUntil : now;
     }
 
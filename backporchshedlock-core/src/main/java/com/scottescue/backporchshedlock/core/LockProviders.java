@@ -0,0 +1,76 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import com.scottescue.backporchshedlock.Optional;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Operations available for any {@link LockProvider}.
+ */
+public final class LockProviders {
+    private LockProviders() {
+    }
+
+    /**
+     * Obtains several locks at once. Uses {@link BatchLockProvider#lockAll(Collection)} if the provider supports it,
+     * otherwise the locks are obtained one by one.
+     *
+     * @see BatchLockProvider#lockAll(Collection)
+     */
+    @NotNull
+    public static Map<String, SimpleLock> lockAll(@NotNull LockProvider lockProvider, @NotNull Collection<LockConfiguration> lockConfigurations) {
+        if (lockProvider instanceof BatchLockProvider) {
+            return ((BatchLockProvider) lockProvider).lockAll(lockConfigurations);
+        }
+
+        checkDistinctNames(lockConfigurations);
+        Map<String, SimpleLock> locks = new LinkedHashMap<String, SimpleLock>();
+        try {
+            for (LockConfiguration lockConfiguration : lockConfigurations) {
+                Optional<SimpleLock> lock = lockProvider.lock(lockConfiguration);
+                if (lock.isPresent()) {
+                    locks.put(lockConfiguration.getName(), lock.get());
+                }
+            }
+        } catch (RuntimeException e) {
+            // do not leave the locks we already have hanging until lockAtMostUntil
+            for (SimpleLock lock : locks.values()) {
+                lock.unlock();
+            }
+            throw e;
+        }
+        return locks;
+    }
+
+    /**
+     * @throws IllegalArgumentException if two configurations have the same name
+     */
+    public static void checkDistinctNames(@NotNull Collection<LockConfiguration> lockConfigurations) {
+        Set<String> names = new HashSet<String>();
+        for (LockConfiguration lockConfiguration : lockConfigurations) {
+            if (!names.add(lockConfiguration.getName())) {
+                throw new IllegalArgumentException("Lock '" + lockConfiguration.getName() + "' can not be obtained twice at once.");
+            }
+        }
+    }
+}
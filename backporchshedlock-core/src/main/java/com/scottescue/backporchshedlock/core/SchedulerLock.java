@@ -0,0 +1,52 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a task that should be executed with a lock. Can be placed either on the task class or on its
+ * {@code run()} method, the method annotation wins if both are present. Read by {@link AnnotationLockConfigurationExtractor}.
+ * <p>
+ * Durations are either in ISO-8601 format (PT30S) or a number with unit (30s, 5m), see
+ * {@link com.scottescue.backporchshedlock.support.Utils#parseDuration(String)}.
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Inherited
+public @interface SchedulerLock {
+    /**
+     * Lock name.
+     */
+    String name();
+
+    /**
+     * How long the lock should be kept in case the machine which obtained the lock died before releasing it.
+     * Uses the extractor default if empty.
+     */
+    String lockAtMostFor() default "";
+
+    /**
+     * The lock will be held at least for this period of time. Uses the extractor default if empty.
+     */
+    String lockAtLeastFor() default "";
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import com.scottescue.backporchshedlock.Optional;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Provides permits of distributed counting semaphores. Up to {@code permits} holders of a semaphore may run at once,
+ * unlike a lock that has only one.
+ */
+public interface SemaphoreProvider {
+
+    /**
+     * Acquires one permit of the semaphore named by the lock configuration. The permit is held until it is released
+     * by {@link SimpleLock#unlock()} or until lockAtMostUntil, the same way as a lock.
+     *
+     * @param permits number of permits of the semaphore, all the holders have to use the same number
+     * @return If empty optional has been returned, all the permits are held. The permit has to be released by the callee.
+     */
+    @NotNull
+    Optional<SimpleLock> acquire(@NotNull LockConfiguration lockConfiguration, int permits);
+}
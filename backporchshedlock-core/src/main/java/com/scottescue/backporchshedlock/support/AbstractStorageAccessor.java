@@ -15,19 +15,94 @@
  */
 package com.scottescue.backporchshedlock.support;
 
+import com.scottescue.backporchshedlock.Optional;
 import com.scottescue.backporchshedlock.core.LockConfiguration;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.threeten.bp.Instant;
 
-public abstract class AbstractStorageAccessor implements StorageAccessor {
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+public abstract class AbstractStorageAccessor implements BatchStorageAccessor {
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     protected String getHostname() {
         return Utils.getHostname();
     }
 
+    public boolean supportsUpsert() {
+        return false;
+    }
+
+    /**
+     * Inserts the records one by one, override if the storage supports batches.
+     */
+    @NotNull
+    public Set<String> insertRecords(@NotNull Collection<LockConfiguration> lockConfigurations) {
+        Set<String> inserted = new LinkedHashSet<String>();
+        for (LockConfiguration lockConfiguration : lockConfigurations) {
+            if (insertRecord(lockConfiguration)) {
+                inserted.add(lockConfiguration.getName());
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Updates the records one by one, override if the storage supports batches.
+     */
+    @NotNull
+    public Set<String> updateRecords(@NotNull Collection<LockConfiguration> lockConfigurations) {
+        Set<String> updated = new LinkedHashSet<String>();
+        for (LockConfiguration lockConfiguration : lockConfigurations) {
+            if (updateRecord(lockConfiguration)) {
+                updated.add(lockConfiguration.getName());
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Not supported by default, override if the storage is able to read lock_until.
+     */
+    @NotNull
+    public Optional<Instant> getLockUntil(@NotNull String name) {
+        return Optional.empty();
+    }
+
+    /**
+     * Not supported by default, the records are created on the first lock attempt. Override if the storage is able
+     * to create the records in bulk.
+     */
+    @NotNull
+    public Set<String> createRecords(@NotNull Collection<String> names) {
+        return new LinkedHashSet<String>();
+    }
+
+    @NotNull
+    public Set<String> deleteExpiredRecords(@NotNull Instant expiredBefore, int limit) {
+        throw new UnsupportedOperationException();
+    }
+
     public boolean extend(@NotNull LockConfiguration lockConfiguration) {
         throw new UnsupportedOperationException();
     }
+
+    /**
+     * Extends the records one by one, override if the storage supports batches. leaseUntil is not compared, override
+     * if the storage can compare it.
+     */
+    @NotNull
+    public Set<String> extendRecords(@NotNull Collection<String> names, @NotNull Instant leaseUntil, @NotNull Instant lockUntil) {
+        Set<String> extended = new LinkedHashSet<String>();
+        for (String name : names) {
+            if (extend(new LockConfiguration(name, lockUntil))) {
+                extended.add(name);
+            }
+        }
+        return extended;
+    }
 }
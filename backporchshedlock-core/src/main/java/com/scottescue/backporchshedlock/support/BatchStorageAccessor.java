@@ -0,0 +1,104 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.support;
+
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import org.jetbrains.annotations.NotNull;
+import org.threeten.bp.Instant;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * {@link StorageAccessor} with the batch operations and the optional features used by {@link StorageBasedLockProvider}.
+ * The lock provider checks for it, a storage implementing only {@link StorageAccessor} gets the one by one fallbacks
+ * of {@link AbstractStorageAccessor}. Extend {@link AbstractStorageAccessor} and override the operations the storage
+ * can do better.
+ */
+public interface BatchStorageAccessor extends StorageAccessor {
+    /**
+     * Returns true if {@link #insertRecord(LockConfiguration)} also takes over an existing record whose lock has expired,
+     * in a single operation. If so, insertRecord returning false means that the lock is held by someone else and there
+     * is no need to call {@link #updateRecord(LockConfiguration)}.
+     *
+     * @return true if insertRecord is an upsert
+     */
+    boolean supportsUpsert();
+
+    /**
+     * Batch version of {@link #insertRecord(LockConfiguration)}.
+     *
+     * @param lockConfigurations LockConfigurations with distinct names
+     * @return names of the inserted (or upserted) records
+     */
+    @NotNull
+    Set<String> insertRecords(@NotNull Collection<LockConfiguration> lockConfigurations);
+
+    /**
+     * Batch version of {@link #updateRecord(LockConfiguration)}.
+     *
+     * @param lockConfigurations LockConfigurations with distinct names
+     * @return names of the updated records
+     */
+    @NotNull
+    Set<String> updateRecords(@NotNull Collection<LockConfiguration> lockConfigurations);
+
+    /**
+     * Reads lock_until of the lock record. Used to find out until when a lock held by someone else is going to be held.
+     *
+     * @param name lock name
+     * @return lock_until or empty if the record does not exist or the storage is not able to read it
+     */
+    @NotNull
+    Optional<Instant> getLockUntil(@NotNull String name);
+
+    /**
+     * Creates the records of the locks that do not exist yet, without locking them. Used to create the records of
+     * known locks at startup, instead of one insert per lock on its first lock attempt.
+     *
+     * @param names lock names
+     * @return names of the records known to exist after the call, empty if the storage does not support it
+     */
+    @NotNull
+    Set<String> createRecords(@NotNull Collection<String> names);
+
+    /**
+     * Deletes up to {@code limit} records whose lock_until is before {@code expiredBefore}. A record locked in the
+     * meantime is not deleted.
+     *
+     * @param expiredBefore records with older lock_until are deleted
+     * @param limit         maximal number of records deleted by one call
+     * @return names of the records selected for deletion, if fewer than limit there are no more such records
+     * @throws UnsupportedOperationException if the storage does not support deleting records
+     */
+    @NotNull
+    Set<String> deleteExpiredRecords(@NotNull Instant expiredBefore, int limit);
+
+    /**
+     * Batch version of {@link #extend(LockConfiguration)}. Extends the records held by this node, whose lock has not
+     * expired yet and whose lock_until is still leaseUntil, until the same lockUntil. Comparing lock_until tells apart
+     * records taken over by another node with the same locked_by value, the storage may tolerate a rounding difference.
+     *
+     * @param names      lock names
+     * @param leaseUntil lock_until set when the locks were obtained or last extended
+     * @param lockUntil  new lock_until
+     * @return names of the extended records, the locks of the other records have been lost
+     * @throws UnsupportedOperationException if the storage does not support extending locks
+     */
+    @NotNull
+    Set<String> extendRecords(@NotNull Collection<String> names, @NotNull Instant leaseUntil, @NotNull Instant lockUntil);
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.support;
+
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Gives a {@link StorageAccessor} that is not a {@link BatchStorageAccessor} the fallbacks of
+ * {@link AbstractStorageAccessor}.
+ */
+class BatchStorageAccessorAdapter extends AbstractStorageAccessor {
+    private final StorageAccessor storageAccessor;
+
+    private BatchStorageAccessorAdapter(StorageAccessor storageAccessor) {
+        this.storageAccessor = storageAccessor;
+    }
+
+    /**
+     * Returns the accessor itself if it is a {@link BatchStorageAccessor}, otherwise wraps it.
+     */
+    @NotNull
+    static BatchStorageAccessor batch(@NotNull StorageAccessor storageAccessor) {
+        if (storageAccessor instanceof BatchStorageAccessor) {
+            return (BatchStorageAccessor) storageAccessor;
+        }
+        return new BatchStorageAccessorAdapter(storageAccessor);
+    }
+
+    @Override
+    public boolean insertRecord(@NotNull LockConfiguration lockConfiguration) {
+        return storageAccessor.insertRecord(lockConfiguration);
+    }
+
+    @Override
+    public boolean updateRecord(@NotNull LockConfiguration lockConfiguration) {
+        return storageAccessor.updateRecord(lockConfiguration);
+    }
+
+    @Override
+    public void unlock(@NotNull LockConfiguration lockConfiguration) {
+        storageAccessor.unlock(lockConfiguration);
+    }
+
+    @Override
+    public boolean extend(@NotNull LockConfiguration lockConfiguration) {
+        return storageAccessor.extend(lockConfiguration);
+    }
+}
@@ -15,30 +15,157 @@
  */
 package com.scottescue.backporchshedlock.support;
 
-import java.util.Collections;
-import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Some LockProviders have to decide if a new record has to be created or an old one updated.
  * This class helps them keep track of existing lock records, so they know if a lock record exists.
+ * <p>
+ * The registry holds at most {@code maximumSize} names, the least recently used ones are evicted when it gets full.
+ * Optionally, names are forgotten {@code timeToLive} after they have been added, in case the records are deleted
+ * by someone else.
  */
 class LockRecordRegistry {
-    private final Set<String> lockRecords = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<String, Boolean>()));
+    static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private final ConcurrentMap<String, LockRecord> lockRecords = new ConcurrentHashMap<String, LockRecord>();
+    private final Object evictionLock = new Object();
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+
+    private volatile int maximumSize;
+    private volatile long timeToLiveNanos;
+
+    LockRecordRegistry() {
+        this(DEFAULT_MAXIMUM_SIZE, 0, TimeUnit.NANOSECONDS);
+    }
+
+    LockRecordRegistry(int maximumSize, long timeToLive, TimeUnit unit) {
+        setLimits(maximumSize, timeToLive, unit);
+    }
+
+    /**
+     * @param maximumSize maximal number of remembered names
+     * @param timeToLive  how long a name is remembered, 0 means forever
+     */
+    void setLimits(int maximumSize, long timeToLive, TimeUnit unit) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize has to be positive");
+        }
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("timeToLive can not be negative");
+        }
+        this.maximumSize = maximumSize;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        evictIfNeeded();
+    }
 
     public void addLockRecord(String lockName) {
-        lockRecords.add(lockName);
+        lockRecords.put(lockName, new LockRecord(System.nanoTime()));
+        evictIfNeeded();
+    }
+
+    /**
+     * Forgets the name, the lock record has been deleted.
+     */
+    public void removeLockRecord(String lockName) {
+        lockRecords.remove(lockName);
     }
 
     public boolean lockRecordRecentlyCreated(String lockName) {
-        return lockRecords.contains(lockName);
+        LockRecord lockRecord = lockRecords.get(lockName);
+        if (lockRecord != null) {
+            long now = System.nanoTime();
+            if (!lockRecord.isExpired(now, timeToLiveNanos)) {
+                lockRecord.lastAccessedAt = now;
+                hits.increment();
+                return true;
+            }
+            lockRecords.remove(lockName, lockRecord);
+        }
+        misses.increment();
+        return false;
+    }
+
+    int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @return how long a name is remembered, 0 means forever
+     */
+    long getTimeToLive(TimeUnit unit) {
+        return unit.convert(timeToLiveNanos, TimeUnit.NANOSECONDS);
     }
 
     int getSize() {
         return lockRecords.size();
     }
 
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
     public void clear() {
         lockRecords.clear();
     }
+
+    /**
+     * Evicts the least recently used tenth of the names once the registry is full, so that the scan is not done on
+     * every insertion.
+     */
+    private void evictIfNeeded() {
+        int maximumSize = this.maximumSize;
+        if (lockRecords.size() <= maximumSize) {
+            return;
+        }
+        synchronized (evictionLock) {
+            int size = lockRecords.size();
+            if (size <= maximumSize) {
+                return;
+            }
+            int toEvict = size - maximumSize + maximumSize / 10;
+            long[] accessTimes = new long[size];
+            int count = 0;
+            for (LockRecord lockRecord : lockRecords.values()) {
+                if (count == accessTimes.length) {
+                    break;
+                }
+                accessTimes[count++] = lockRecord.lastAccessedAt;
+            }
+            Arrays.sort(accessTimes, 0, count);
+            long threshold = accessTimes[Math.min(toEvict, count) - 1];
+
+            Iterator<Map.Entry<String, LockRecord>> iterator = lockRecords.entrySet().iterator();
+            while (iterator.hasNext() && toEvict > 0) {
+                if (iterator.next().getValue().lastAccessedAt - threshold <= 0) {
+                    iterator.remove();
+                    toEvict--;
+                }
+            }
+        }
+    }
+
+    private static class LockRecord {
+        private final long createdAt;
+        private volatile long lastAccessedAt;
+
+        LockRecord(long now) {
+            this.createdAt = now;
+            this.lastAccessedAt = now;
+        }
+
+        boolean isExpired(long now, long timeToLiveNanos) {
+            return timeToLiveNanos > 0 && now - createdAt >= timeToLiveNanos;
+        }
+    }
 }
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.support;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Storage based lock provider that spreads the locks over several storages, e.g. lock tables in different databases,
+ * see {@link ShardedStorageAccessor}. The lock record cache, lease renewal and the other options of
+ * {@link StorageBasedLockProvider} work the same way, the batch operations send one batch to every shard involved.
+ * <pre>
+ * Map&lt;String, StorageAccessor&gt; shards = new LinkedHashMap&lt;String, StorageAccessor&gt;();
+ * shards.put("locks-1", new JdbcStorageAccessor(configuration1));
+ * shards.put("locks-2", new JdbcStorageAccessor(configuration2));
+ * LockProvider lockProvider = new ShardedLockProvider(shards);
+ * </pre>
+ */
+public class ShardedLockProvider extends StorageBasedLockProvider implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedLockProvider.class);
+
+    private final ShardedStorageAccessor storageAccessor;
+
+    /**
+     * @param shards storages by shard id, the ids decide the routing and have to be the same on all the nodes
+     */
+    public ShardedLockProvider(@NotNull Map<String, ? extends StorageAccessor> shards) {
+        this(new ShardedStorageAccessor(shards));
+    }
+
+    public ShardedLockProvider(@NotNull ShardedStorageAccessor storageAccessor) {
+        super(storageAccessor);
+        this.storageAccessor = storageAccessor;
+    }
+
+    /**
+     * Returns the id of the shard that holds the lock.
+     */
+    @NotNull
+    public String getShardId(@NotNull String lockName) {
+        return storageAccessor.getShardId(lockName);
+    }
+
+    /**
+     * Closes the shards that keep resources open, e.g. pinned connections. Locks still held are not released.
+     */
+    @Override
+    public void close() {
+        for (Map.Entry<String, StorageAccessor> shard : storageAccessor.getShards().entrySet()) {
+            if (shard.getValue() instanceof Closeable) {
+                try {
+                    ((Closeable) shard.getValue()).close();
+                } catch (IOException e) {
+                    logger.warn("Can not close shard '{}'", shard.getKey(), e);
+                }
+            }
+        }
+    }
+}
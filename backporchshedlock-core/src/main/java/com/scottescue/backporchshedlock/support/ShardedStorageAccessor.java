@@ -0,0 +1,267 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.support;
+
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import org.jetbrains.annotations.NotNull;
+import org.threeten.bp.Instant;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.threeten.bp.jdk8.Jdk8Methods.requireNonNull;
+
+/**
+ * Routes every lock name to one of several storages, e.g. lock tables in different databases, so the lock operations
+ * are spread over them instead of all hitting one table.
+ * <p>
+ * The names are routed by consistent hashing. Every shard is identified by a stable id and placed on a hash ring
+ * at a number of points derived from the id. A lock name belongs to the first shard point following the hash of the
+ * name. When a shard is added, only the names falling in front of its points, about 1/N of them, move to the new
+ * shard, all the others stay where they were. The shard ids, not the order of the shards, decide the routing, so all
+ * the nodes have to use the same ids.
+ * <p>
+ * A moved lock starts on a new record. Add shards when no lock is held for longer than the rolling restart takes,
+ * otherwise an old and a new node may both get a lock, each from a different shard.
+ * <p>
+ * The batch operations are split by shard, each shard gets one batch.
+ */
+public class ShardedStorageAccessor implements BatchStorageAccessor {
+    /**
+     * Points per shard, enough for the shards to get similar shares of the names.
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<String, StorageAccessor> shards;
+    private final Map<String, BatchStorageAccessor> batchShards = new LinkedHashMap<String, BatchStorageAccessor>();
+    private final NavigableMap<Long, String> ring = new TreeMap<Long, String>();
+
+    /**
+     * @param shards storages by shard id
+     */
+    public ShardedStorageAccessor(@NotNull Map<String, ? extends StorageAccessor> shards) {
+        this(shards, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param shards       storages by shard id
+     * @param virtualNodes points of every shard on the hash ring
+     */
+    public ShardedStorageAccessor(@NotNull Map<String, ? extends StorageAccessor> shards, int virtualNodes) {
+        requireNonNull(shards, "shards can not be null");
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("shards can not be empty");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes has to be positive");
+        }
+        this.shards = Collections.unmodifiableMap(new LinkedHashMap<String, StorageAccessor>(shards));
+        for (Map.Entry<String, StorageAccessor> shard : this.shards.entrySet()) {
+            requireNonNull(shard.getKey(), "shard id can not be null");
+            requireNonNull(shard.getValue(), "shard can not be null");
+            batchShards.put(shard.getKey(), BatchStorageAccessorAdapter.batch(shard.getValue()));
+            for (int i = 0; i < virtualNodes; i++) {
+                Long point = hash(shard.getKey() + "#" + i);
+                String existing = ring.get(point);
+                // a collision of two points is harmless, it only has to be resolved the same way on all the nodes
+                if (existing == null || existing.compareTo(shard.getKey()) > 0) {
+                    ring.put(point, shard.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Storages by shard id.
+     */
+    @NotNull
+    public Map<String, StorageAccessor> getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns the id of the shard that holds the lock.
+     */
+    @NotNull
+    public String getShardId(@NotNull String lockName) {
+        Map.Entry<Long, String> point = ring.ceilingEntry(hash(lockName));
+        return point != null ? point.getValue() : ring.firstEntry().getValue();
+    }
+
+    @NotNull
+    private BatchStorageAccessor shard(String lockName) {
+        return batchShards.get(getShardId(lockName));
+    }
+
+    @Override
+    public boolean insertRecord(@NotNull LockConfiguration lockConfiguration) {
+        return shard(lockConfiguration.getName()).insertRecord(lockConfiguration);
+    }
+
+    /**
+     * Only if all the shards support it. Otherwise the storage based lock provider follows every failed insert with an
+     * update, which on an upserting shard just finds the lock held.
+     */
+    @Override
+    public boolean supportsUpsert() {
+        for (BatchStorageAccessor shard : batchShards.values()) {
+            if (!shard.supportsUpsert()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean updateRecord(@NotNull LockConfiguration lockConfiguration) {
+        return shard(lockConfiguration.getName()).updateRecord(lockConfiguration);
+    }
+
+    @NotNull
+    @Override
+    public Set<String> insertRecords(@NotNull Collection<LockConfiguration> lockConfigurations) {
+        Set<String> inserted = new LinkedHashSet<String>();
+        for (Map.Entry<String, List<LockConfiguration>> batch : byShard(lockConfigurations).entrySet()) {
+            inserted.addAll(batchShards.get(batch.getKey()).insertRecords(batch.getValue()));
+        }
+        return inserted;
+    }
+
+    @NotNull
+    @Override
+    public Set<String> updateRecords(@NotNull Collection<LockConfiguration> lockConfigurations) {
+        Set<String> updated = new LinkedHashSet<String>();
+        for (Map.Entry<String, List<LockConfiguration>> batch : byShard(lockConfigurations).entrySet()) {
+            updated.addAll(batchShards.get(batch.getKey()).updateRecords(batch.getValue()));
+        }
+        return updated;
+    }
+
+    @NotNull
+    @Override
+    public Optional<Instant> getLockUntil(@NotNull String name) {
+        return shard(name).getLockUntil(name);
+    }
+
+    @NotNull
+    @Override
+    public Set<String> createRecords(@NotNull Collection<String> names) {
+        Set<String> created = new LinkedHashSet<String>();
+        for (Map.Entry<String, List<String>> batch : namesByShard(names).entrySet()) {
+            created.addAll(batchShards.get(batch.getKey()).createRecords(batch.getValue()));
+        }
+        return created;
+    }
+
+    /**
+     * Goes through the shards in order until the limit is reached, so fewer than limit names still mean that no
+     * shard has more expired records.
+     */
+    @NotNull
+    @Override
+    public Set<String> deleteExpiredRecords(@NotNull Instant expiredBefore, int limit) {
+        Set<String> deleted = new LinkedHashSet<String>();
+        for (BatchStorageAccessor shard : batchShards.values()) {
+            int remaining = limit - deleted.size();
+            if (remaining <= 0) {
+                break;
+            }
+            deleted.addAll(shard.deleteExpiredRecords(expiredBefore, remaining));
+        }
+        return deleted;
+    }
+
+    @Override
+    public void unlock(@NotNull LockConfiguration lockConfiguration) {
+        shard(lockConfiguration.getName()).unlock(lockConfiguration);
+    }
+
+    @Override
+    public boolean extend(@NotNull LockConfiguration lockConfiguration) {
+        return shard(lockConfiguration.getName()).extend(lockConfiguration);
+    }
+
+    @NotNull
+    @Override
+    public Set<String> extendRecords(@NotNull Collection<String> names, @NotNull Instant leaseUntil, @NotNull Instant lockUntil) {
+        Set<String> extended = new LinkedHashSet<String>();
+        for (Map.Entry<String, List<String>> batch : namesByShard(names).entrySet()) {
+            extended.addAll(batchShards.get(batch.getKey()).extendRecords(batch.getValue(), leaseUntil, lockUntil));
+        }
+        return extended;
+    }
+
+    private Map<String, List<LockConfiguration>> byShard(Collection<LockConfiguration> lockConfigurations) {
+        Map<String, List<LockConfiguration>> byShard = new LinkedHashMap<String, List<LockConfiguration>>();
+        for (LockConfiguration lockConfiguration : lockConfigurations) {
+            String shardId = getShardId(lockConfiguration.getName());
+            List<LockConfiguration> batch = byShard.get(shardId);
+            if (batch == null) {
+                batch = new ArrayList<LockConfiguration>();
+                byShard.put(shardId, batch);
+            }
+            batch.add(lockConfiguration);
+        }
+        return byShard;
+    }
+
+    private Map<String, List<String>> namesByShard(Collection<String> names) {
+        Map<String, List<String>> byShard = new LinkedHashMap<String, List<String>>();
+        for (String name : names) {
+            String shardId = getShardId(name);
+            List<String> batch = byShard.get(shardId);
+            if (batch == null) {
+                batch = new ArrayList<String>();
+                byShard.put(shardId, batch);
+            }
+            batch.add(name);
+        }
+        return byShard;
+    }
+
+    /**
+     * First 64 bits of MD5, the same on every JVM, unlike {@link String#hashCode()} it spreads similar names evenly.
+     */
+    private static long hash(String value) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support MD5
+            throw new IllegalStateException(e);
+        }
+        byte[] bytes = digest.digest(value.getBytes(UTF_8));
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (bytes[i] & 0xFF);
+        }
+        return hash;
+    }
+}
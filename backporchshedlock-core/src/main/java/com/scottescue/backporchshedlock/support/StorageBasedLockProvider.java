@@ -16,11 +16,36 @@
 package com.scottescue.backporchshedlock.support;
 
 import com.scottescue.backporchshedlock.core.AbstractSimpleLock;
+import com.scottescue.backporchshedlock.core.BatchLockProvider;
+import com.scottescue.backporchshedlock.core.ClockProvider;
+import com.scottescue.backporchshedlock.core.InspectableLockProvider;
 import com.scottescue.backporchshedlock.core.LockConfiguration;
-import com.scottescue.backporchshedlock.core.LockProvider;
+import com.scottescue.backporchshedlock.core.LockProviders;
 import com.scottescue.backporchshedlock.core.SimpleLock;
 import com.scottescue.backporchshedlock.Optional;
 import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.threeten.bp.jdk8.Jdk8Methods.requireNonNull;
 
 /**
  * Distributed lock using abstract storage
@@ -32,6 +57,10 @@ import org.jetbrains.annotations.NotNull;
  * has been inserted, returns lock.
  * </li>
  * <li>
+ * If the storage supports upserts, the insert also takes over an existing record if lock_until &lt;= now. If it did not
+ * succeed, somebody else holds the lock and we are done.
+ * </li>
+ * <li>
  * We will try to update lock record using filter ID == name AND lock_until &lt;= now
  * </li>
  * <li>
@@ -41,14 +70,50 @@ import org.jetbrains.annotations.NotNull;
  * When unlocking, lock_until is set to now.
  * </li>
  * </ol>
+ * {@link #lockAll(Collection)} does the same for several locks, using one batch of inserts and one batch of updates.
+ * <p>
+ * Optionally, the records of the known locks are created up front, see {@link #setKnownLockNames(Collection)}.
+ * <p>
+ * Optionally, when a lock is held by someone else, we read its lock_until and do not try to obtain the lock again before
+ * that time, see {@link #enableHeldLockCache(Duration)}.
+ * <p>
+ * Optionally, the locks held by this provider are extended periodically in one batch, see
+ * {@link #enableLeaseRenewal(ScheduledExecutorService, Duration, Duration)}.
+ * <p>
+ * Optionally, records of locks that have not been used for a long time are deleted periodically, see
+ * {@link #enableStaleRecordCleanup(ScheduledExecutorService, Duration, Duration, int)}.
  */
-public class StorageBasedLockProvider implements LockProvider {
+public class StorageBasedLockProvider implements BatchLockProvider, InspectableLockProvider {
+    private static final Logger logger = LoggerFactory.getLogger(StorageBasedLockProvider.class);
+
     @NotNull
-    private final StorageAccessor storageAccessor;
+    private final BatchStorageAccessor storageAccessor;
     private final LockRecordRegistry lockRecordRegistry = new LockRecordRegistry();
 
+    /**
+     * Names of the locks whose records are created on the first lock attempt, null once they have been created.
+     */
+    private volatile Collection<String> knownLockNames;
+    // preloading makes round trips to the storage, a monitor would pin the carrier thread of a waiting virtual thread
+    private final ReentrantLock knownLockNamesLock = new ReentrantLock();
+
+    /**
+     * Lock name to the time until which the lock is held by someone else, minus the safety margin.
+     */
+    private final ConcurrentMap<String, Instant> heldLocks = new ConcurrentHashMap<String, Instant>();
+    private volatile Duration heldLockCacheMargin;
+
+    /**
+     * Locks held by this provider whose leases are renewed, by lock name.
+     */
+    private final ConcurrentMap<String, StorageLock> renewedLocks = new ConcurrentHashMap<String, StorageLock>();
+    // held while a renewal runs, so that a lock is not extended after it has been released
+    private final ReentrantLock renewalLock = new ReentrantLock();
+    private volatile LeaseRenewal leaseRenewal;
+    private volatile StaleRecordCleanup staleRecordCleanup;
+
     protected StorageBasedLockProvider(@NotNull StorageAccessor storageAccessor) {
-        this.storageAccessor = storageAccessor;
+        this.storageAccessor = BatchStorageAccessorAdapter.batch(storageAccessor);
     }
 
     /**
@@ -56,26 +121,312 @@ public class StorageBasedLockProvider implements LockProvider {
      */
     public void clearCache() {
         lockRecordRegistry.clear();
+        heldLocks.clear();
+    }
+
+    /**
+     * Sets limits of the cache of existing lock records. By default, up to 10 000 names are remembered forever.
+     *
+     * @param maximumSize maximal number of remembered lock records, the least recently used ones are forgotten first
+     * @param timeToLive  how long a lock record is remembered, {@link Duration#ZERO} means forever. Use it if the
+     *                    lock records may be deleted by someone else.
+     */
+    public void setLockRecordCacheLimits(int maximumSize, @NotNull Duration timeToLive) {
+        requireNonNull(timeToLive, "timeToLive can not be null");
+        lockRecordRegistry.setLimits(maximumSize, timeToLive.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Number of lock attempts that did not have to create the lock record, because it was known to exist.
+     */
+    public long getLockRecordCacheHits() {
+        return lockRecordRegistry.getHits();
+    }
+
+    /**
+     * Number of lock attempts that had to try to create the lock record.
+     */
+    public long getLockRecordCacheMisses() {
+        return lockRecordRegistry.getMisses();
+    }
+
+    /**
+     * Creates the records of the given locks that do not exist yet and remembers them, so that the first attempts to
+     * obtain the locks do not have to insert them. The existing records are read in one query and the missing ones are
+     * inserted in one batch, if the storage supports it, see {@link BatchStorageAccessor#createRecords(Collection)}.
+     *
+     * @param lockNames names of the locks used by the application
+     */
+    public void preloadLockRecords(@NotNull Collection<String> lockNames) {
+        requireNonNull(lockNames, "lockNames can not be null");
+        if (lockNames.isEmpty()) {
+            return;
+        }
+        Set<String> existing = storageAccessor.createRecords(lockNames);
+        for (String name : existing) {
+            lockRecordRegistry.addLockRecord(name);
+        }
+        logger.debug("Preloaded {} of {} lock records", existing.size(), lockNames.size());
+    }
+
+    /**
+     * Same as {@link #preloadLockRecords(Collection)}, but the records are created on the first lock attempt, so that
+     * creating the provider does not touch the storage. If the records can not be created, they are created one by
+     * one as usual.
+     *
+     * @param lockNames names of the locks used by the application
+     */
+    public void setKnownLockNames(@NotNull Collection<String> lockNames) {
+        requireNonNull(lockNames, "lockNames can not be null");
+        this.knownLockNames = lockNames.isEmpty() ? null : new ArrayList<String>(new LinkedHashSet<String>(lockNames));
+    }
+
+    /**
+     * When a lock can not be obtained, reads its lock_until and does not try to obtain the lock again before that time.
+     * Saves a round trip to the storage per attempt while the lock is held by someone else. Works only if the storage
+     * accessor supports {@link BatchStorageAccessor#getLockUntil(String)}. Disabled by default.
+     * <p>
+     * Only {@link #lock(LockConfiguration)} reads lock_until, reading it for each lock refused to
+     * {@link #lockAll(Collection)} would cost more round trips than the batch saves. Both skip the locks known to be
+     * held.
+     * <p>
+     * Please note that if another node releases the lock before its lockAtMostUntil, we do not notice it and we do not
+     * try to obtain the lock until its original lock_until. Enable it only if the tasks do not mind skipping such runs.
+     *
+     * @param safetyMargin how much sooner than lock_until we try again. Should cover clock difference between the nodes.
+     */
+    public void enableHeldLockCache(@NotNull Duration safetyMargin) {
+        requireNonNull(safetyMargin, "safetyMargin can not be null");
+        if (safetyMargin.isNegative()) {
+            throw new IllegalArgumentException("safetyMargin can not be negative");
+        }
+        this.heldLockCacheMargin = safetyMargin;
+    }
+
+    /**
+     * Disables the cache enabled by {@link #enableHeldLockCache(Duration)}.
+     */
+    public void disableHeldLockCache() {
+        this.heldLockCacheMargin = null;
+        heldLocks.clear();
+    }
+
+    /**
+     * Periodically extends all the locks held by this provider, using one batch per interval instead of extending
+     * each lock separately. Each renewal moves lock_until of the held locks to now + lease, so the locks do not expire
+     * while they are held no matter how long the tasks run. Locks obtained before the renewal has been enabled are
+     * not renewed.
+     * <p>
+     * A lock that could not be renewed has expired and might be held by someone else, it is not renewed any more.
+     * A record is renewed only if its lock_until is still the one set by this provider, so a record taken over by
+     * another provider with the same locked_by value is not extended. Locks with different lockAtMostUntil are renewed
+     * in separate batches the first time, the renewed ones share lock_until afterwards.
+     *
+     * @param scheduler scheduler running the renewals, not shut down by the provider
+     * @param interval  time between renewals
+     * @param lease     how long the locks are held after each renewal, has to be longer than interval
+     */
+    public synchronized void enableLeaseRenewal(@NotNull ScheduledExecutorService scheduler, @NotNull Duration interval, @NotNull Duration lease) {
+        requireNonNull(scheduler, "scheduler can not be null");
+        requireNonNull(interval, "interval can not be null");
+        requireNonNull(lease, "lease can not be null");
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("interval has to be positive");
+        }
+        if (lease.compareTo(interval) <= 0) {
+            throw new IllegalArgumentException("lease has to be longer than interval");
+        }
+        disableLeaseRenewal();
+        LeaseRenewal renewal = new LeaseRenewal(lease);
+        renewal.future = scheduler.scheduleWithFixedDelay(renewal, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        leaseRenewal = renewal;
+    }
+
+    /**
+     * Stops the renewal enabled by {@link #enableLeaseRenewal(ScheduledExecutorService, Duration, Duration)}. The
+     * locks keep their current lock_until.
+     */
+    public synchronized void disableLeaseRenewal() {
+        LeaseRenewal renewal = leaseRenewal;
+        if (renewal != null) {
+            renewal.future.cancel(false);
+            leaseRenewal = null;
+        }
+        renewedLocks.clear();
+    }
+
+    /**
+     * Extends all the renewed locks until now + lease. The locks are grouped by their current lock_until, one batch
+     * per group.
+     */
+    void renewLeases(@NotNull Duration lease) {
+        renewalLock.lock();
+        try {
+            if (renewedLocks.isEmpty()) {
+                return;
+            }
+            Map<Instant, Map<String, StorageLock>> byLease = new LinkedHashMap<Instant, Map<String, StorageLock>>();
+            for (Map.Entry<String, StorageLock> entry : renewedLocks.entrySet()) {
+                Map<String, StorageLock> group = byLease.get(entry.getValue().leaseUntil);
+                if (group == null) {
+                    group = new LinkedHashMap<String, StorageLock>();
+                    byLease.put(entry.getValue().leaseUntil, group);
+                }
+                group.put(entry.getKey(), entry.getValue());
+            }
+            Instant lockUntil = ClockProvider.now().plus(lease);
+            int renewed = 0;
+            int total = 0;
+            for (Map.Entry<Instant, Map<String, StorageLock>> group : byLease.entrySet()) {
+                Set<String> extended = storageAccessor.extendRecords(group.getValue().keySet(), group.getKey(), lockUntil);
+                for (Map.Entry<String, StorageLock> entry : group.getValue().entrySet()) {
+                    if (extended.contains(entry.getKey())) {
+                        entry.getValue().leaseUntil = lockUntil;
+                    } else if (renewedLocks.remove(entry.getKey(), entry.getValue())) {
+                        logger.warn("Can not renew lease of lock '{}', it has already expired and might be held by someone else", entry.getKey());
+                    }
+                }
+                renewed += extended.size();
+                total += group.getValue().size();
+            }
+            logger.debug("Renewed {} of {} leases until {}", renewed, total, lockUntil);
+        } finally {
+            renewalLock.unlock();
+        }
+    }
+
+    /**
+     * Periodically deletes the lock records whose lock_until is older than the retention and forgets them, see
+     * {@link #deleteStaleRecords(Duration, int)}. Use it if lock names are generated and the storage would otherwise
+     * grow without bound. A deleted record is created again by the next attempt to obtain the lock.
+     * <p>
+     * A node that still remembers a deleted record only tries to update it, so the cache of existing lock records of
+     * this provider is limited to half the retention, see {@link #setLockRecordCacheLimits(int, Duration)}. When an
+     * update fails, {@link #lock(LockConfiguration)} also checks if the record still exists and forgets it if it does
+     * not. Enable the cleanup on all the nodes, or limit their caches.
+     *
+     * @param scheduler scheduler running the cleanup, not shut down by the provider
+     * @param interval  time between cleanups
+     * @param retention how long after its lock_until a record is kept
+     * @param batchSize maximal number of records deleted by one statement
+     */
+    public synchronized void enableStaleRecordCleanup(@NotNull ScheduledExecutorService scheduler, @NotNull Duration interval,
+                                                      @NotNull Duration retention, int batchSize) {
+        requireNonNull(scheduler, "scheduler can not be null");
+        requireNonNull(interval, "interval can not be null");
+        requireNonNull(retention, "retention can not be null");
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("interval has to be positive");
+        }
+        if (retention.isNegative() || retention.isZero()) {
+            throw new IllegalArgumentException("retention has to be positive");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize has to be positive");
+        }
+        long timeToLive = Math.max(1, retention.toMillis() / 2);
+        long currentTimeToLive = lockRecordRegistry.getTimeToLive(TimeUnit.MILLISECONDS);
+        if (currentTimeToLive == 0 || currentTimeToLive > timeToLive) {
+            lockRecordRegistry.setLimits(lockRecordRegistry.getMaximumSize(), timeToLive, TimeUnit.MILLISECONDS);
+        }
+        disableStaleRecordCleanup();
+        StaleRecordCleanup cleanup = new StaleRecordCleanup(retention, batchSize);
+        cleanup.future = scheduler.scheduleWithFixedDelay(cleanup, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        staleRecordCleanup = cleanup;
+    }
+
+    /**
+     * Stops the cleanup enabled by {@link #enableStaleRecordCleanup(ScheduledExecutorService, Duration, Duration, int)}.
+     */
+    public synchronized void disableStaleRecordCleanup() {
+        StaleRecordCleanup cleanup = staleRecordCleanup;
+        if (cleanup != null) {
+            cleanup.future.cancel(false);
+            staleRecordCleanup = null;
+        }
+    }
+
+    /**
+     * Deletes the lock records whose lock_until is older than the retention and forgets them. Each statement deletes
+     * at most batchSize records, records locked in the meantime are not deleted.
+     *
+     * @param retention how long after its lock_until a record is kept
+     * @param batchSize maximal number of records deleted by one statement
+     * @return number of records selected for deletion
+     * @throws UnsupportedOperationException if the storage does not support deleting records
+     */
+    public int deleteStaleRecords(@NotNull Duration retention, int batchSize) {
+        requireNonNull(retention, "retention can not be null");
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize has to be positive");
+        }
+        Instant expiredBefore = ClockProvider.now().minus(retention);
+        int deleted = 0;
+        Set<String> batch;
+        do {
+            batch = storageAccessor.deleteExpiredRecords(expiredBefore, batchSize);
+            for (String name : batch) {
+                lockRecordRegistry.removeLockRecord(name);
+            }
+            deleted += batch.size();
+        } while (batch.size() >= batchSize);
+        logger.debug("Deleted {} lock records expired before {}", deleted, expiredBefore);
+        return deleted;
     }
 
     @Override
     @NotNull
     public Optional<SimpleLock> lock(@NotNull LockConfiguration lockConfiguration) {
+        preloadKnownLockRecords();
+        if (isKnownToBeHeld(lockConfiguration.getName())) {
+            return Optional.empty();
+        }
+
         boolean lockObtained = doLock(lockConfiguration);
         if (lockObtained) {
-            return Optional.<SimpleLock>of(new StorageLock(lockConfiguration, storageAccessor));
+            return Optional.<SimpleLock>of(newLock(lockConfiguration));
         } else {
+            rememberHeldLock(lockConfiguration.getName());
             return Optional.empty();
         }
     }
 
+    @Override
+    @NotNull
+    public Map<String, SimpleLock> lockAll(@NotNull Collection<LockConfiguration> lockConfigurations) {
+        LockProviders.checkDistinctNames(lockConfigurations);
+        preloadKnownLockRecords();
+        List<LockConfiguration> candidates = new ArrayList<LockConfiguration>();
+        for (LockConfiguration lockConfiguration : lockConfigurations) {
+            if (!isKnownToBeHeld(lockConfiguration.getName())) {
+                candidates.add(lockConfiguration);
+            }
+        }
+        Set<String> obtained = candidates.isEmpty() ? new HashSet<String>() : doLockAll(candidates);
+
+        Map<String, SimpleLock> locks = new LinkedHashMap<String, SimpleLock>();
+        for (LockConfiguration lockConfiguration : candidates) {
+            if (obtained.contains(lockConfiguration.getName())) {
+                locks.put(lockConfiguration.getName(), newLock(lockConfiguration));
+            }
+        }
+        return locks;
+    }
+
+    @Override
+    @NotNull
+    public Optional<Instant> getLockUntil(@NotNull String lockName) {
+        return storageAccessor.getLockUntil(lockName);
+    }
+
     /**
      * Sets lockUntil according to LockConfiguration if current lockUntil &lt;= now
      */
     protected boolean doLock(LockConfiguration lockConfiguration) {
         String name = lockConfiguration.getName();
 
-        if (!lockRecordRegistry.lockRecordRecentlyCreated(name)) {
+        boolean recentlyCreated = lockRecordRegistry.lockRecordRecentlyCreated(name);
+        if (!recentlyCreated) {
             // create record in case it does not exist yet
             if (storageAccessor.insertRecord(lockConfiguration)) {
                 lockRecordRegistry.addLockRecord(name);
@@ -84,33 +435,215 @@ public class StorageBasedLockProvider implements LockProvider {
             }
             // we were not able to create the record, it already exists, let's put it to the cache so we do not try again
             lockRecordRegistry.addLockRecord(name);
+            if (storageAccessor.supportsUpsert()) {
+                // the insert has already tried to update the existing record, somebody else holds the lock
+                return false;
+            }
         }
 
         // let's try to update the record, if successful, we have the lock
-        return storageAccessor.updateRecord(lockConfiguration);
+        boolean updated = storageAccessor.updateRecord(lockConfiguration);
+        if (!updated && recentlyCreated) {
+            forgetIfDeleted(name);
+        }
+        return updated;
+    }
+
+    /**
+     * Forgets the record if the cleanup is enabled and the record does not exist anymore, the next attempt creates it
+     * again. Without the cleanup, a failed update means that the lock is held by someone else.
+     */
+    private void forgetIfDeleted(String name) {
+        if (staleRecordCleanup != null && !storageAccessor.getLockUntil(name).isPresent()) {
+            lockRecordRegistry.removeLockRecord(name);
+        }
+    }
+
+    /**
+     * Batch version of {@link #doLock(LockConfiguration)}
+     *
+     * @return names of the obtained locks
+     */
+    protected Set<String> doLockAll(Collection<LockConfiguration> lockConfigurations) {
+        List<LockConfiguration> toInsert = new ArrayList<LockConfiguration>();
+        for (LockConfiguration lockConfiguration : lockConfigurations) {
+            if (!lockRecordRegistry.lockRecordRecentlyCreated(lockConfiguration.getName())) {
+                toInsert.add(lockConfiguration);
+            }
+        }
+
+        Set<String> obtained = new HashSet<String>();
+        // upsert has already tried to update the records it was not able to insert
+        Set<String> alreadyTried = new HashSet<String>();
+        if (!toInsert.isEmpty()) {
+            // create records in case they do not exist yet
+            obtained.addAll(storageAccessor.insertRecords(toInsert));
+            boolean upsert = storageAccessor.supportsUpsert();
+            for (LockConfiguration lockConfiguration : toInsert) {
+                lockRecordRegistry.addLockRecord(lockConfiguration.getName());
+                if (upsert) {
+                    alreadyTried.add(lockConfiguration.getName());
+                }
+            }
+        }
+
+        List<LockConfiguration> toUpdate = new ArrayList<LockConfiguration>();
+        for (LockConfiguration lockConfiguration : lockConfigurations) {
+            String name = lockConfiguration.getName();
+            if (!obtained.contains(name) && !alreadyTried.contains(name)) {
+                toUpdate.add(lockConfiguration);
+            }
+        }
+        if (!toUpdate.isEmpty()) {
+            // checking the existence of each refused record would cost a round trip per lock, deleted records are
+            // forgotten when the cache entries expire
+            obtained.addAll(storageAccessor.updateRecords(toUpdate));
+        }
+        return obtained;
+    }
+
+    private void preloadKnownLockRecords() {
+        if (knownLockNames == null) {
+            return;
+        }
+        knownLockNamesLock.lock();
+        try {
+            Collection<String> lockNames = knownLockNames;
+            if (lockNames == null) {
+                return;
+            }
+            // tried only once, the records are created on the lock attempts if it fails
+            knownLockNames = null;
+            try {
+                preloadLockRecords(lockNames);
+            } catch (RuntimeException e) {
+                logger.warn("Can not preload lock records, they will be created on first use", e);
+            }
+        } finally {
+            knownLockNamesLock.unlock();
+        }
+    }
+
+    private StorageLock newLock(LockConfiguration lockConfiguration) {
+        StorageLock lock = new StorageLock(lockConfiguration, storageAccessor);
+        if (leaseRenewal != null) {
+            renewedLocks.put(lockConfiguration.getName(), lock);
+        }
+        return lock;
+    }
+
+    private boolean isKnownToBeHeld(String name) {
+        if (heldLockCacheMargin == null) {
+            return false;
+        }
+        Instant heldUntil = heldLocks.get(name);
+        if (heldUntil == null) {
+            return false;
+        }
+        if (ClockProvider.now().isBefore(heldUntil)) {
+            return true;
+        }
+        heldLocks.remove(name, heldUntil);
+        return false;
+    }
+
+    private void rememberHeldLock(String name) {
+        Duration margin = heldLockCacheMargin;
+        if (margin == null) {
+            return;
+        }
+        Optional<Instant> lockUntil = storageAccessor.getLockUntil(name);
+        if (lockUntil.isPresent()) {
+            Instant heldUntil = lockUntil.get().minus(margin);
+            if (ClockProvider.now().isBefore(heldUntil)) {
+                heldLocks.put(name, heldUntil);
+            }
+        }
     }
 
-    private static class StorageLock extends AbstractSimpleLock {
+    private class StorageLock extends AbstractSimpleLock {
         private final StorageAccessor storageAccessor;
+        /**
+         * lock_until of the record, lockAtMostUntil until the lease is renewed.
+         */
+        private volatile Instant leaseUntil;
 
         StorageLock(LockConfiguration lockConfiguration, StorageAccessor storageAccessor) {
             super(lockConfiguration);
             this.storageAccessor = storageAccessor;
+            this.leaseUntil = lockConfiguration.getLockAtMostUntil();
         }
 
         @Override
         public void doUnlock() {
+            // stop the renewal first, so it does not extend the released lock
+            if (renewedLocks.remove(lockConfiguration.getName(), this)) {
+                // a renewal in progress might have taken the lock already, wait until it has finished
+                renewalLock.lock();
+                renewalLock.unlock();
+            }
             storageAccessor.unlock(lockConfiguration);
+            // another thread of this JVM might have cached the lock as held
+            heldLocks.remove(lockConfiguration.getName());
         }
 
         @Override
         public Optional<SimpleLock> doExtend(LockConfiguration newConfig) {
             if (storageAccessor.extend(newConfig)) {
-                return Optional.<SimpleLock>of(new StorageLock(newConfig, storageAccessor));
+                StorageLock extended = new StorageLock(newConfig, storageAccessor);
+                renewedLocks.replace(newConfig.getName(), this, extended);
+                return Optional.<SimpleLock>of(extended);
             } else {
+                renewedLocks.remove(newConfig.getName(), this);
                 return Optional.empty();
             }
         }
     }
 
+    private class LeaseRenewal implements Runnable {
+        private final Duration lease;
+        private volatile ScheduledFuture<?> future;
+
+        LeaseRenewal(Duration lease) {
+            this.lease = lease;
+        }
+
+        @Override
+        public void run() {
+            try {
+                renewLeases(lease);
+            } catch (UnsupportedOperationException e) {
+                logger.warn("Storage does not support extending locks, leases will not be renewed");
+                future.cancel(false);
+            } catch (RuntimeException e) {
+                // an exception would cancel the periodic renewal, let's try again in the next interval
+                logger.warn("Renewing leases failed", e);
+            }
+        }
+    }
+
+    private class StaleRecordCleanup implements Runnable {
+        private final Duration retention;
+        private final int batchSize;
+        private volatile ScheduledFuture<?> future;
+
+        StaleRecordCleanup(Duration retention, int batchSize) {
+            this.retention = retention;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void run() {
+            try {
+                deleteStaleRecords(retention, batchSize);
+            } catch (UnsupportedOperationException e) {
+                logger.warn("Storage does not support deleting records, stale records will not be cleaned up");
+                future.cancel(false);
+            } catch (RuntimeException e) {
+                // an exception would cancel the periodic cleanup, let's try again in the next interval
+                logger.warn("Cleaning up stale records failed", e);
+            }
+        }
+    }
+
 }
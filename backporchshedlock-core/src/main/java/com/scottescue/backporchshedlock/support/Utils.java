@@ -16,14 +16,18 @@
 package com.scottescue.backporchshedlock.support;
 
 import org.jetbrains.annotations.NotNull;
+import org.threeten.bp.Duration;
 import org.threeten.bp.Instant;
 import org.threeten.bp.OffsetDateTime;
 import org.threeten.bp.ZoneOffset;
 import org.threeten.bp.format.DateTimeFormatter;
 import org.threeten.bp.format.DateTimeFormatterBuilder;
+import org.threeten.bp.format.DateTimeParseException;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 
 public final class Utils {
@@ -60,6 +64,8 @@ public final class Utils {
         .toFormatter();
 
 
+    private static final Pattern SIMPLE_DURATION = Pattern.compile("^\\s*(\\d+)\\s*(ms|s|m|h|d)?\\s*$", Pattern.CASE_INSENSITIVE);
+
     private static final String hostname = initHostname();
 
     private Utils() {
@@ -75,6 +81,37 @@ public final class Utils {
         return formatter.format(utc);
     }
 
+    /**
+     * Parses a duration, either in ISO-8601 format (PT30S) or in a simple format (30s). The simple format supports
+     * ms, s, m, h and d units, a number without unit is in milliseconds.
+     *
+     * @throws IllegalArgumentException if the value can not be parsed
+     */
+    @NotNull
+    public static Duration parseDuration(@NotNull String value) {
+        Matcher matcher = SIMPLE_DURATION.matcher(value);
+        if (matcher.matches()) {
+            long amount = Long.parseLong(matcher.group(1));
+            String unit = matcher.group(2) == null ? "ms" : matcher.group(2).toLowerCase();
+            if (unit.equals("ms")) {
+                return Duration.ofMillis(amount);
+            } else if (unit.equals("s")) {
+                return Duration.ofSeconds(amount);
+            } else if (unit.equals("m")) {
+                return Duration.ofMinutes(amount);
+            } else if (unit.equals("h")) {
+                return Duration.ofHours(amount);
+            } else {
+                return Duration.ofDays(amount);
+            }
+        }
+        try {
+            return Duration.parse(value.trim());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid duration '" + value + "', use ISO-8601 format (PT30S) or a number with unit (30s).", e);
+        }
+    }
+
     @NotNull
     private static String initHostname() {
         try {
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import com.scottescue.backporchshedlock.Optional;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Test;
+import org.threeten.bp.Clock;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneOffset;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class AnnotationLockConfigurationExtractorTest {
+    private static final Instant NOW = Instant.parse("2019-01-01T10:00:00Z");
+
+    private final AnnotationLockConfigurationExtractor extractor = new AnnotationLockConfigurationExtractor(Duration.ofMinutes(30), Duration.ZERO);
+
+    @After
+    public void resetClock() {
+        ClockProvider.setClock(Clock.systemUTC());
+    }
+
+    @Test
+    public void shouldReadAnnotationFromClass() {
+        ClockProvider.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+
+        LockConfiguration lockConfiguration = extractor.getLockConfiguration(new AnnotatedClass()).get();
+
+        assertThat(lockConfiguration.getName()).isEqualTo("class");
+        assertThat(lockConfiguration.getLockAtMostUntil()).isEqualTo(NOW.plusSeconds(10));
+        assertThat(lockConfiguration.getLockAtLeastUntil()).isEqualTo(NOW.plusMillis(100));
+    }
+
+    @Test
+    public void shouldReadAnnotationFromMethod() {
+        ClockProvider.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+
+        LockConfiguration lockConfiguration = extractor.getLockConfiguration(new AnnotatedMethod()).get();
+
+        assertThat(lockConfiguration.getName()).isEqualTo("method");
+        assertThat(lockConfiguration.getLockAtMostUntil()).isEqualTo(NOW.plus(Duration.ofMinutes(30)));
+        assertThat(lockConfiguration.getLockAtLeastUntil()).isEqualTo(NOW);
+    }
+
+    @Test
+    public void shouldComputeTimesOnEachCall() {
+        ClockProvider.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+        extractor.getLockConfiguration(new AnnotatedClass());
+
+        ClockProvider.setClock(Clock.fixed(NOW.plusSeconds(60), ZoneOffset.UTC));
+        LockConfiguration lockConfiguration = extractor.getLockConfiguration(new AnnotatedClass()).get();
+
+        assertThat(lockConfiguration.getLockAtMostUntil()).isEqualTo(NOW.plusSeconds(70));
+    }
+
+    @Test
+    public void shouldReturnEmptyForTaskWithoutAnnotation() {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        assertThat(extractor.getLockConfiguration(task)).isEqualTo(Optional.<LockConfiguration>empty());
+        assertThat(extractor.getLockConfiguration(task)).isEqualTo(Optional.<LockConfiguration>empty());
+    }
+
+    @Test
+    public void shouldLookUpAnnotationOncePerClass() {
+        final AtomicInteger lookups = new AtomicInteger();
+        AnnotationLockConfigurationExtractor countingExtractor = new AnnotationLockConfigurationExtractor(Duration.ofMinutes(30), Duration.ZERO) {
+            @Override
+            protected SchedulerLock findAnnotation(@NotNull Class<?> taskClass) {
+                lookups.incrementAndGet();
+                return super.findAnnotation(taskClass);
+            }
+        };
+
+        countingExtractor.getLockConfiguration(new AnnotatedClass());
+        countingExtractor.getLockConfiguration(new AnnotatedClass());
+        countingExtractor.getLockConfiguration(new AnnotatedMethod());
+
+        assertThat(lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldRejectInvalidDuration() {
+        try {
+            extractor.getLockConfiguration(new InvalidDuration());
+            fail("Exception expected");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).contains("invalid");
+        }
+    }
+
+    @SchedulerLock(name = "class", lockAtMostFor = "PT10S", lockAtLeastFor = "100ms")
+    private static class AnnotatedClass implements Runnable {
+        @Override
+        public void run() {
+        }
+    }
+
+    private static class AnnotatedMethod implements Runnable {
+        @Override
+        @SchedulerLock(name = "method")
+        public void run() {
+        }
+    }
+
+    @SchedulerLock(name = "invalid", lockAtMostFor = "ten seconds")
+    private static class InvalidDuration implements Runnable {
+        @Override
+        public void run() {
+        }
+    }
+}
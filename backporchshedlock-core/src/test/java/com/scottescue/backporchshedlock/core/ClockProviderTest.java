@@ -0,0 +1,80 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import org.junit.After;
+import org.junit.Test;
+import org.threeten.bp.Clock;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneOffset;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClockProviderTest {
+    private static final Instant NOW = Instant.parse("2019-06-01T10:00:00Z");
+
+    @After
+    public void resetClock() {
+        ClockProvider.setClock(Clock.systemUTC());
+    }
+
+    @Test
+    public void lockConfigurationShouldUseTheClock() {
+        ClockProvider.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+        LockConfiguration lockConfiguration = new LockConfiguration("name", NOW.plusSeconds(10));
+        assertThat(lockConfiguration.getLockAtLeastUntil()).isEqualTo(NOW);
+
+        ClockProvider.setClock(Clock.offset(Clock.fixed(NOW, ZoneOffset.UTC), Duration.ofSeconds(5)));
+        assertThat(lockConfiguration.getUnlockTime()).isEqualTo(NOW.plusSeconds(5));
+    }
+
+    @Test
+    public void coarseClockShouldTick() throws InterruptedException {
+        CoarseClock clock = CoarseClock.start(5, TimeUnit.MILLISECONDS);
+        try {
+            Instant first = clock.instant();
+            Thread.sleep(50);
+            assertThat(clock.instant().isAfter(first)).isTrue();
+        } finally {
+            clock.stop();
+        }
+    }
+
+    @Test
+    public void coarseClockShouldNotMoveBetweenTicks() {
+        CoarseClock clock = CoarseClock.start(1, TimeUnit.HOURS);
+        try {
+            Instant first = clock.instant();
+            assertThat(clock.instant()).isSameAs(first);
+            assertThat(clock.millis()).isEqualTo(first.toEpochMilli());
+        } finally {
+            clock.stop();
+        }
+    }
+
+    @Test
+    public void stoppedCoarseClockShouldNotMove() throws InterruptedException {
+        CoarseClock clock = CoarseClock.start(5, TimeUnit.MILLISECONDS);
+        clock.stop();
+        Thread.sleep(20);
+        Instant stopped = clock.instant();
+        Thread.sleep(20);
+        assertThat(clock.instant()).isEqualTo(stopped);
+    }
+}
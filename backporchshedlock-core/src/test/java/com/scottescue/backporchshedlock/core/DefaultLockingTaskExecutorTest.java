@@ -1,19 +1,34 @@
 package com.scottescue.backporchshedlock.core;
 
 import com.scottescue.backporchshedlock.Optional;
+import org.junit.After;
 import org.junit.Test;
+import org.threeten.bp.Duration;
 import org.threeten.bp.Instant;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class DefaultLockingTaskExecutorTest {
     private final LockProvider lockProvider = mock(LockProvider.class);
     private final DefaultLockingTaskExecutor executor = new DefaultLockingTaskExecutor(lockProvider);
     private final LockConfiguration lockConfig = new LockConfiguration("test", Instant.now().plusSeconds(100));
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void shutdownScheduler() {
+        scheduler.shutdownNow();
+    }
 
     @Test
     public void lockShouldBeReentrant() {
@@ -36,5 +51,157 @@ public class DefaultLockingTaskExecutorTest {
         }, lockConfig);
 
         assertThat(called.get()).isTrue();
+        verify(lockProvider, times(1)).lock(lockConfig);
+    }
+
+    @Test
+    public void nestedLocksShouldBeKeptSeparately() {
+        final LockConfiguration innerLockConfig = new LockConfiguration("inner", Instant.now().plusSeconds(100));
+        final SimpleLock outerLock = mock(SimpleLock.class);
+        final SimpleLock innerLock = mock(SimpleLock.class);
+        when(lockProvider.lock(lockConfig)).thenReturn(Optional.of(outerLock));
+        when(lockProvider.lock(innerLockConfig)).thenReturn(Optional.of(innerLock));
+
+        final AtomicBoolean called = new AtomicBoolean(false);
+        executor.executeWithLock(new Runnable() {
+            @Override
+            public void run() {
+                executor.executeWithLock(new Runnable() {
+                    @Override
+                    public void run() {
+                        // reentering the outer lock
+                        executor.executeWithLock(new Runnable() {
+                            @Override
+                            public void run() {
+                                called.set(true);
+                            }
+                        }, lockConfig);
+                    }
+                }, innerLockConfig);
+                verify(innerLock).unlock();
+                // still locked by the outer lock
+                LockAssert.assertLocked();
+            }
+        }, lockConfig);
+
+        assertThat(called.get()).isTrue();
+        verify(lockProvider, times(1)).lock(lockConfig);
+        verify(outerLock).unlock();
+    }
+
+    @Test
+    public void shouldKeepLockAliveWhileTaskIsRunning() {
+        LockConfiguration shortLockConfig = new LockConfiguration("test", Instant.now().plusMillis(200));
+        SimpleLock lock = mock(SimpleLock.class);
+        SimpleLock extendedLock = mock(SimpleLock.class);
+        when(lockProvider.lock(shortLockConfig)).thenReturn(Optional.of(lock));
+        when(lock.extend(any(Instant.class), any(Instant.class))).thenReturn(Optional.of(extendedLock));
+        when(extendedLock.extend(any(Instant.class), any(Instant.class))).thenReturn(Optional.of(extendedLock));
+
+        new DefaultLockingTaskExecutor(lockProvider, scheduler).executeWithLock(sleepingTask(500), shortLockConfig);
+
+        verify(lock).extend(any(Instant.class), any(Instant.class));
+        verify(extendedLock, atLeastOnce()).extend(any(Instant.class), any(Instant.class));
+        verify(lock, never()).unlock();
+        verify(extendedLock).unlock();
+    }
+
+    @Test
+    public void shouldNotUnlockLockThatCouldNotBeExtended() {
+        LockConfiguration shortLockConfig = new LockConfiguration("test", Instant.now().plusMillis(200));
+        SimpleLock lock = mock(SimpleLock.class);
+        when(lockProvider.lock(shortLockConfig)).thenReturn(Optional.of(lock));
+        when(lock.extend(any(Instant.class), any(Instant.class))).thenReturn(Optional.<SimpleLock>empty());
+
+        new DefaultLockingTaskExecutor(lockProvider, scheduler).executeWithLock(sleepingTask(300), shortLockConfig);
+
+        verify(lock).extend(any(Instant.class), any(Instant.class));
+        verify(lock, never()).unlock();
+    }
+
+    @Test
+    public void shouldNotExtendLockOfShortTask() {
+        SimpleLock lock = mock(SimpleLock.class);
+        when(lockProvider.lock(lockConfig)).thenReturn(Optional.of(lock));
+
+        new DefaultLockingTaskExecutor(lockProvider, scheduler).executeWithLock(sleepingTask(0), lockConfig);
+
+        verify(lock, never()).extend(any(Instant.class), any(Instant.class));
+        verify(lock).unlock();
+    }
+
+    private static Runnable sleepingTask(final long millis) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    @Test
+    public void shouldWaitForLock() {
+        when(lockProvider.lock(any(LockConfiguration.class)))
+            .thenReturn(Optional.<SimpleLock>empty())
+            .thenReturn(Optional.<SimpleLock>empty())
+            .thenReturn(Optional.of(mock(SimpleLock.class)));
+
+        final AtomicBoolean called = new AtomicBoolean(false);
+        boolean executed = executor.executeWithLock(new Runnable() {
+            @Override
+            public void run() {
+                called.set(true);
+            }
+        }, lockConfig, Duration.ofSeconds(10));
+
+        assertThat(executed).isTrue();
+        assertThat(called.get()).isTrue();
+        verify(lockProvider, times(3)).lock(any(LockConfiguration.class));
+    }
+
+    @Test
+    public void shouldStopWaitingAfterMaxWait() {
+        when(lockProvider.lock(any(LockConfiguration.class))).thenReturn(Optional.<SimpleLock>empty());
+
+        boolean executed = executor.executeWithLock(sleepingTask(0), lockConfig, Duration.ofMillis(100));
+
+        assertThat(executed).isFalse();
+    }
+
+    @Test
+    public void shouldAskInspectableProviderHowLongToWait() {
+        InspectableLockProvider inspectableLockProvider = mock(InspectableLockProvider.class);
+        when(inspectableLockProvider.lock(any(LockConfiguration.class)))
+            .thenReturn(Optional.<SimpleLock>empty())
+            .thenReturn(Optional.<SimpleLock>empty())
+            .thenReturn(Optional.<SimpleLock>empty())
+            .thenReturn(Optional.of(mock(SimpleLock.class)));
+        when(inspectableLockProvider.getLockUntil("test")).thenReturn(Optional.of(Instant.now().plusMillis(5)));
+
+        boolean executed = new DefaultLockingTaskExecutor(inspectableLockProvider).executeWithLock(sleepingTask(0), lockConfig, Duration.ofSeconds(10));
+
+        assertThat(executed).isTrue();
+        // read once per wait, not on each retry
+        verify(inspectableLockProvider).getLockUntil("test");
+    }
+
+    @Test
+    public void delaysShouldGrowTowardsKnownLockUntil() {
+        Instant now = Instant.now();
+        Optional<Instant> heldUntil = Optional.of(now.plus(Duration.ofMinutes(10)));
+
+        long delay = DefaultLockingTaskExecutor.nextDelay(Long.MAX_VALUE, now, heldUntil);
+        assertThat(delay).isGreaterThanOrEqualTo(DefaultLockingTaskExecutor.MAX_HELD_LOCK_BACKOFF_MS / 2);
+        assertThat(delay).isLessThanOrEqualTo(DefaultLockingTaskExecutor.MAX_HELD_LOCK_BACKOFF_MS);
+
+        delay = DefaultLockingTaskExecutor.nextDelay(Long.MAX_VALUE, now, Optional.of(now.plusSeconds(20)));
+        assertThat(delay).isBetween(19900L, 20000L);
+
+        // lock_until unknown
+        assertThat(DefaultLockingTaskExecutor.nextDelay(Long.MAX_VALUE, now, Optional.<Instant>empty())).isLessThanOrEqualTo(5000);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.TestUtils;
+import com.scottescue.backporchshedlock.ThrowingCallable;
+import org.junit.Test;
+import org.threeten.bp.Instant;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class InstrumentedLockProviderTest {
+    private static final LockConfiguration LOCK_CONFIGURATION = new LockConfiguration("name", Instant.now().plusSeconds(100));
+
+    private final LockProvider delegate = mock(LockProvider.class);
+    private final SimpleLock lock = mock(SimpleLock.class);
+
+    private final InstrumentedLockProvider lockProvider = new InstrumentedLockProvider(delegate);
+
+    @Test
+    public void shouldRecordAcquiredLock() {
+        when(delegate.lock(LOCK_CONFIGURATION)).thenReturn(Optional.of(lock));
+
+        lockProvider.lock(LOCK_CONFIGURATION).get().unlock();
+
+        verify(lock).unlock();
+        assertThat(lockProvider.getAcquiredLatency().getCount()).isEqualTo(1);
+        assertThat(lockProvider.getRejectedLatency().getCount()).isEqualTo(0);
+        assertThat(lockProvider.getUnlockLatency().getCount()).isEqualTo(1);
+        assertThat(lockProvider.getHoldTime().getCount()).isEqualTo(1);
+        assertThat(lockProvider.getContention()).isEmpty();
+    }
+
+    @Test
+    public void shouldRecordRejectedLock() {
+        when(delegate.lock(LOCK_CONFIGURATION)).thenReturn(Optional.<SimpleLock>empty());
+
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+
+        assertThat(lockProvider.getAcquiredLatency().getCount()).isEqualTo(0);
+        assertThat(lockProvider.getRejectedLatency().getCount()).isEqualTo(2);
+        assertThat(lockProvider.getContention()).containsEntry("name", 2L);
+    }
+
+    @Test
+    public void shouldRecordExtensionAndHoldTimeOfExtendedLock() {
+        SimpleLock extendedLock = mock(SimpleLock.class);
+        when(delegate.lock(LOCK_CONFIGURATION)).thenReturn(Optional.of(lock));
+        when(lock.extend(any(Instant.class), any(Instant.class))).thenReturn(Optional.of(extendedLock));
+
+        SimpleLock obtained = lockProvider.lock(LOCK_CONFIGURATION).get();
+        obtained.extend(Instant.now().plusSeconds(10), Instant.now()).get().unlock();
+
+        verify(extendedLock).unlock();
+        assertThat(lockProvider.getExtendLatency().getCount()).isEqualTo(1);
+        assertThat(lockProvider.getHoldTime().getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCountFailures() {
+        final IllegalStateException exception = new IllegalStateException("Test");
+        when(delegate.lock(LOCK_CONFIGURATION)).thenThrow(exception);
+
+        Throwable thrown = TestUtils.getThrownBy(new ThrowingCallable() {
+            @Override
+            public void call() {
+                lockProvider.lock(LOCK_CONFIGURATION);
+            }
+        });
+
+        assertThat(thrown).isSameAs(exception);
+        assertThat(lockProvider.getFailures()).isEqualTo(1);
+
+        lockProvider.reset();
+        assertThat(lockProvider.getFailures()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldDelegateLockAllAndGetLockUntil() {
+        LockConfiguration lockConfiguration2 = new LockConfiguration("name2", Instant.now().plusSeconds(100));
+        List<LockConfiguration> configurations = Arrays.asList(LOCK_CONFIGURATION, lockConfiguration2);
+        BatchLockProvider batchDelegate = mock(BatchLockProvider.class, withSettings().extraInterfaces(InspectableLockProvider.class));
+        Instant lockUntil = Instant.now().plusSeconds(100);
+        when(batchDelegate.lockAll(configurations)).thenReturn(Collections.singletonMap("name", lock));
+        when(((InspectableLockProvider) batchDelegate).getLockUntil("name")).thenReturn(Optional.of(lockUntil));
+        InstrumentedLockProvider provider = new InstrumentedLockProvider(batchDelegate);
+
+        provider.lockAll(configurations).get("name").unlock();
+
+        verify(batchDelegate, never()).lock(any(LockConfiguration.class));
+        verify(lock).unlock();
+        assertThat(provider.getBatchLatency().getCount()).isEqualTo(1);
+        assertThat(provider.getHoldTime().getCount()).isEqualTo(1);
+        assertThat(provider.getContention()).containsEntry("name2", 1L);
+        assertThat(provider.getLockUntil("name").get()).isEqualTo(lockUntil);
+        assertThat(lockProvider.getLockUntil("name").isPresent()).isFalse();
+    }
+
+    @Test
+    public void shouldLimitNumberOfContendedNames() {
+        InstrumentedLockProvider provider = new InstrumentedLockProvider(delegate, 1);
+        LockConfiguration lockConfiguration2 = new LockConfiguration("name2", Instant.now().plusSeconds(100));
+        when(delegate.lock(any(LockConfiguration.class))).thenReturn(Optional.<SimpleLock>empty());
+
+        provider.lock(LOCK_CONFIGURATION);
+        provider.lock(lockConfiguration2);
+        provider.lock(LOCK_CONFIGURATION);
+
+        assertThat(provider.getContention()).hasSize(1).containsEntry("name", 2L);
+        assertThat(provider.getUntrackedContention()).isEqualTo(1);
+    }
+}
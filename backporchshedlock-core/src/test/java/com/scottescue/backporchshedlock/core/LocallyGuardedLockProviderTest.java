@@ -0,0 +1,170 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.TestUtils;
+import com.scottescue.backporchshedlock.ThrowingCallable;
+import org.junit.After;
+import org.junit.Test;
+import org.threeten.bp.Clock;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneOffset;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LocallyGuardedLockProviderTest {
+    private static final LockConfiguration LOCK_CONFIGURATION = new LockConfiguration("name", Instant.now().plusSeconds(100));
+    private static final LockConfiguration LOCK_CONFIGURATION2 = new LockConfiguration("name2", Instant.now().plusSeconds(100));
+
+    private final LockProvider delegate = mock(LockProvider.class);
+    private final SimpleLock lock = mock(SimpleLock.class);
+
+    private final LocallyGuardedLockProvider lockProvider = new LocallyGuardedLockProvider(delegate);
+
+    @After
+    public void resetClock() {
+        ClockProvider.setClock(Clock.systemUTC());
+    }
+
+    @Test
+    public void shouldNotCallDelegateWhileLockIsHeldLocally() {
+        when(delegate.lock(LOCK_CONFIGURATION)).thenReturn(Optional.of(lock));
+
+        Optional<SimpleLock> first = lockProvider.lock(LOCK_CONFIGURATION);
+        assertThat(first.isPresent()).isTrue();
+        assertThat(lockProvider.isGuarded("name")).isTrue();
+
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+        verify(delegate, times(1)).lock(LOCK_CONFIGURATION);
+
+        first.get().unlock();
+        verify(lock).unlock();
+        assertThat(lockProvider.isGuarded("name")).isFalse();
+
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isTrue();
+        verify(delegate, times(2)).lock(LOCK_CONFIGURATION);
+    }
+
+    @Test
+    public void shouldReleaseGuardIfLockNotObtained() {
+        when(delegate.lock(LOCK_CONFIGURATION)).thenReturn(Optional.<SimpleLock>empty());
+
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+
+        verify(delegate, times(2)).lock(LOCK_CONFIGURATION);
+        assertThat(lockProvider.isGuarded("name")).isFalse();
+    }
+
+    @Test
+    public void shouldReleaseGuardOnException() {
+        final IllegalStateException exception = new IllegalStateException("Test");
+        when(delegate.lock(LOCK_CONFIGURATION)).thenThrow(exception);
+
+        Throwable thrown = TestUtils.getThrownBy(new ThrowingCallable() {
+            @Override
+            public void call() {
+                lockProvider.lock(LOCK_CONFIGURATION);
+            }
+        });
+
+        assertThat(thrown).isSameAs(exception);
+        assertThat(lockProvider.isGuarded("name")).isFalse();
+    }
+
+    @Test
+    public void shouldKeepGuardWhenLockIsExtended() {
+        SimpleLock extendedLock = mock(SimpleLock.class);
+        when(delegate.lock(LOCK_CONFIGURATION)).thenReturn(Optional.of(lock));
+        when(lock.extend(any(Instant.class), any(Instant.class))).thenReturn(Optional.of(extendedLock));
+
+        SimpleLock obtained = lockProvider.lock(LOCK_CONFIGURATION).get();
+        Optional<SimpleLock> extended = obtained.extend(Instant.now().plusSeconds(10), Instant.now());
+        assertThat(extended.isPresent()).isTrue();
+        assertThat(lockProvider.isGuarded("name")).isTrue();
+
+        extended.get().unlock();
+        verify(extendedLock).unlock();
+        assertThat(lockProvider.isGuarded("name")).isFalse();
+    }
+
+    @Test
+    public void shouldReleaseGuardIfExtensionFails() {
+        when(delegate.lock(LOCK_CONFIGURATION)).thenReturn(Optional.of(lock));
+        when(lock.extend(any(Instant.class), any(Instant.class))).thenReturn(Optional.<SimpleLock>empty());
+
+        SimpleLock obtained = lockProvider.lock(LOCK_CONFIGURATION).get();
+        assertThat(obtained.extend(Instant.now().plusSeconds(10), Instant.now()).isPresent()).isFalse();
+        assertThat(lockProvider.isGuarded("name")).isFalse();
+    }
+
+    @Test
+    public void shouldTakeOverGuardOfLockNotReleasedByLockAtMostUntil() {
+        Instant now = Instant.now();
+        ClockProvider.setClock(Clock.fixed(now, ZoneOffset.UTC));
+        when(delegate.lock(LOCK_CONFIGURATION)).thenReturn(Optional.of(lock));
+
+        // never unlocked
+        lockProvider.lock(LOCK_CONFIGURATION);
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+
+        ClockProvider.setClock(Clock.fixed(LOCK_CONFIGURATION.getLockAtMostUntil(), ZoneOffset.UTC));
+        assertThat(lockProvider.isGuarded("name")).isFalse();
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isTrue();
+        verify(delegate, times(2)).lock(LOCK_CONFIGURATION);
+    }
+
+    @Test
+    public void shouldDelegateGetLockUntil() {
+        InspectableLockProvider inspectableDelegate = mock(InspectableLockProvider.class);
+        Instant lockUntil = Instant.now().plusSeconds(10);
+        when(inspectableDelegate.getLockUntil("name")).thenReturn(Optional.of(lockUntil));
+
+        assertThat(new LocallyGuardedLockProvider(inspectableDelegate).getLockUntil("name").get()).isEqualTo(lockUntil);
+        assertThat(lockProvider.getLockUntil("name").isPresent()).isFalse();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void lockAllShouldSkipLocksHeldLocally() {
+        BatchLockProvider batchDelegate = mock(BatchLockProvider.class);
+        LocallyGuardedLockProvider lockProvider = new LocallyGuardedLockProvider(batchDelegate);
+        when(batchDelegate.lock(LOCK_CONFIGURATION)).thenReturn(Optional.of(lock));
+        when(batchDelegate.lockAll(any(Collection.class))).thenReturn(Collections.<String, SimpleLock>emptyMap());
+        when(batchDelegate.lockAll(Collections.singletonList(LOCK_CONFIGURATION2)))
+            .thenReturn(Collections.singletonMap("name2", mock(SimpleLock.class)));
+
+        lockProvider.lock(LOCK_CONFIGURATION);
+        Map<String, SimpleLock> locks = lockProvider.lockAll(Arrays.asList(LOCK_CONFIGURATION, LOCK_CONFIGURATION2));
+
+        assertThat(locks.keySet()).containsExactly("name2");
+        assertThat(lockProvider.isGuarded("name2")).isTrue();
+        locks.get("name2").unlock();
+        assertThat(lockProvider.isGuarded("name2")).isFalse();
+        assertThat(lockProvider.isGuarded("name")).isTrue();
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import com.scottescue.backporchshedlock.Optional;
+import org.junit.Test;
+import org.threeten.bp.Instant;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LockBasedSemaphoreProviderTest {
+    private static final LockConfiguration LOCK_CONFIGURATION = new LockConfiguration("name", Instant.now().plusSeconds(100));
+
+    private final LockProvider delegate = mock(LockProvider.class);
+    // one holder per lock name within the JVM, enough to stand for a distributed lock provider
+    private final LocallyGuardedLockProvider lockProvider = new LocallyGuardedLockProvider(delegate);
+    private final SemaphoreProvider semaphoreProvider = new LockBasedSemaphoreProvider(lockProvider);
+
+    @Test
+    public void shouldHandOutPermitsUpToLimit() {
+        when(delegate.lock(any(LockConfiguration.class))).thenReturn(Optional.of(mock(SimpleLock.class)));
+
+        List<SimpleLock> permits = new ArrayList<SimpleLock>();
+        for (int i = 0; i < 3; i++) {
+            Optional<SimpleLock> permit = semaphoreProvider.acquire(LOCK_CONFIGURATION, 3);
+            assertThat(permit.isPresent()).isTrue();
+            permits.add(permit.get());
+        }
+        for (int i = 0; i < 3; i++) {
+            assertThat(lockProvider.isGuarded(LockBasedSemaphoreProvider.getPermitName("name", i))).isTrue();
+        }
+        assertThat(semaphoreProvider.acquire(LOCK_CONFIGURATION, 3).isPresent()).isFalse();
+
+        permits.get(1).unlock();
+        assertThat(semaphoreProvider.acquire(LOCK_CONFIGURATION, 3).isPresent()).isTrue();
+        assertThat(semaphoreProvider.acquire(LOCK_CONFIGURATION, 3).isPresent()).isFalse();
+    }
+
+    @Test
+    public void shouldNotAcquirePermitIfLocksAreHeldElsewhere() {
+        when(delegate.lock(any(LockConfiguration.class))).thenReturn(Optional.<SimpleLock>empty());
+
+        assertThat(semaphoreProvider.acquire(LOCK_CONFIGURATION, 5).isPresent()).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRequirePermits() {
+        semaphoreProvider.acquire(LOCK_CONFIGURATION, 0);
+    }
+}
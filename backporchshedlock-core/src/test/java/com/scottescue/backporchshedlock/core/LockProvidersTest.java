@@ -0,0 +1,91 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.core;
+
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.TestUtils;
+import com.scottescue.backporchshedlock.ThrowingCallable;
+import org.junit.Test;
+import org.threeten.bp.Instant;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LockProvidersTest {
+    private static final LockConfiguration CONFIGURATION1 = new LockConfiguration("name1", Instant.now().plusSeconds(100));
+    private static final LockConfiguration CONFIGURATION2 = new LockConfiguration("name2", Instant.now().plusSeconds(100));
+    private static final LockConfiguration CONFIGURATION3 = new LockConfiguration("name3", Instant.now().plusSeconds(100));
+
+    private final LockProvider lockProvider = mock(LockProvider.class);
+    private final SimpleLock lock1 = mock(SimpleLock.class);
+    private final SimpleLock lock3 = mock(SimpleLock.class);
+
+    @Test
+    public void shouldLockOneByOne() {
+        when(lockProvider.lock(CONFIGURATION1)).thenReturn(Optional.of(lock1));
+        when(lockProvider.lock(CONFIGURATION2)).thenReturn(Optional.<SimpleLock>empty());
+        when(lockProvider.lock(CONFIGURATION3)).thenReturn(Optional.of(lock3));
+
+        Map<String, SimpleLock> locks = LockProviders.lockAll(lockProvider, Arrays.asList(CONFIGURATION1, CONFIGURATION2, CONFIGURATION3));
+
+        assertThat(locks.keySet()).containsExactly("name1", "name3");
+        assertThat(locks.get("name1")).isSameAs(lock1);
+        assertThat(locks.get("name3")).isSameAs(lock3);
+    }
+
+    @Test
+    public void shouldDelegateToBatchLockProvider() {
+        BatchLockProvider batchLockProvider = mock(BatchLockProvider.class);
+        Map<String, SimpleLock> locks = Collections.singletonMap("name1", lock1);
+        when(batchLockProvider.lockAll(Arrays.asList(CONFIGURATION1, CONFIGURATION2))).thenReturn(locks);
+
+        assertThat(LockProviders.lockAll(batchLockProvider, Arrays.asList(CONFIGURATION1, CONFIGURATION2))).isSameAs(locks);
+    }
+
+    @Test
+    public void shouldReleaseObtainedLocksOnException() {
+        final IllegalStateException exception = new IllegalStateException("Test");
+        when(lockProvider.lock(CONFIGURATION1)).thenReturn(Optional.of(lock1));
+        when(lockProvider.lock(CONFIGURATION2)).thenThrow(exception);
+
+        Throwable thrown = TestUtils.getThrownBy(new ThrowingCallable() {
+            @Override
+            public void call() {
+                LockProviders.lockAll(lockProvider, Arrays.asList(CONFIGURATION1, CONFIGURATION2, CONFIGURATION3));
+            }
+        });
+
+        assertThat(thrown).isSameAs(exception);
+        verify(lock1).unlock();
+    }
+
+    @Test
+    public void shouldNotAllowDuplicateNames() {
+        Throwable thrown = TestUtils.getThrownBy(new ThrowingCallable() {
+            @Override
+            public void call() {
+                LockProviders.lockAll(lockProvider, Arrays.asList(CONFIGURATION1, new LockConfiguration("name1", Instant.now().plusSeconds(10))));
+            }
+        });
+        assertThat(thrown).isInstanceOf(IllegalArgumentException.class);
+    }
+}
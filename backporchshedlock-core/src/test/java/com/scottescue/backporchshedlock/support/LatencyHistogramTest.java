@@ -0,0 +1,69 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.support;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LatencyHistogramTest {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void shouldRecordDurations() {
+        histogram.record(500, TimeUnit.NANOSECONDS);
+        histogram.record(3, TimeUnit.MICROSECONDS);
+        histogram.record(10, TimeUnit.MILLISECONDS);
+
+        assertThat(histogram.getCount()).isEqualTo(3);
+        assertThat(histogram.getMaxNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(10));
+        assertThat(histogram.getTotalNanos()).isEqualTo(500 + 3000 + 10000000);
+
+        long[] counts = histogram.getBucketCounts();
+        assertThat(counts[0]).isEqualTo(1);
+        assertThat(counts[2]).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldApproximatePercentiles() {
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100, TimeUnit.MICROSECONDS);
+        }
+        histogram.record(1, TimeUnit.SECONDS);
+
+        // 100us falls into [64us, 128us) bucket
+        assertThat(histogram.getPercentileNanos(50)).isEqualTo(TimeUnit.MICROSECONDS.toNanos(128));
+        assertThat(histogram.getPercentileNanos(99)).isEqualTo(TimeUnit.MICROSECONDS.toNanos(128));
+        assertThat(histogram.getPercentileNanos(100)).isEqualTo(TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void shouldPutLongDurationsToLastBucket() {
+        histogram.record(365, TimeUnit.DAYS);
+        assertThat(histogram.getBucketCounts()[LatencyHistogram.BUCKETS - 1]).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldReset() {
+        histogram.record(1, TimeUnit.SECONDS);
+        histogram.reset();
+        assertThat(histogram.getCount()).isEqualTo(0);
+        assertThat(histogram.getMaxNanos()).isEqualTo(0);
+        assertThat(histogram.getPercentileNanos(50)).isEqualTo(0);
+    }
+}
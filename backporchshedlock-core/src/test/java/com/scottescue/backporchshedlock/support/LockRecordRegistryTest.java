@@ -18,6 +18,7 @@ package com.scottescue.backporchshedlock.support;
 import org.junit.Test;
 
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -26,12 +27,44 @@ public class LockRecordRegistryTest {
     private final LockRecordRegistry lockRecordRegistry = new LockRecordRegistry();
 
     @Test
-    public void unusedKeysShouldBeGarbageCollected() {
+    public void unusedKeysShouldBeEvicted() {
         int records = 1000000;
         for (int i = 0; i < records; i++) {
             lockRecordRegistry.addLockRecord(UUID.randomUUID().toString());
         }
-        assertThat(lockRecordRegistry.getSize()).isLessThan(records);
+        assertThat(lockRecordRegistry.getSize()).isLessThanOrEqualTo(LockRecordRegistry.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedKeys() {
+        LockRecordRegistry registry = new LockRecordRegistry(10, 0, TimeUnit.SECONDS);
+        registry.addLockRecord(NAME);
+        for (int i = 0; i < 100; i++) {
+            registry.addLockRecord("other" + i);
+            // keep the name in use
+            assertThat(registry.lockRecordRecentlyCreated(NAME)).isTrue();
+        }
+        assertThat(registry.getSize()).isLessThanOrEqualTo(10);
+    }
+
+    @Test
+    public void shouldForgetExpiredKeys() throws InterruptedException {
+        LockRecordRegistry registry = new LockRecordRegistry(10, 50, TimeUnit.MILLISECONDS);
+        registry.addLockRecord(NAME);
+        assertThat(registry.lockRecordRecentlyCreated(NAME)).isTrue();
+        Thread.sleep(100);
+        assertThat(registry.lockRecordRecentlyCreated(NAME)).isFalse();
+        assertThat(registry.getSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldCountHitsAndMisses() {
+        lockRecordRegistry.lockRecordRecentlyCreated(NAME);
+        lockRecordRegistry.addLockRecord(NAME);
+        lockRecordRegistry.lockRecordRecentlyCreated(NAME);
+        lockRecordRegistry.lockRecordRecentlyCreated(NAME);
+        assertThat(lockRecordRegistry.getMisses()).isEqualTo(1);
+        assertThat(lockRecordRegistry.getHits()).isEqualTo(2);
     }
 
     @Test
@@ -45,6 +78,13 @@ public class LockRecordRegistryTest {
         assertThat(lockRecordRegistry.lockRecordRecentlyCreated(NAME)).isFalse();
     }
 
+    @Test
+    public void shouldForgetRemovedKeys() {
+        lockRecordRegistry.addLockRecord(NAME);
+        lockRecordRegistry.removeLockRecord(NAME);
+        assertThat(lockRecordRegistry.lockRecordRecentlyCreated(NAME)).isFalse();
+    }
+
     @Test
     public void shouldClear() {
         lockRecordRegistry.addLockRecord(NAME);
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.support;
+
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import org.junit.Test;
+import org.threeten.bp.Instant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollectionOf;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class ShardedStorageAccessorTest {
+    private static final Instant LOCK_UNTIL = Instant.now().plusSeconds(60);
+
+    @Test
+    public void shouldSpreadNamesOverShards() {
+        ShardedStorageAccessor accessor = new ShardedStorageAccessor(shards("a", "b", "c", "d"));
+        Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < 10000; i++) {
+            String shardId = accessor.getShardId("lock" + i);
+            counts.put(shardId, counts.containsKey(shardId) ? counts.get(shardId) + 1 : 1);
+        }
+        assertThat(counts).hasSize(4);
+        for (int count : counts.values()) {
+            assertThat(count).isBetween(1500, 3500);
+        }
+    }
+
+    @Test
+    public void shouldMoveOnlyNamesOfAddedShard() {
+        ShardedStorageAccessor before = new ShardedStorageAccessor(shards("a", "b", "c", "d"));
+        // the order of the shards does not matter, only their ids
+        ShardedStorageAccessor after = new ShardedStorageAccessor(shards("e", "d", "c", "b", "a"));
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            String name = "lock" + i;
+            if (!before.getShardId(name).equals(after.getShardId(name))) {
+                assertThat(after.getShardId(name)).isEqualTo("e");
+                moved++;
+            }
+        }
+        assertThat(moved).isBetween(1000, 3000);
+    }
+
+    @Test
+    public void shouldSendOneBatchPerShard() {
+        Map<String, BatchStorageAccessor> shards = shards("a", "b");
+        ShardedStorageAccessor accessor = new ShardedStorageAccessor(shards);
+        List<LockConfiguration> configurations = new ArrayList<LockConfiguration>();
+        Set<String> namesOfA = new HashSet<String>();
+        for (int i = 0; i < 20; i++) {
+            configurations.add(new LockConfiguration("lock" + i, LOCK_UNTIL));
+            if (accessor.getShardId("lock" + i).equals("a")) {
+                namesOfA.add("lock" + i);
+            }
+        }
+        when(shards.get("a").insertRecords(anyCollectionOf(LockConfiguration.class))).thenReturn(namesOfA);
+        when(shards.get("b").insertRecords(anyCollectionOf(LockConfiguration.class))).thenReturn(new HashSet<String>(Arrays.asList("lock-b")));
+
+        assertThat(accessor.insertRecords(configurations)).containsAll(namesOfA).contains("lock-b");
+        verify(shards.get("a")).insertRecords(eq(configurationsOf(configurations, accessor, "a")));
+        verify(shards.get("b")).insertRecords(eq(configurationsOf(configurations, accessor, "b")));
+    }
+
+    @Test
+    public void shouldRouteSingleOperationsToOneShard() {
+        Map<String, BatchStorageAccessor> shards = shards("a", "b");
+        ShardedStorageAccessor accessor = new ShardedStorageAccessor(shards);
+        String name = "lock";
+        String other = accessor.getShardId(name).equals("a") ? "b" : "a";
+        LockConfiguration configuration = new LockConfiguration(name, LOCK_UNTIL);
+        when(shards.get(accessor.getShardId(name)).insertRecord(configuration)).thenReturn(true);
+
+        assertThat(accessor.insertRecord(configuration)).isTrue();
+        accessor.unlock(configuration);
+        verify(shards.get(accessor.getShardId(name))).unlock(configuration);
+        verifyZeroInteractions(shards.get(other));
+    }
+
+    @Test
+    public void shouldSupportUpsertOnlyIfAllShardsDo() {
+        Map<String, BatchStorageAccessor> shards = shards("a", "b");
+        when(shards.get("a").supportsUpsert()).thenReturn(true);
+        assertThat(new ShardedStorageAccessor(shards).supportsUpsert()).isFalse();
+        when(shards.get("b").supportsUpsert()).thenReturn(true);
+        assertThat(new ShardedStorageAccessor(shards).supportsUpsert()).isTrue();
+    }
+
+    @Test
+    public void shouldDeleteExpiredRecordsUpToLimit() {
+        Map<String, BatchStorageAccessor> shards = shards("a", "b");
+        Instant expiredBefore = Instant.now();
+        when(shards.get("a").deleteExpiredRecords(expiredBefore, 3)).thenReturn(new LinkedHashSet<String>(Arrays.asList("x", "y")));
+        when(shards.get("b").deleteExpiredRecords(expiredBefore, 1)).thenReturn(new LinkedHashSet<String>(Arrays.asList("z")));
+
+        assertThat(new ShardedStorageAccessor(shards).deleteExpiredRecords(expiredBefore, 3)).containsExactly("x", "y", "z");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRequireShards() {
+        new ShardedStorageAccessor(new LinkedHashMap<String, StorageAccessor>());
+    }
+
+    private static Map<String, BatchStorageAccessor> shards(String... ids) {
+        Map<String, BatchStorageAccessor> shards = new LinkedHashMap<String, BatchStorageAccessor>();
+        for (String id : ids) {
+            shards.put(id, mock(BatchStorageAccessor.class));
+        }
+        return shards;
+    }
+
+    private static Collection<LockConfiguration> configurationsOf(List<LockConfiguration> configurations, ShardedStorageAccessor accessor, String shardId) {
+        List<LockConfiguration> result = new ArrayList<LockConfiguration>();
+        for (LockConfiguration configuration : configurations) {
+            if (accessor.getShardId(configuration.getName()).equals(shardId)) {
+                result.add(configuration);
+            }
+        }
+        return result;
+    }
+}
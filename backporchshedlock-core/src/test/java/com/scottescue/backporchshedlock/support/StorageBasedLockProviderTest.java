@@ -15,24 +15,48 @@
  */
 package com.scottescue.backporchshedlock.support;
 
+import com.scottescue.backporchshedlock.Optional;
 import com.scottescue.backporchshedlock.core.LockConfiguration;
+import com.scottescue.backporchshedlock.core.SimpleLock;
 import com.scottescue.backporchshedlock.TestUtils;
 import com.scottescue.backporchshedlock.ThrowingCallable;
+import org.junit.After;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.threeten.bp.Duration;
 import org.threeten.bp.Instant;
 import org.threeten.bp.temporal.ChronoUnit;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 
 public class StorageBasedLockProviderTest {
-    private static final LockConfiguration LOCK_CONFIGURATION = new LockConfiguration("name", Instant.now().plus(5, ChronoUnit.MINUTES));
+    private static final Instant LOCK_AT_MOST_UNTIL = Instant.now().plus(5, ChronoUnit.MINUTES);
+    private static final LockConfiguration LOCK_CONFIGURATION = new LockConfiguration("name", LOCK_AT_MOST_UNTIL);
+    private static final LockConfiguration LOCK_CONFIGURATION2 = new LockConfiguration("name2", LOCK_AT_MOST_UNTIL);
     private static final LockException LOCK_EXCEPTION = new LockException("Test");
 
-    private final StorageAccessor storageAccessor = mock(StorageAccessor.class);
+    private final BatchStorageAccessor storageAccessor = mock(BatchStorageAccessor.class);
 
     private final StorageBasedLockProvider lockProvider = new StorageBasedLockProvider(storageAccessor);
 
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void shutdownScheduler() {
+        scheduler.shutdownNow();
+    }
+
     @Test
     public void newRecordShouldOnlyBeInserted() {
         when(storageAccessor.insertRecord(LOCK_CONFIGURATION)).thenReturn(true);
@@ -69,6 +93,99 @@ public class StorageBasedLockProviderTest {
         assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
     }
 
+    @Test
+    public void shouldNotUpdateIfUpsertFailed() {
+        when(storageAccessor.supportsUpsert()).thenReturn(true);
+        when(storageAccessor.insertRecord(LOCK_CONFIGURATION)).thenReturn(false);
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+        verify(storageAccessor, never()).updateRecord(LOCK_CONFIGURATION);
+
+        // Should update directly without upsert
+        reset(storageAccessor);
+        when(storageAccessor.updateRecord(LOCK_CONFIGURATION)).thenReturn(true);
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isTrue();
+        verify(storageAccessor, never()).insertRecord(LOCK_CONFIGURATION);
+    }
+
+    @Test
+    public void lockAllShouldInsertNewRecordsAndUpdateTheRest() {
+        List<LockConfiguration> configurations = Arrays.asList(LOCK_CONFIGURATION, LOCK_CONFIGURATION2);
+        when(storageAccessor.insertRecords(configurations)).thenReturn(Collections.singleton("name"));
+        when(storageAccessor.updateRecords(Collections.singletonList(LOCK_CONFIGURATION2))).thenReturn(Collections.singleton("name2"));
+
+        Map<String, SimpleLock> locks = lockProvider.lockAll(configurations);
+        assertThat(locks.keySet()).containsExactly("name", "name2");
+
+        // Should update directly without insert
+        reset(storageAccessor);
+        when(storageAccessor.updateRecords(configurations)).thenReturn(Collections.singleton("name2"));
+        assertThat(lockProvider.lockAll(configurations).keySet()).containsExactly("name2");
+        verify(storageAccessor, never()).insertRecords(anyCollectionOf(LockConfiguration.class));
+    }
+
+    @Test
+    public void lockAllShouldNotUpdateIfUpsertFailed() {
+        List<LockConfiguration> configurations = Arrays.asList(LOCK_CONFIGURATION, LOCK_CONFIGURATION2);
+        when(storageAccessor.supportsUpsert()).thenReturn(true);
+        when(storageAccessor.insertRecords(configurations)).thenReturn(Collections.singleton("name2"));
+
+        assertThat(lockProvider.lockAll(configurations).keySet()).containsExactly("name2");
+        verify(storageAccessor, never()).updateRecords(anyCollectionOf(LockConfiguration.class));
+    }
+
+    @Test
+    public void shouldNotTryToObtainLockKnownToBeHeld() {
+        lockProvider.enableHeldLockCache(Duration.ofSeconds(1));
+        when(storageAccessor.insertRecord(LOCK_CONFIGURATION)).thenReturn(false);
+        when(storageAccessor.updateRecord(LOCK_CONFIGURATION)).thenReturn(false);
+        when(storageAccessor.getLockUntil("name")).thenReturn(Optional.of(Instant.now().plus(5, ChronoUnit.MINUTES)));
+
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+        assertThat(lockProvider.lockAll(Collections.singletonList(LOCK_CONFIGURATION))).isEmpty();
+
+        verify(storageAccessor, times(1)).updateRecord(LOCK_CONFIGURATION);
+        verify(storageAccessor, times(1)).getLockUntil("name");
+        verify(storageAccessor, never()).updateRecords(anyCollectionOf(LockConfiguration.class));
+    }
+
+    @Test
+    public void lockAllShouldNotReadLockUntilOfRefusedLocks() {
+        lockProvider.enableHeldLockCache(Duration.ofSeconds(1));
+        List<LockConfiguration> configurations = Arrays.asList(LOCK_CONFIGURATION, LOCK_CONFIGURATION2);
+
+        assertThat(lockProvider.lockAll(configurations)).isEmpty();
+        assertThat(lockProvider.lockAll(configurations)).isEmpty();
+
+        verify(storageAccessor, times(2)).updateRecords(configurations);
+        verify(storageAccessor, never()).getLockUntil(anyString());
+    }
+
+    @Test
+    public void shouldTryAgainIfLockIsAboutToExpire() {
+        lockProvider.enableHeldLockCache(Duration.ofSeconds(10));
+        when(storageAccessor.insertRecord(LOCK_CONFIGURATION)).thenReturn(false);
+        when(storageAccessor.updateRecord(LOCK_CONFIGURATION)).thenReturn(false);
+        when(storageAccessor.getLockUntil("name")).thenReturn(Optional.of(Instant.now().plusSeconds(5)));
+
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+
+        verify(storageAccessor, times(2)).updateRecord(LOCK_CONFIGURATION);
+    }
+
+    @Test
+    public void heldLockCacheShouldBeDisabledByDefault() {
+        when(storageAccessor.insertRecord(LOCK_CONFIGURATION)).thenReturn(false);
+        when(storageAccessor.updateRecord(LOCK_CONFIGURATION)).thenReturn(false);
+
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+
+        verify(storageAccessor, times(2)).updateRecord(LOCK_CONFIGURATION);
+        verify(storageAccessor, never()).getLockUntil("name");
+    }
+
     @Test
     public void shouldRethrowExceptionFromInsert() {
         when(storageAccessor.insertRecord(LOCK_CONFIGURATION)).thenThrow(LOCK_EXCEPTION);
@@ -93,4 +210,199 @@ public class StorageBasedLockProviderTest {
         });
         assertThat(thrown).isSameAs(LOCK_EXCEPTION);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldFallBackToSingleOperationsWithPlainStorageAccessor() {
+        StorageAccessor plainAccessor = mock(StorageAccessor.class);
+        when(plainAccessor.insertRecord(any(LockConfiguration.class))).thenReturn(true);
+        StorageBasedLockProvider provider = new StorageBasedLockProvider(plainAccessor);
+
+        assertThat(provider.lockAll(Arrays.asList(LOCK_CONFIGURATION, LOCK_CONFIGURATION2)).keySet()).containsExactly("name", "name2");
+        assertThat(provider.getLockUntil("name").isPresent()).isFalse();
+        verify(plainAccessor).insertRecord(LOCK_CONFIGURATION);
+        verify(plainAccessor).insertRecord(LOCK_CONFIGURATION2);
+    }
+
+    @Test
+    public void shouldRenewLeasesOfHeldLocksInOneBatch() {
+        lockProvider.enableLeaseRenewal(scheduler, Duration.ofHours(1), Duration.ofHours(2));
+        when(storageAccessor.insertRecord(any(LockConfiguration.class))).thenReturn(true);
+        when(storageAccessor.extendRecords(anyCollectionOf(String.class), any(Instant.class), any(Instant.class))).thenReturn(new HashSet<String>(Arrays.asList("name", "name2")));
+        lockProvider.lock(LOCK_CONFIGURATION);
+        lockProvider.lock(LOCK_CONFIGURATION2);
+
+        lockProvider.renewLeases(Duration.ofMinutes(10));
+
+        assertThat(renewedNames()).containsExactly(Arrays.asList("name", "name2"));
+        verify(storageAccessor, never()).extend(any(LockConfiguration.class));
+    }
+
+    @Test
+    public void shouldNotRenewLeaseOfReleasedLock() {
+        lockProvider.enableLeaseRenewal(scheduler, Duration.ofHours(1), Duration.ofHours(2));
+        when(storageAccessor.insertRecord(any(LockConfiguration.class))).thenReturn(true);
+        when(storageAccessor.extendRecords(anyCollectionOf(String.class), any(Instant.class), any(Instant.class))).thenReturn(Collections.singleton("name2"));
+        lockProvider.lock(LOCK_CONFIGURATION).get().unlock();
+        lockProvider.lock(LOCK_CONFIGURATION2);
+
+        lockProvider.renewLeases(Duration.ofMinutes(10));
+
+        assertThat(renewedNames()).containsExactly(Collections.singletonList("name2"));
+    }
+
+    @Test
+    public void shouldStopRenewingLostLease() {
+        lockProvider.enableLeaseRenewal(scheduler, Duration.ofHours(1), Duration.ofHours(2));
+        when(storageAccessor.insertRecord(any(LockConfiguration.class))).thenReturn(true);
+        when(storageAccessor.extendRecords(anyCollectionOf(String.class), any(Instant.class), any(Instant.class))).thenReturn(Collections.singleton("name2"));
+        lockProvider.lock(LOCK_CONFIGURATION);
+        lockProvider.lock(LOCK_CONFIGURATION2);
+
+        lockProvider.renewLeases(Duration.ofMinutes(10));
+        lockProvider.renewLeases(Duration.ofMinutes(10));
+
+        assertThat(renewedNames()).containsExactly(Arrays.asList("name", "name2"), Collections.singletonList("name2"));
+    }
+
+    @Test
+    public void shouldRenewOnlyLeasesWithLockUntilOfPreviousRenewal() {
+        lockProvider.enableLeaseRenewal(scheduler, Duration.ofHours(1), Duration.ofHours(2));
+        when(storageAccessor.insertRecord(any(LockConfiguration.class))).thenReturn(true);
+        when(storageAccessor.extendRecords(anyCollectionOf(String.class), any(Instant.class), any(Instant.class))).thenReturn(Collections.singleton("name"));
+        lockProvider.lock(LOCK_CONFIGURATION);
+
+        lockProvider.renewLeases(Duration.ofMinutes(10));
+        lockProvider.renewLeases(Duration.ofMinutes(10));
+
+        ArgumentCaptor<Instant> leaseUntil = ArgumentCaptor.forClass(Instant.class);
+        ArgumentCaptor<Instant> lockUntil = ArgumentCaptor.forClass(Instant.class);
+        verify(storageAccessor, times(2)).extendRecords(anyCollectionOf(String.class), leaseUntil.capture(), lockUntil.capture());
+        assertThat(leaseUntil.getAllValues()).containsExactly(LOCK_AT_MOST_UNTIL, lockUntil.getAllValues().get(0));
+    }
+
+    @Test
+    public void leaseRenewalShouldBeDisabledByDefault() {
+        when(storageAccessor.insertRecord(any(LockConfiguration.class))).thenReturn(true);
+        lockProvider.lock(LOCK_CONFIGURATION);
+
+        lockProvider.renewLeases(Duration.ofMinutes(10));
+
+        verify(storageAccessor, never()).extendRecords(anyCollectionOf(String.class), any(Instant.class), any(Instant.class));
+    }
+
+    @Test
+    public void shouldNotInsertPreloadedRecords() {
+        when(storageAccessor.createRecords(anyCollectionOf(String.class))).thenReturn(Collections.singleton("name"));
+        when(storageAccessor.updateRecord(LOCK_CONFIGURATION)).thenReturn(true);
+        when(storageAccessor.insertRecord(LOCK_CONFIGURATION2)).thenReturn(true);
+        lockProvider.preloadLockRecords(Arrays.asList("name", "name2"));
+
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isTrue();
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION2).isPresent()).isTrue();
+
+        verify(storageAccessor, never()).insertRecord(LOCK_CONFIGURATION);
+        verify(storageAccessor).insertRecord(LOCK_CONFIGURATION2);
+    }
+
+    @Test
+    public void shouldPreloadKnownLockRecordsOnFirstLockAttemptOnly() {
+        when(storageAccessor.createRecords(anyCollectionOf(String.class))).thenReturn(new HashSet<String>(Arrays.asList("name", "name2")));
+        when(storageAccessor.updateRecord(any(LockConfiguration.class))).thenReturn(true);
+        when(storageAccessor.updateRecords(anyCollectionOf(LockConfiguration.class))).thenReturn(Collections.singleton("name2"));
+        lockProvider.setKnownLockNames(Arrays.asList("name", "name2"));
+        verify(storageAccessor, never()).createRecords(anyCollectionOf(String.class));
+
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isTrue();
+        assertThat(lockProvider.lockAll(Collections.singletonList(LOCK_CONFIGURATION2)).keySet()).containsExactly("name2");
+
+        verify(storageAccessor, times(1)).createRecords(Arrays.asList("name", "name2"));
+        verify(storageAccessor, never()).insertRecord(any(LockConfiguration.class));
+        verify(storageAccessor, never()).insertRecords(anyCollectionOf(LockConfiguration.class));
+    }
+
+    @Test
+    public void shouldCreateRecordsOnLockAttemptIfPreloadFails() {
+        when(storageAccessor.createRecords(anyCollectionOf(String.class))).thenThrow(LOCK_EXCEPTION);
+        when(storageAccessor.insertRecord(LOCK_CONFIGURATION)).thenReturn(true);
+        lockProvider.setKnownLockNames(Collections.singletonList("name"));
+
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isTrue();
+        verify(storageAccessor).insertRecord(LOCK_CONFIGURATION);
+    }
+
+    @Test
+    public void shouldDeleteStaleRecordsInBatchesAndForgetThem() {
+        when(storageAccessor.insertRecord(LOCK_CONFIGURATION)).thenReturn(true);
+        when(storageAccessor.deleteExpiredRecords(any(Instant.class), eq(2)))
+            .thenReturn(new HashSet<String>(Arrays.asList("name", "other")), Collections.singleton("another"));
+        lockProvider.lock(LOCK_CONFIGURATION);
+
+        assertThat(lockProvider.deleteStaleRecords(Duration.ofDays(7), 2)).isEqualTo(3);
+        verify(storageAccessor, times(2)).deleteExpiredRecords(any(Instant.class), eq(2));
+
+        // the record has to be created again
+        lockProvider.lock(LOCK_CONFIGURATION);
+        verify(storageAccessor, times(2)).insertRecord(LOCK_CONFIGURATION);
+    }
+
+    @Test
+    public void shouldRememberRecordIfUpdateFails() {
+        when(storageAccessor.insertRecord(LOCK_CONFIGURATION)).thenReturn(true);
+        lockProvider.lock(LOCK_CONFIGURATION).get().unlock();
+
+        // held by someone else
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+        verify(storageAccessor, times(1)).insertRecord(LOCK_CONFIGURATION);
+        verify(storageAccessor, times(2)).updateRecord(LOCK_CONFIGURATION);
+        verify(storageAccessor, never()).getLockUntil("name");
+    }
+
+    @Test
+    public void shouldForgetDeletedRecordIfUpdateFailsWhenCleanupIsEnabled() {
+        lockProvider.enableStaleRecordCleanup(scheduler, Duration.ofHours(1), Duration.ofDays(7), 10);
+        when(storageAccessor.insertRecord(LOCK_CONFIGURATION)).thenReturn(true);
+        lockProvider.lock(LOCK_CONFIGURATION).get().unlock();
+
+        // held by someone else
+        when(storageAccessor.getLockUntil("name")).thenReturn(Optional.of(LOCK_AT_MOST_UNTIL));
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+
+        // deleted by another node
+        when(storageAccessor.getLockUntil("name")).thenReturn(Optional.<Instant>empty());
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isFalse();
+        assertThat(lockProvider.lock(LOCK_CONFIGURATION).isPresent()).isTrue();
+        verify(storageAccessor, times(2)).insertRecord(LOCK_CONFIGURATION);
+        verify(storageAccessor, times(2)).updateRecord(LOCK_CONFIGURATION);
+        lockProvider.disableStaleRecordCleanup();
+    }
+
+    @Test
+    public void shouldLimitLockRecordCacheWhenCleanupIsEnabled() throws InterruptedException {
+        lockProvider.enableStaleRecordCleanup(scheduler, Duration.ofHours(1), Duration.ofMillis(100), 10);
+        when(storageAccessor.insertRecord(LOCK_CONFIGURATION)).thenReturn(true);
+        lockProvider.lock(LOCK_CONFIGURATION);
+
+        // the record might have been deleted by another node
+        Thread.sleep(100);
+        lockProvider.lock(LOCK_CONFIGURATION);
+        verify(storageAccessor, times(2)).insertRecord(LOCK_CONFIGURATION);
+        lockProvider.disableStaleRecordCleanup();
+    }
+
+    /**
+     * Sorted names of each renewal.
+     */
+    @SuppressWarnings("unchecked")
+    private List<List<String>> renewedNames() {
+        ArgumentCaptor<Collection> names = ArgumentCaptor.forClass(Collection.class);
+        verify(storageAccessor, atLeastOnce()).extendRecords(names.capture(), any(Instant.class), any(Instant.class));
+        List<List<String>> result = new ArrayList<List<String>>();
+        for (Collection<String> renewal : names.getAllValues()) {
+            List<String> sorted = new ArrayList<String>(renewal);
+            Collections.sort(sorted);
+            result.add(sorted);
+        }
+        return result;
+    }
+}
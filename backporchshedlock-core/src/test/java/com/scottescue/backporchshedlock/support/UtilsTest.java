@@ -16,8 +16,10 @@
 package com.scottescue.backporchshedlock.support;
 
 import org.junit.Test;
+import org.threeten.bp.Duration;
 import org.threeten.bp.Instant;
 
+import static com.scottescue.backporchshedlock.support.Utils.parseDuration;
 import static com.scottescue.backporchshedlock.support.Utils.toIsoString;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -30,4 +32,20 @@ public class UtilsTest {
         assertThat(toIsoString(Instant.parse("2018-12-07T12:30:37.81Z"))).isEqualTo("2018-12-07T12:30:37.810Z");
         assertThat(toIsoString(Instant.parse("2018-12-07T12:30:37.811Z"))).isEqualTo("2018-12-07T12:30:37.811Z");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testParseDuration() {
+        assertThat(parseDuration("PT30S")).isEqualTo(Duration.ofSeconds(30));
+        assertThat(parseDuration("100")).isEqualTo(Duration.ofMillis(100));
+        assertThat(parseDuration("100ms")).isEqualTo(Duration.ofMillis(100));
+        assertThat(parseDuration("10s")).isEqualTo(Duration.ofSeconds(10));
+        assertThat(parseDuration("5m")).isEqualTo(Duration.ofMinutes(5));
+        assertThat(parseDuration("2H")).isEqualTo(Duration.ofHours(2));
+        assertThat(parseDuration("1d")).isEqualTo(Duration.ofDays(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidDuration() {
+        parseDuration("10 minutes");
+    }
+}
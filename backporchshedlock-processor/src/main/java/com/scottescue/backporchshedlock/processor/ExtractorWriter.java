@@ -0,0 +1,171 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.processor;
+
+import org.threeten.bp.Duration;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the source of the generated {@link com.scottescue.backporchshedlock.core.LockConfigurationExtractor}.
+ * <p>
+ * Java 6 can not switch over strings, so the generated code switches over the hash code of the task class name and
+ * compares the class itself in each case. Durations are static constants.
+ */
+class ExtractorWriter {
+    private final String packageName;
+    private final String simpleName;
+
+    ExtractorWriter(String qualifiedName) {
+        int lastDot = qualifiedName.lastIndexOf('.');
+        this.packageName = lastDot < 0 ? "" : qualifiedName.substring(0, lastDot);
+        this.simpleName = qualifiedName.substring(lastDot + 1);
+    }
+
+    void write(Collection<TaskDefinition> tasks, Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        if (!packageName.isEmpty()) {
+            out.println("package " + packageName + ";");
+            out.println();
+        }
+        out.println("import com.scottescue.backporchshedlock.Optional;");
+        out.println("import com.scottescue.backporchshedlock.core.ClockProvider;");
+        out.println("import com.scottescue.backporchshedlock.core.LockConfiguration;");
+        out.println("import com.scottescue.backporchshedlock.core.LockConfigurationExtractor;");
+        out.println("import org.threeten.bp.Duration;");
+        out.println("import org.threeten.bp.Instant;");
+        out.println();
+        out.println("/**");
+        out.println(" * Lock configurations of the tasks annotated by {@code @SchedulerLock}.");
+        out.println(" * Generated by " + SchedulerLockProcessor.class.getName() + ", do not edit.");
+        out.println(" */");
+        out.println("public final class " + simpleName + " implements LockConfigurationExtractor {");
+
+        List<String> lockAtMostFor = new ArrayList<String>();
+        List<String> lockAtLeastFor = new ArrayList<String>();
+        int index = 0;
+        for (TaskDefinition task : tasks) {
+            lockAtMostFor.add(constant(out, "LOCK_AT_MOST_FOR_" + index, task.getLockAtMostFor(), "defaultLockAtMostFor"));
+            lockAtLeastFor.add(constant(out, "LOCK_AT_LEAST_FOR_" + index, task.getLockAtLeastFor(), "defaultLockAtLeastFor"));
+            index++;
+        }
+        if (index > 0) {
+            out.println();
+        }
+
+        out.println("    private final Duration defaultLockAtMostFor;");
+        out.println("    private final Duration defaultLockAtLeastFor;");
+        out.println();
+        out.println("    public " + simpleName + "(Duration defaultLockAtMostFor, Duration defaultLockAtLeastFor) {");
+        out.println("        if (defaultLockAtMostFor == null || defaultLockAtLeastFor == null) {");
+        out.println("            throw new NullPointerException(\"Default durations can not be null\");");
+        out.println("        }");
+        out.println("        this.defaultLockAtMostFor = defaultLockAtMostFor;");
+        out.println("        this.defaultLockAtLeastFor = defaultLockAtLeastFor;");
+        out.println("    }");
+        out.println();
+        out.println("    @Override");
+        out.println("    public Optional<LockConfiguration> getLockConfiguration(Runnable task) {");
+        if (index > 0) {
+            writeSwitch(out, tasks, lockAtMostFor, lockAtLeastFor);
+        }
+        out.println("        return Optional.empty();");
+        out.println("    }");
+        out.println();
+        out.println("    private static Optional<LockConfiguration> lock(String name, Duration lockAtMostFor, Duration lockAtLeastFor) {");
+        out.println("        Instant now = ClockProvider.now();");
+        out.println("        return Optional.of(new LockConfiguration(name, now.plus(lockAtMostFor), now.plus(lockAtLeastFor)));");
+        out.println("    }");
+        out.println("}");
+        out.flush();
+    }
+
+    private void writeSwitch(PrintWriter out, Collection<TaskDefinition> tasks, List<String> lockAtMostFor, List<String> lockAtLeastFor) {
+        // tasks whose class names have the same hash code share the case
+        Map<Integer, List<Integer>> cases = new TreeMap<Integer, List<Integer>>();
+        List<TaskDefinition> taskList = new ArrayList<TaskDefinition>(tasks);
+        for (int i = 0; i < taskList.size(); i++) {
+            int hash = taskList.get(i).getBinaryName().hashCode();
+            List<Integer> sameHash = cases.get(hash);
+            if (sameHash == null) {
+                sameHash = new ArrayList<Integer>();
+                cases.put(hash, sameHash);
+            }
+            sameHash.add(i);
+        }
+
+        out.println("        Class<?> taskClass = task.getClass();");
+        out.println("        switch (taskClass.getName().hashCode()) {");
+        for (Map.Entry<Integer, List<Integer>> entry : cases.entrySet()) {
+            out.println("            case " + entry.getKey() + ":");
+            for (int i : entry.getValue()) {
+                TaskDefinition task = taskList.get(i);
+                out.println("                if (taskClass == " + task.getCanonicalName() + ".class) {");
+                out.println("                    return lock(\"" + escape(task.getLockName()) + "\", "
+                    + lockAtMostFor.get(i) + ", " + lockAtLeastFor.get(i) + ");");
+                out.println("                }");
+            }
+            out.println("                break;");
+        }
+        out.println("            default:");
+        out.println("                break;");
+        out.println("        }");
+    }
+
+    /**
+     * Writes the constant for the duration if it is known at compile time.
+     *
+     * @return expression for the duration
+     */
+    private static String constant(PrintWriter out, String name, Duration duration, String defaultExpression) {
+        if (duration == null) {
+            return defaultExpression;
+        }
+        out.println("    private static final Duration " + name + " = Duration.ofSeconds("
+            + duration.getSeconds() + "L, " + duration.getNano() + "L);");
+        return name;
+    }
+
+    private static String escape(String value) {
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c == '\n') {
+                result.append("\\n");
+            } else if (c == '\r') {
+                result.append("\\r");
+            } else if (c == '\t') {
+                result.append("\\t");
+            } else if (c < 0x20 || c == 0x7f) {
+                // javac translates unicode escapes before tokenizing, an escaped line feed would end the string literal
+                result.append(String.format("\\%03o", (int) c));
+            } else if (c > 0x7f) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
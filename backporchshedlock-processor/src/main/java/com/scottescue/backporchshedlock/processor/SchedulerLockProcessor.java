@@ -0,0 +1,239 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.processor;
+
+import com.scottescue.backporchshedlock.core.SchedulerLock;
+import com.scottescue.backporchshedlock.support.Utils;
+import org.threeten.bp.Duration;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a {@link com.scottescue.backporchshedlock.core.LockConfigurationExtractor} for the tasks annotated by
+ * {@link SchedulerLock}, so the lock configuration is known without reflection at runtime. Invalid annotations fail
+ * the compilation.
+ * <p>
+ * The generated class is named by the {@value #EXTRACTOR_CLASS_OPTION} option and defaults to
+ * {@value #DEFAULT_EXTRACTOR_CLASS}. It only knows concrete classes compiled together with it, tasks from other
+ * modules or subclasses inheriting an annotated {@code run()} method need
+ * {@link com.scottescue.backporchshedlock.core.AnnotationLockConfigurationExtractor}.
+ */
+@SupportedAnnotationTypes("com.scottescue.backporchshedlock.core.SchedulerLock")
+@SupportedOptions(SchedulerLockProcessor.EXTRACTOR_CLASS_OPTION)
+public class SchedulerLockProcessor extends AbstractProcessor {
+    public static final String EXTRACTOR_CLASS_OPTION = "backporchshedlock.extractorClass";
+    public static final String DEFAULT_EXTRACTOR_CLASS = "com.scottescue.backporchshedlock.generated.GeneratedLockConfigurationExtractor";
+
+    private final Map<String, TaskDefinition> tasks = new LinkedHashMap<String, TaskDefinition>();
+    private final List<Element> originatingElements = new ArrayList<Element>();
+    private boolean written;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<? extends Element> elements = roundEnv.getElementsAnnotatedWith(SchedulerLock.class);
+        if (elements.isEmpty()) {
+            return false;
+        }
+        if (written) {
+            for (Element element : elements) {
+                error(element, "Task generated by another annotation processor can not be added to " + getExtractorClass()
+                    + ", use AnnotationLockConfigurationExtractor.");
+            }
+            return false;
+        }
+
+        boolean valid = true;
+        for (Element element : elements) {
+            valid &= addTask(element);
+        }
+        // generating the extractor in the same round keeps it out of the last round, which javac warns about
+        if (valid) {
+            writeExtractor();
+        }
+        written = true;
+        return false;
+    }
+
+    private boolean addTask(Element element) {
+        TypeElement taskType;
+        if (element.getKind() == ElementKind.METHOD) {
+            ExecutableElement method = (ExecutableElement) element;
+            if (!method.getSimpleName().contentEquals("run") || !method.getParameters().isEmpty()) {
+                error(element, "@SchedulerLock can only be placed on the run() method of a Runnable.");
+                return false;
+            }
+            taskType = (TypeElement) method.getEnclosingElement();
+        } else {
+            taskType = (TypeElement) element;
+        }
+
+        if (!isRunnable(taskType)) {
+            error(element, "@SchedulerLock can only be placed on a Runnable.");
+            return false;
+        }
+        if (taskType.getModifiers().contains(Modifier.ABSTRACT) || taskType.getKind() == ElementKind.INTERFACE) {
+            if (element.getKind() == ElementKind.METHOD) {
+                // subclasses annotated on the class level are reported thanks to @Inherited, these are not
+                warning(element, "Subclasses of " + taskType.getQualifiedName() + " not overriding run() are not known to "
+                    + getExtractorClass() + ".");
+            }
+            return true;
+        }
+        if (!isAccessible(element, taskType)) {
+            return false;
+        }
+
+        String binaryName = processingEnv.getElementUtils().getBinaryName(taskType).toString();
+        if (tasks.containsKey(binaryName)) {
+            return true;
+        }
+
+        Element annotated = findAnnotatedRunMethod(taskType);
+        if (annotated == null) {
+            annotated = taskType;
+        }
+        SchedulerLock annotation = annotated.getAnnotation(SchedulerLock.class);
+        if (annotation.name().isEmpty()) {
+            error(element, "Lock name can not be empty.");
+            return false;
+        }
+        try {
+            Duration lockAtMostFor = parseDuration(annotation.lockAtMostFor());
+            Duration lockAtLeastFor = parseDuration(annotation.lockAtLeastFor());
+            if (lockAtMostFor != null && lockAtLeastFor != null && lockAtLeastFor.compareTo(lockAtMostFor) > 0) {
+                error(element, "lockAtLeastFor is longer than lockAtMostFor for lock '" + annotation.name() + "'.");
+                return false;
+            }
+            tasks.put(binaryName, new TaskDefinition(binaryName, taskType.getQualifiedName().toString(), annotation.name(),
+                lockAtMostFor, lockAtLeastFor));
+            originatingElements.add(taskType);
+            return true;
+        } catch (IllegalArgumentException e) {
+            error(element, "Invalid duration for lock '" + annotation.name() + "'. " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean isRunnable(TypeElement taskType) {
+        TypeMirror runnable = processingEnv.getElementUtils().getTypeElement(Runnable.class.getName()).asType();
+        return processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(taskType.asType()), runnable);
+    }
+
+    /**
+     * The generated extractor refers to the task by a class literal.
+     */
+    private boolean isAccessible(Element element, TypeElement taskType) {
+        if (taskType.getNestingKind() == NestingKind.ANONYMOUS || taskType.getNestingKind() == NestingKind.LOCAL) {
+            error(element, "Anonymous and local classes can not be referenced by " + getExtractorClass()
+                + ", use AnnotationLockConfigurationExtractor.");
+            return false;
+        }
+        String extractorPackage = getPackageName(getExtractorClass());
+        String taskPackage = processingEnv.getElementUtils().getPackageOf(taskType).getQualifiedName().toString();
+        Element type = taskType;
+        while (type instanceof TypeElement) {
+            Set<Modifier> modifiers = type.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE) || (!modifiers.contains(Modifier.PUBLIC) && !taskPackage.equals(extractorPackage))) {
+                error(element, ((TypeElement) type).getQualifiedName() + " is not accessible from " + getExtractorClass()
+                    + ". Make it public or generate the extractor into its package using -A" + EXTRACTOR_CLASS_OPTION + ".");
+                return false;
+            }
+            type = type.getEnclosingElement();
+        }
+        return true;
+    }
+
+    /**
+     * Finds the run() method the task executes and returns it if it is annotated.
+     */
+    private ExecutableElement findAnnotatedRunMethod(TypeElement taskType) {
+        TypeElement type = taskType;
+        while (type != null) {
+            for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+                if (method.getSimpleName().contentEquals("run") && method.getParameters().isEmpty()) {
+                    return method.getAnnotation(SchedulerLock.class) != null ? method : null;
+                }
+            }
+            Element superclass = processingEnv.getTypeUtils().asElement(type.getSuperclass());
+            type = superclass instanceof TypeElement ? (TypeElement) superclass : null;
+        }
+        return null;
+    }
+
+    private void writeExtractor() {
+        String extractorClass = getExtractorClass();
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(extractorClass,
+                originatingElements.toArray(new Element[originatingElements.size()]));
+            Writer writer = file.openWriter();
+            try {
+                new ExtractorWriter(extractorClass).write(tasks.values(), writer);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Can not generate " + extractorClass + ": " + e);
+        }
+    }
+
+    private String getExtractorClass() {
+        String extractorClass = processingEnv.getOptions().get(EXTRACTOR_CLASS_OPTION);
+        return extractorClass != null ? extractorClass : DEFAULT_EXTRACTOR_CLASS;
+    }
+
+    private static Duration parseDuration(String value) {
+        return value.isEmpty() ? null : Utils.parseDuration(value);
+    }
+
+    private static String getPackageName(String className) {
+        int lastDot = className.lastIndexOf('.');
+        return lastDot < 0 ? "" : className.substring(0, lastDot);
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private void warning(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, message, element);
+    }
+}
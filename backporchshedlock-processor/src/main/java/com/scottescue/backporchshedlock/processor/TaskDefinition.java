@@ -0,0 +1,63 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.processor;
+
+import org.threeten.bp.Duration;
+
+/**
+ * Annotated task known at compile time. Null durations mean the extractor default is used.
+ */
+class TaskDefinition {
+    private final String binaryName;
+    private final String canonicalName;
+    private final String lockName;
+    private final Duration lockAtMostFor;
+    private final Duration lockAtLeastFor;
+
+    TaskDefinition(String binaryName, String canonicalName, String lockName, Duration lockAtMostFor, Duration lockAtLeastFor) {
+        this.binaryName = binaryName;
+        this.canonicalName = canonicalName;
+        this.lockName = lockName;
+        this.lockAtMostFor = lockAtMostFor;
+        this.lockAtLeastFor = lockAtLeastFor;
+    }
+
+    /**
+     * Name returned by {@link Class#getName()}.
+     */
+    String getBinaryName() {
+        return binaryName;
+    }
+
+    /**
+     * Name usable in a class literal.
+     */
+    String getCanonicalName() {
+        return canonicalName;
+    }
+
+    String getLockName() {
+        return lockName;
+    }
+
+    Duration getLockAtMostFor() {
+        return lockAtMostFor;
+    }
+
+    Duration getLockAtLeastFor() {
+        return lockAtLeastFor;
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.processor;
+
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.core.ClockProvider;
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import com.scottescue.backporchshedlock.core.LockConfigurationExtractor;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.threeten.bp.Clock;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneOffset;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SchedulerLockProcessorTest {
+    private static final Instant NOW = Instant.parse("2019-01-01T10:00:00Z");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+
+    @After
+    public void resetClock() {
+        ClockProvider.setClock(Clock.systemUTC());
+    }
+
+    @Test
+    public void shouldGenerateExtractorForAnnotatedTasks() throws Exception {
+        ClockProvider.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+        boolean compiled = compile(
+            "package tasks;\n"
+                + "import com.scottescue.backporchshedlock.core.SchedulerLock;\n"
+                + "@SchedulerLock(name = \"class\", lockAtMostFor = \"10s\", lockAtLeastFor = \"PT1S\")\n"
+                + "public class ClassTask implements Runnable {\n"
+                + "    public void run() {}\n"
+                + "    public static class NestedTask implements Runnable {\n"
+                + "        @SchedulerLock(name = \"nested\")\n"
+                + "        public void run() {}\n"
+                + "    }\n"
+                + "}\n",
+            "package tasks;\n"
+                + "public class PlainTask implements Runnable {\n"
+                + "    public void run() {}\n"
+                + "}\n");
+        assertThat(compiled).as(diagnostics.getDiagnostics().toString()).isTrue();
+
+        ClassLoader classLoader = new URLClassLoader(new URL[]{folder.getRoot().toURI().toURL()}, getClass().getClassLoader());
+        LockConfigurationExtractor extractor = (LockConfigurationExtractor) classLoader.loadClass(SchedulerLockProcessor.DEFAULT_EXTRACTOR_CLASS)
+            .getConstructor(Duration.class, Duration.class)
+            .newInstance(Duration.ofMinutes(30), Duration.ZERO);
+
+        LockConfiguration classLock = extractor.getLockConfiguration(newTask(classLoader, "tasks.ClassTask")).get();
+        assertThat(classLock.getName()).isEqualTo("class");
+        assertThat(classLock.getLockAtMostUntil()).isEqualTo(NOW.plusSeconds(10));
+        assertThat(classLock.getLockAtLeastUntil()).isEqualTo(NOW.plusSeconds(1));
+
+        LockConfiguration nestedLock = extractor.getLockConfiguration(newTask(classLoader, "tasks.ClassTask$NestedTask")).get();
+        assertThat(nestedLock.getName()).isEqualTo("nested");
+        assertThat(nestedLock.getLockAtMostUntil()).isEqualTo(NOW.plus(Duration.ofMinutes(30)));
+        assertThat(nestedLock.getLockAtLeastUntil()).isEqualTo(NOW);
+
+        assertThat(extractor.getLockConfiguration(newTask(classLoader, "tasks.PlainTask"))).isEqualTo(Optional.<LockConfiguration>empty());
+    }
+
+    @Test
+    public void shouldEscapeControlCharactersInLockNames() throws Exception {
+        boolean compiled = compile(
+            "package tasks;\n"
+                + "import com.scottescue.backporchshedlock.core.SchedulerLock;\n"
+                + "@SchedulerLock(name = \"a\\nb\\rc\\td\\u0001e\\\"f\\u00e9\")\n"
+                + "public class ControlCharacterTask implements Runnable {\n"
+                + "    public void run() {}\n"
+                + "}\n");
+        assertThat(compiled).as(diagnostics.getDiagnostics().toString()).isTrue();
+
+        ClassLoader classLoader = new URLClassLoader(new URL[]{folder.getRoot().toURI().toURL()}, getClass().getClassLoader());
+        LockConfigurationExtractor extractor = (LockConfigurationExtractor) classLoader.loadClass(SchedulerLockProcessor.DEFAULT_EXTRACTOR_CLASS)
+            .getConstructor(Duration.class, Duration.class)
+            .newInstance(Duration.ofMinutes(30), Duration.ZERO);
+
+        LockConfiguration lock = extractor.getLockConfiguration(newTask(classLoader, "tasks.ControlCharacterTask")).get();
+        assertThat(lock.getName()).isEqualTo("a\nb\rc\td\u0001e\"f\u00e9");
+    }
+
+    @Test
+    public void shouldFailOnInvalidDuration() throws IOException {
+        boolean compiled = compile(
+            "package tasks;\n"
+                + "import com.scottescue.backporchshedlock.core.SchedulerLock;\n"
+                + "@SchedulerLock(name = \"invalid\", lockAtMostFor = \"ten seconds\")\n"
+                + "public class InvalidTask implements Runnable {\n"
+                + "    public void run() {}\n"
+                + "}\n");
+
+        assertThat(compiled).isFalse();
+        assertThat(errors()).contains("Invalid duration for lock 'invalid'.");
+    }
+
+    @Test
+    public void shouldFailIfLockAtLeastForIsLongerThanLockAtMostFor() throws IOException {
+        boolean compiled = compile(
+            "package tasks;\n"
+                + "import com.scottescue.backporchshedlock.core.SchedulerLock;\n"
+                + "@SchedulerLock(name = \"inverted\", lockAtMostFor = \"1s\", lockAtLeastFor = \"1m\")\n"
+                + "public class InvertedTask implements Runnable {\n"
+                + "    public void run() {}\n"
+                + "}\n");
+
+        assertThat(compiled).isFalse();
+        assertThat(errors()).contains("lockAtLeastFor is longer than lockAtMostFor for lock 'inverted'.");
+    }
+
+    @Test
+    public void shouldFailOnInaccessibleTask() throws IOException {
+        boolean compiled = compile(
+            "package tasks;\n"
+                + "import com.scottescue.backporchshedlock.core.SchedulerLock;\n"
+                + "public class Outer {\n"
+                + "    @SchedulerLock(name = \"private\")\n"
+                + "    private static class PrivateTask implements Runnable {\n"
+                + "        public void run() {}\n"
+                + "    }\n"
+                + "}\n");
+
+        assertThat(compiled).isFalse();
+        assertThat(errors()).contains("tasks.Outer.PrivateTask is not accessible");
+    }
+
+    private boolean compile(String... sources) throws IOException {
+        List<File> files = new ArrayList<File>();
+        for (String source : sources) {
+            String className = source.substring(source.indexOf("public class ") + "public class ".length()).split("\\s")[0];
+            File file = new File(folder.getRoot(), "tasks/" + className + ".java");
+            file.getParentFile().mkdirs();
+            FileWriter writer = new FileWriter(file);
+            try {
+                writer.write(source);
+            } finally {
+                writer.close();
+            }
+            files.add(file);
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        try {
+            String classPath = location(LockConfiguration.class) + File.pathSeparator + location(Duration.class);
+            List<String> options = Arrays.asList("-classpath", classPath, "-d", folder.getRoot().getPath(), "-s", folder.getRoot().getPath());
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null,
+                fileManager.getJavaFileObjectsFromFiles(files));
+            task.setProcessors(Collections.singletonList(new SchedulerLockProcessor()));
+            return task.call();
+        } finally {
+            fileManager.close();
+        }
+    }
+
+    private String errors() {
+        StringBuilder errors = new StringBuilder();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.append(diagnostic.getMessage(null)).append('\n');
+            }
+        }
+        return errors.toString();
+    }
+
+    private static String location(Class<?> type) {
+        return new File(type.getProtectionDomain().getCodeSource().getLocation().getPath()).getPath();
+    }
+
+    private static Runnable newTask(ClassLoader classLoader, String className) throws Exception {
+        return (Runnable) classLoader.loadClass(className).newInstance();
+    }
+}
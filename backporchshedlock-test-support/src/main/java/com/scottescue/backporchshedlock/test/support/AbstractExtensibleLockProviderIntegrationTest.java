@@ -15,12 +15,16 @@
  */
 package com.scottescue.backporchshedlock.test.support;
 
+import com.scottescue.backporchshedlock.core.DefaultLockingTaskExecutor;
 import com.scottescue.backporchshedlock.core.SimpleLock;
 import com.scottescue.backporchshedlock.Optional;
 import org.junit.Test;
 import org.threeten.bp.Duration;
 import org.threeten.bp.Instant;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
 
@@ -43,6 +47,25 @@ public abstract class AbstractExtensibleLockProviderIntegrationTest extends Abst
         assertUnlocked(LOCK_NAME1);
     }
 
+    @Test
+    public void shouldKeepLockAliveWhileTaskIsRunning() {
+        final Duration lease = Duration.ofMillis(500);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            new DefaultLockingTaskExecutor(getLockProvider(), scheduler).executeWithLock(new Runnable() {
+                @Override
+                public void run() {
+                    // the original lease would have expired several times
+                    sleepFor(lease.multipliedBy(3));
+                    assertLocked(LOCK_NAME1);
+                }
+            }, lockConfig(LOCK_NAME1, lease, Duration.ZERO));
+        } finally {
+            scheduler.shutdownNow();
+        }
+        assertUnlocked(LOCK_NAME1);
+    }
+
     @Test
     public void shouldNotBeAbleToExtendUnlockedLock() {
         Duration originalLockDuration = Duration.ofMillis(1000);
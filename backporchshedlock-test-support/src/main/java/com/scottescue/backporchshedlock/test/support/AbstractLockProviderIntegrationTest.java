@@ -15,15 +15,21 @@
  */
 package com.scottescue.backporchshedlock.test.support;
 
+import com.scottescue.backporchshedlock.core.DefaultLockingTaskExecutor;
+import com.scottescue.backporchshedlock.core.LockBasedSemaphoreProvider;
 import com.scottescue.backporchshedlock.core.LockConfiguration;
 import com.scottescue.backporchshedlock.core.LockProvider;
+import com.scottescue.backporchshedlock.core.SemaphoreProvider;
 import com.scottescue.backporchshedlock.core.SimpleLock;
 import com.scottescue.backporchshedlock.Optional;
 import org.junit.Test;
 import org.threeten.bp.Duration;
 import org.threeten.bp.Instant;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.lang.Thread.sleep;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -132,6 +138,64 @@ public abstract class AbstractLockProviderIntegrationTest {
         lock3.get().unlock();
     }
 
+    @Test
+    public void shouldWaitForLock() {
+        Optional<? extends SimpleLock> lock = getLockProvider().lock(lockConfig(LOCK_NAME1, Duration.ofMillis(300), Duration.ZERO));
+        assertThat(lock.isPresent()).isTrue();
+
+        final AtomicBoolean executed = new AtomicBoolean();
+        boolean result = new DefaultLockingTaskExecutor(getLockProvider()).executeWithLock(new Runnable() {
+            @Override
+            public void run() {
+                executed.set(true);
+            }
+        }, lockConfig(LOCK_NAME1), Duration.ofSeconds(10));
+
+        assertThat(result).isTrue();
+        assertThat(executed.get()).isTrue();
+        assertUnlocked(LOCK_NAME1);
+    }
+
+    @Test
+    public void shouldStopWaitingForLock() {
+        Optional<? extends SimpleLock> lock = getLockProvider().lock(lockConfig(LOCK_NAME1));
+        assertThat(lock.isPresent()).isTrue();
+
+        final AtomicBoolean executed = new AtomicBoolean();
+        boolean result = new DefaultLockingTaskExecutor(getLockProvider()).executeWithLock(new Runnable() {
+            @Override
+            public void run() {
+                executed.set(true);
+            }
+        }, lockConfig(LOCK_NAME1), Duration.ofMillis(200));
+
+        assertThat(result).isFalse();
+        assertThat(executed.get()).isFalse();
+        lock.get().unlock();
+    }
+
+    @Test
+    public void shouldLimitSemaphorePermits() {
+        SemaphoreProvider semaphoreProvider = new LockBasedSemaphoreProvider(getLockProvider());
+        List<SimpleLock> permits = new ArrayList<SimpleLock>();
+        for (int i = 0; i < 3; i++) {
+            Optional<SimpleLock> permit = semaphoreProvider.acquire(lockConfig(LOCK_NAME1), 3);
+            assertThat(permit.isPresent()).isTrue();
+            permits.add(permit.get());
+        }
+        for (int i = 0; i < 3; i++) {
+            assertLocked(LockBasedSemaphoreProvider.getPermitName(LOCK_NAME1, i));
+        }
+        assertThat(semaphoreProvider.acquire(lockConfig(LOCK_NAME1), 3).isPresent()).isFalse();
+
+        for (SimpleLock permit : permits) {
+            permit.unlock();
+        }
+        Optional<SimpleLock> permit = semaphoreProvider.acquire(lockConfig(LOCK_NAME1), 3);
+        assertThat(permit.isPresent()).isTrue();
+        permit.get().unlock();
+    }
+
     protected void sleepFor(Duration duration) {
         try {
             sleep(duration.toMillis());
@@ -21,6 +21,9 @@ import com.scottescue.backporchshedlock.support.StorageBasedLockProvider;
 import com.scottescue.backporchshedlock.Optional;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Map;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 public abstract class AbstractStorageBasedLockProviderIntegrationTest extends AbstractExtensibleLockProviderIntegrationTest {
@@ -44,4 +47,29 @@ public abstract class AbstractStorageBasedLockProviderIntegrationTest extends Ab
 
         lock.get().unlock();
     }
+
+    @Test
+    public void shouldLockAllThatAreNotLocked() {
+        StorageBasedLockProvider provider = getLockProvider();
+        Optional<? extends SimpleLock> lock = provider.lock(lockConfig(LOCK_NAME1));
+        assertThat(lock.isPresent()).isTrue();
+
+        // one new record, one locked record
+        Map<String, SimpleLock> locks = provider.lockAll(Arrays.asList(lockConfig(LOCK_NAME1), lockConfig("name2")));
+        assertThat(locks.keySet()).containsExactly("name2");
+        assertLocked("name2");
+
+        lock.get().unlock();
+        locks.get("name2").unlock();
+        assertUnlocked("name2");
+
+        // two existing unlocked records
+        locks = provider.lockAll(Arrays.asList(lockConfig(LOCK_NAME1), lockConfig("name2")));
+        assertThat(locks.keySet()).containsExactly(LOCK_NAME1, "name2");
+        assertLocked(LOCK_NAME1);
+        assertLocked("name2");
+        for (SimpleLock simpleLock : locks.values()) {
+            simpleLock.unlock();
+        }
+    }
 }
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.virtualthreads;
+
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import com.scottescue.backporchshedlock.core.LockConfigurationExtractor;
+import com.scottescue.backporchshedlock.core.LockManager;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@link LockManager} dispatching the tasks to virtual threads. Unlike
+ * {@link com.scottescue.backporchshedlock.core.DefaultLockManager}, {@link #executeWithLock(Runnable)} returns as soon
+ * as the task has been dispatched, exceptions thrown by the task are logged. Use {@link #submit(Runnable)} to wait for
+ * the result.
+ */
+public class VirtualThreadLockManager implements LockManager {
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadLockManager.class);
+
+    private final VirtualThreadLockingTaskExecutor lockingTaskExecutor;
+    private final LockConfigurationExtractor lockConfigurationExtractor;
+
+    public VirtualThreadLockManager(@NotNull VirtualThreadLockingTaskExecutor lockingTaskExecutor, @NotNull LockConfigurationExtractor lockConfigurationExtractor) {
+        this.lockingTaskExecutor = requireNonNull(lockingTaskExecutor);
+        this.lockConfigurationExtractor = requireNonNull(lockConfigurationExtractor);
+    }
+
+    @Override
+    public void executeWithLock(@NotNull Runnable task) {
+        submit(task).whenComplete((executed, throwable) -> {
+            if (throwable != null) {
+                logger.error("Task {} failed", task, throwable);
+            }
+        });
+    }
+
+    /**
+     * Executes the task on a virtual thread, with lock if the task has a lock configuration.
+     *
+     * @return completed with true if the task has been executed, false if the lock has not been obtained, or
+     * exceptionally with the exception thrown by the task
+     */
+    @NotNull
+    public CompletableFuture<Boolean> submit(@NotNull Runnable task) {
+        Optional<LockConfiguration> lockConfig = lockConfigurationExtractor.getLockConfiguration(task);
+        if (!lockConfig.isPresent()) {
+            logger.debug("No lock configuration for {}. Executing without lock.", task);
+            return lockingTaskExecutor.submitWithoutLock(task);
+        }
+        return lockingTaskExecutor.submit(task, lockConfig.get());
+    }
+}
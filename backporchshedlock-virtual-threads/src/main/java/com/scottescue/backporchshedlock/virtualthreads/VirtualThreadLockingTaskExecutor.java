@@ -0,0 +1,132 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.virtualthreads;
+
+import com.scottescue.backporchshedlock.core.DefaultLockingTaskExecutor;
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import com.scottescue.backporchshedlock.core.LockProvider;
+import com.scottescue.backporchshedlock.core.LockingTaskExecutor;
+import org.jetbrains.annotations.NotNull;
+import org.threeten.bp.Duration;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@link LockingTaskExecutor} running locked tasks on virtual threads. The threads block cheaply while the lock is
+ * being obtained or released, so thousands of short locked tasks can be dispatched without growing a platform thread
+ * pool.
+ * <p>
+ * Tasks are executed by {@link DefaultLockingTaskExecutor} on the virtual thread, so the lock is obtained, asserted by
+ * {@link com.scottescue.backporchshedlock.core.LockAssert} and released by the same thread. A submitted task does
+ * not inherit the locks of the thread submitting it, the submitting task may finish and release them before the
+ * submitted one runs. Virtual threads are never reused, so no lock state is left behind.
+ * <p>
+ * {@link #executeWithLock(Runnable, LockConfiguration)} keeps its synchronous contract and runs the task on the calling
+ * thread, use the {@code submit} methods to dispatch tasks.
+ */
+public class VirtualThreadLockingTaskExecutor implements LockingTaskExecutor, AutoCloseable {
+    private final DefaultLockingTaskExecutor delegate;
+    private final ExecutorService executor;
+
+    public VirtualThreadLockingTaskExecutor(@NotNull LockProvider lockProvider) {
+        this(new DefaultLockingTaskExecutor(lockProvider));
+    }
+
+    /**
+     * @param delegate executor obtaining the locks, e.g. one keeping the locks alive
+     */
+    public VirtualThreadLockingTaskExecutor(@NotNull DefaultLockingTaskExecutor delegate) {
+        this.delegate = requireNonNull(delegate);
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("backporchshedlock-", 0).factory());
+    }
+
+    @Override
+    public void executeWithLock(@NotNull Runnable task, @NotNull LockConfiguration lockConfig) {
+        delegate.executeWithLock(task, lockConfig);
+    }
+
+    @Override
+    public void executeWithLock(@NotNull Task task, @NotNull LockConfiguration lockConfig) throws Throwable {
+        delegate.executeWithLock(task, lockConfig);
+    }
+
+    /**
+     * Executes the task on a virtual thread if the lock is not held by someone else.
+     *
+     * @return completed with true if the task has been executed, false if the lock has not been obtained, or
+     * exceptionally with the exception thrown by the task
+     */
+    @NotNull
+    public CompletableFuture<Boolean> submit(@NotNull Runnable task, @NotNull LockConfiguration lockConfig) {
+        return submit(task, lockConfig, Duration.ZERO);
+    }
+
+    /**
+     * Like {@link #submit(Runnable, LockConfiguration)}, but waits for the lock at most {@code maxWait}. Waiting
+     * does not occupy a platform thread.
+     *
+     * @see DefaultLockingTaskExecutor#executeWithLock(Task, LockConfiguration, Duration)
+     */
+    @NotNull
+    public CompletableFuture<Boolean> submit(@NotNull Runnable task, @NotNull LockConfiguration lockConfig, @NotNull Duration maxWait) {
+        requireNonNull(task);
+        return submitTask(task::run, lockConfig, maxWait);
+    }
+
+    /**
+     * Task version of {@link #submit(Runnable, LockConfiguration, Duration)}. Not an overload, lambdas would match
+     * both.
+     */
+    @NotNull
+    public CompletableFuture<Boolean> submitTask(@NotNull Task task, @NotNull LockConfiguration lockConfig, @NotNull Duration maxWait) {
+        requireNonNull(task);
+        requireNonNull(lockConfig);
+        requireNonNull(maxWait);
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                result.complete(delegate.executeWithLock(task, lockConfig, maxWait));
+            } catch (Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Executes the task on a virtual thread without any lock.
+     */
+    @NotNull
+    CompletableFuture<Boolean> submitWithoutLock(@NotNull Runnable task) {
+        requireNonNull(task);
+        return CompletableFuture.supplyAsync(() -> {
+            task.run();
+            return true;
+        }, executor);
+    }
+
+    /**
+     * Stops accepting tasks and waits for the submitted ones to finish.
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
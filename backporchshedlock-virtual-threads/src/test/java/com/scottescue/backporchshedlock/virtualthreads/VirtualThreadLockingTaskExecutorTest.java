@@ -0,0 +1,158 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.virtualthreads;
+
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.core.AbstractSimpleLock;
+import com.scottescue.backporchshedlock.core.LockAssert;
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import com.scottescue.backporchshedlock.core.LockProvider;
+import com.scottescue.backporchshedlock.core.SimpleLock;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Test;
+import org.threeten.bp.Instant;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class VirtualThreadLockingTaskExecutorTest {
+    private final InMemoryLockProvider lockProvider = new InMemoryLockProvider();
+    private final VirtualThreadLockingTaskExecutor executor = new VirtualThreadLockingTaskExecutor(lockProvider);
+
+    @After
+    public void closeExecutor() {
+        executor.close();
+    }
+
+    @Test
+    public void shouldExecuteTaskOnVirtualThread() throws Exception {
+        AtomicInteger virtualThreads = new AtomicInteger();
+
+        boolean executed = executor.submit(() -> {
+            LockAssert.assertLocked();
+            if (Thread.currentThread().isVirtual()) {
+                virtualThreads.incrementAndGet();
+            }
+        }, lockConfig("lock")).get();
+
+        assertThat(executed).isTrue();
+        assertThat(virtualThreads.get()).isEqualTo(1);
+        assertThat(lockProvider.locked).isEmpty();
+    }
+
+    @Test
+    public void shouldNotExecuteTaskIfLockIsHeld() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        CompletableFuture<Boolean> first = executor.submit(() -> {
+            started.countDown();
+            await(finish);
+        }, lockConfig("lock"));
+        started.await();
+
+        assertThat(executor.submit(() -> fail("Should not be executed"), lockConfig("lock")).get()).isFalse();
+
+        finish.countDown();
+        assertThat(first.get()).isTrue();
+    }
+
+    @Test
+    public void shouldNotInheritLocksOfSubmittingThread() throws Exception {
+        List<Boolean> nested = new ArrayList<>();
+        Runnable task = () -> {
+            try {
+                nested.add(executor.submit(() -> fail("Should not be executed"), lockConfig("lock")).get());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        executor.executeWithLock(task, lockConfig("lock"));
+
+        assertThat(nested).containsExactly(false);
+    }
+
+    @Test
+    public void shouldPropagateExceptionThrownByTask() throws InterruptedException {
+        IllegalStateException exception = new IllegalStateException("Test");
+        try {
+            executor.submit(() -> {
+                throw exception;
+            }, lockConfig("lock")).get();
+            fail("Exception expected");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isSameAs(exception);
+        }
+        assertThat(lockProvider.locked).isEmpty();
+    }
+
+    @Test
+    public void shouldExecuteManyTasksConcurrently() throws Exception {
+        int tasks = 1000;
+        CountDownLatch allStarted = new CountDownLatch(tasks);
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            results.add(executor.submit(() -> {
+                allStarted.countDown();
+                // all the tasks hold their locks at once, which would need 1000 platform threads
+                await(allStarted);
+            }, lockConfig("lock" + i)));
+        }
+
+        for (CompletableFuture<Boolean> result : results) {
+            assertThat(result.get()).isTrue();
+        }
+    }
+
+    private static LockConfiguration lockConfig(String name) {
+        return new LockConfiguration(name, Instant.now().plusSeconds(60));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class InMemoryLockProvider implements LockProvider {
+        private final Set<String> locked = ConcurrentHashMap.newKeySet();
+
+        @NotNull
+        @Override
+        public Optional<SimpleLock> lock(@NotNull LockConfiguration lockConfiguration) {
+            if (!locked.add(lockConfiguration.getName())) {
+                return Optional.empty();
+            }
+            return Optional.of(new AbstractSimpleLock(lockConfiguration) {
+                @Override
+                protected void doUnlock() {
+                    locked.remove(lockConfiguration.getName());
+                }
+            });
+        }
+    }
+}
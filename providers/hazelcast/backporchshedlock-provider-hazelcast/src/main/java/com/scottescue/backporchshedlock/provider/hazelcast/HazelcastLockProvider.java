@@ -17,6 +17,8 @@ package com.scottescue.backporchshedlock.provider.hazelcast;
 
 import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.IMap;
+import com.scottescue.backporchshedlock.core.ClockProvider;
+import com.scottescue.backporchshedlock.core.InspectableLockProvider;
 import com.scottescue.backporchshedlock.core.LockConfiguration;
 import com.scottescue.backporchshedlock.core.LockProvider;
 import com.scottescue.backporchshedlock.core.SimpleLock;
@@ -38,7 +40,7 @@ import java.util.concurrent.TimeUnit;
  * Below, the mechanims :
  * - The Lock, an instance of {@link HazelcastLock}, is obtained / created when :
  * -- the lock is not not already locked by other process (lock - referenced by its name - is not present in the Hazelcast locks store OR unlockable)
- * -- the lock is expired : {@link Instant#now()} &gt; {@link HazelcastLock#timeToLive} where unlockTime have by default the same value of {@link HazelcastLock#lockAtMostUntil}
+ * -- the lock is expired : {@link ClockProvider#now()} &gt; {@link HazelcastLock#timeToLive} where unlockTime have by default the same value of {@link HazelcastLock#lockAtMostUntil}
  * and can have the value of {@link HazelcastLock#lockAtLeastUntil} if unlock action is used
  * --- expired object is removed
  * -- the lock is owned by not available member of Hazelcast cluster member
@@ -47,7 +49,7 @@ import java.util.concurrent.TimeUnit;
  * -- removes lock object when {@link HazelcastLock#lockAtLeastUntil} is not come
  * -- override value of {@link HazelcastLock#timeToLive} with {@link HazelcastLock#lockAtLeastUntil} (its default value is the same of {@link HazelcastLock#lockAtLeastUntil}
  */
-public class HazelcastLockProvider implements LockProvider {
+public class HazelcastLockProvider implements InspectableLockProvider {
 
     private static final Logger log = LoggerFactory.getLogger(HazelcastLockProvider.class);
 
@@ -105,7 +107,7 @@ public class HazelcastLockProvider implements LockProvider {
     @NotNull
     public Optional<SimpleLock> lock(@NotNull LockConfiguration lockConfiguration) {
         log.trace("lock - Attempt : {}", lockConfiguration);
-        final Instant now = Instant.now();
+        final Instant now = ClockProvider.now();
         final String lockName = lockConfiguration.getName();
         final IMap<String, HazelcastLock> store = getStore();
         try {
@@ -123,8 +125,15 @@ public class HazelcastLockProvider implements LockProvider {
         return Optional.empty();
     }
 
+    @Override
+    @NotNull
+    public Optional<Instant> getLockUntil(@NotNull String lockName) {
+        HazelcastLock lock = getLock(lockName);
+        return lock != null ? Optional.of(lock.getTimeToLive()) : Optional.<Instant>empty();
+    }
+
     private long keyLockTime(LockConfiguration lockConfiguration) {
-        Duration between = Duration.between(Instant.now(), lockConfiguration.getLockAtMostUntil());
+        Duration between = Duration.between(ClockProvider.now(), lockConfiguration.getLockAtMostUntil());
         return between.toMillis();
     }
 
@@ -190,7 +199,7 @@ public class HazelcastLockProvider implements LockProvider {
     /* package */ void unlock(LockConfiguration lockConfiguration) {
         String lockName = lockConfiguration.getName();
         log.trace("unlock - attempt : {}", lockName);
-        final Instant now = Instant.now();
+        final Instant now = ClockProvider.now();
         final IMap<String, HazelcastLock> store = getStore();
         try {
             store.lock(lockName, lockLeaseTimeMs, TimeUnit.MILLISECONDS);
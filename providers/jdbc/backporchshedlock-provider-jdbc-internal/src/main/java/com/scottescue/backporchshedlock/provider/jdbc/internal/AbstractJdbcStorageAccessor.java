@@ -15,149 +15,643 @@
  */
 package com.scottescue.backporchshedlock.provider.jdbc.internal;
 
+import com.scottescue.backporchshedlock.Optional;
 import com.scottescue.backporchshedlock.support.AbstractStorageAccessor;
+import com.scottescue.backporchshedlock.core.ClockProvider;
 import com.scottescue.backporchshedlock.core.LockConfiguration;
+import com.scottescue.backporchshedlock.provider.jdbc.internal.JdbcConnections.Lease;
+import com.scottescue.backporchshedlock.provider.jdbc.internal.SqlStatements.SqlStatement;
 import org.jetbrains.annotations.NotNull;
 import org.threeten.bp.DateTimeUtils;
 import org.threeten.bp.Instant;
 
 import javax.sql.DataSource;
-import java.sql.Connection;
+import java.io.Closeable;
+import java.sql.BatchUpdateException;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.threeten.bp.jdk8.Jdk8Methods.requireNonNull;
 
 /**
  * WARNING: internal class API might be volatile
  */
-public abstract class AbstractJdbcStorageAccessor extends AbstractStorageAccessor {
+public abstract class AbstractJdbcStorageAccessor extends AbstractStorageAccessor implements Closeable {
+    /**
+     * Keeps the IN list well below the limits of the databases (1000 in Oracle).
+     */
+    private static final int MAX_NAMES_PER_STATEMENT = 500;
+
     private final DataSource dataSource;
     private final String tableName;
+    private final boolean useDbTime;
+    private final boolean useEpochMillis;
+    private final boolean useHashedNames;
+    private final JdbcConnections connections;
+    private final FullNameVerifier fullNameVerifier = new FullNameVerifier();
+    private volatile SqlStatements sqlStatements;
 
     protected AbstractJdbcStorageAccessor(DataSource dataSource, String tableName) {
+        this(dataSource, tableName, false);
+    }
+
+    /**
+     * @param useDbTime use the time of the database server instead of the time of this JVM in all the statements
+     */
+    protected AbstractJdbcStorageAccessor(DataSource dataSource, String tableName, boolean useDbTime) {
+        this(dataSource, tableName, useDbTime, JdbcConnections.perOperation(dataSource));
+    }
+
+    /**
+     * @param connections connections used for the lock operations, see {@link JdbcConnections#pinned(DataSource, int, long)}
+     */
+    protected AbstractJdbcStorageAccessor(DataSource dataSource, String tableName, boolean useDbTime, JdbcConnections connections) {
+        this(dataSource, tableName, useDbTime, false, connections);
+    }
+
+    /**
+     * @param useEpochMillis lock_until and locked_at are BIGINT columns holding epoch milliseconds
+     */
+    protected AbstractJdbcStorageAccessor(DataSource dataSource, String tableName, boolean useDbTime, boolean useEpochMillis,
+                                          JdbcConnections connections) {
+        this(dataSource, tableName, useDbTime, useEpochMillis, false, connections);
+    }
+
+    /**
+     * @param useHashedNames the name column holds a hash of the lock name, the full name is stored in the full_name
+     *                       column, see {@link SqlStatements#hashName(String)}
+     */
+    protected AbstractJdbcStorageAccessor(DataSource dataSource, String tableName, boolean useDbTime, boolean useEpochMillis,
+                                          boolean useHashedNames, JdbcConnections connections) {
         this.dataSource = requireNonNull(dataSource, "dataSource can not be null");
         this.tableName = requireNonNull(tableName, "tableName can not be null");
+        this.useDbTime = useDbTime;
+        this.useEpochMillis = useEpochMillis;
+        this.useHashedNames = useHashedNames;
+        this.connections = requireNonNull(connections, "connections can not be null");
+        if (useDbTime) {
+            // an unsupported database is rejected here, instead of failing every lock attempt
+            this.sqlStatements = newSqlStatements(SqlDialect.forDbTime(dataSource));
+        }
+    }
+
+    @Override
+    public boolean supportsUpsert() {
+        return getSqlStatements().supportsUpsert();
     }
 
     @Override
     public boolean insertRecord(@NotNull LockConfiguration lockConfiguration) {
-        // Try to insert if the record does not exists (not optimal, but the simplest platform agnostic way)
-        String sql = "INSERT INTO " + tableName + "(name, lock_until, locked_at, locked_by) VALUES(?, ?, ?, ?)";
-        Connection connection = null;
-        PreparedStatement statement = null;
+        // Insert the record or take over an expired one in one statement if the database supports it. Otherwise try to
+        // insert if the record does not exists, without a duplicate key exception if the database supports it
+        boolean upsert = supportsUpsert();
+        SqlStatement sqlStatement = upsert ? getSqlStatements().upsert() : getSqlStatements().insert();
+        String sql = sqlStatement.getSql();
+        Lease lease = null;
         try {
-            connection = dataSource.getConnection();
-            statement = connection.prepareStatement(sql);
-
-            connection.setAutoCommit(true); // just to be sure, should be set by default
-            statement.setString(1, lockConfiguration.getName());
-            statement.setTimestamp(2, DateTimeUtils.toSqlTimestamp(lockConfiguration.getLockAtMostUntil()));
-            statement.setTimestamp(3, DateTimeUtils.toSqlTimestamp(Instant.now()));
-            statement.setString(4, getHostname());
+            lease = connections.acquire();
+            PreparedStatement statement = lease.prepare(sql);
+            bind(statement, sqlStatement, lockConfiguration, ClockProvider.now());
             int insertedRows = statement.executeUpdate();
             if (insertedRows > 0) {
                 return true;
             }
         } catch (SQLException e) {
-            handleInsertionException(sql, e);
+            failed(lease);
+            if (upsert) {
+                handleUpsertException(sql, e);
+            } else {
+                handleInsertionException(sql, e);
+            }
         } finally {
-            closeQuietly(connection, statement);
+            release(lease);
+        }
+        if (upsert) {
+            // the record has not been taken over, it is not updated afterwards
+            verifyFullNames(Collections.singletonList(lockConfiguration.getName()));
         }
         return false;
     }
 
+    /**
+     * Upserts the records in one JDBC batch. Without upsert support the records are inserted one by one, most drivers
+     * stop processing the batch on the first duplicate key.
+     */
+    @NotNull
+    @Override
+    public Set<String> insertRecords(@NotNull Collection<LockConfiguration> lockConfigurations) {
+        if (!supportsUpsert()) {
+            return super.insertRecords(lockConfigurations);
+        }
+
+        SqlStatement sqlStatement = getSqlStatements().upsert();
+        String sql = sqlStatement.getSql();
+        List<LockConfiguration> configurations = new ArrayList<LockConfiguration>(lockConfigurations);
+        Set<String> inserted;
+        List<LockConfiguration> remaining = Collections.emptyList();
+        Lease lease = null;
+        try {
+            lease = connections.acquire();
+            PreparedStatement statement = lease.prepare(sql);
+            Instant now = ClockProvider.now();
+            for (LockConfiguration lockConfiguration : configurations) {
+                bind(statement, sqlStatement, lockConfiguration, now);
+                statement.addBatch();
+            }
+            inserted = affectedNames(configurations, statement.executeBatch());
+        } catch (BatchUpdateException e) {
+            // a concurrent upsert has inserted one of the records, the lock is held by someone else
+            failed(lease);
+            handleUpsertException(sql, e);
+            int[] updateCounts = e.getUpdateCounts() != null ? e.getUpdateCounts() : new int[0];
+            inserted = affectedNames(configurations, updateCounts);
+            if (updateCounts.length < configurations.size()) {
+                // the driver has stopped on the failed record, the rest is processed one by one
+                remaining = configurations.subList(updateCounts.length + 1, configurations.size());
+            }
+        } catch (SQLException e) {
+            failed(lease);
+            handleUpsertException(sql, e);
+            return new LinkedHashSet<String>();
+        } finally {
+            release(lease);
+        }
+        // outside of the lease, a pinned connection may be the only one
+        if (!remaining.isEmpty()) {
+            inserted.addAll(super.insertRecords(remaining));
+        }
+        verifyFullNames(refusedNames(configurations, inserted));
+        return inserted;
+    }
+
     protected abstract void handleInsertionException(String sql, SQLException e);
 
+    /**
+     * Returns true if the exception has been caused by an insert of a record that already exists. Recognized by the
+     * SQLState or the vendor error code of the database.
+     */
+    protected boolean isDuplicateKey(SQLException e) {
+        return getSqlStatements().getDialect().isDuplicateKey(e);
+    }
+
+    /**
+     * Upsert fails with a duplicate key if a concurrent upsert has inserted the same record, the lock is held by
+     * someone else. It fails with a data exception if the values do not fit the table, for example a name that is too
+     * long, the lock can never be obtained and a warning is logged. Any other exception is handled as a failed update.
+     */
+    protected void handleUpsertException(String sql, SQLException e) {
+        String sqlState = e.getSQLState();
+        if (isDuplicateKey(e)) {
+            logger.debug("Exception thrown when upserting record", e);
+        } else if (sqlState != null && sqlState.startsWith("22")) {
+            logger.warn("Unexpected exception", e);
+        } else {
+            handleUpdateException(sql, e);
+        }
+    }
+
     @Override
     public boolean updateRecord(@NotNull LockConfiguration lockConfiguration) {
-        String sql = "UPDATE " + tableName + " SET lock_until = ?, locked_at = ?, locked_by = ? WHERE name = ? AND lock_until <= ?";
-        Connection connection = null;
-        PreparedStatement statement = null;
+        SqlStatement sqlStatement = getSqlStatements().update();
+        String sql = sqlStatement.getSql();
+        Lease lease = null;
         try {
-            connection = dataSource.getConnection();
-            statement = connection.prepareStatement(sql);
-
-            connection.setAutoCommit(true); // just to be sure, should be set by default
-            Timestamp now = DateTimeUtils.toSqlTimestamp(Instant.now());
-            statement.setTimestamp(1, DateTimeUtils.toSqlTimestamp(lockConfiguration.getLockAtMostUntil()));
-            statement.setTimestamp(2, now);
-            statement.setString(3, getHostname());
-            statement.setString(4, lockConfiguration.getName());
-            statement.setTimestamp(5, now);
-            int updatedRows = statement.executeUpdate();
-            return updatedRows > 0;
+            lease = connections.acquire();
+            PreparedStatement statement = lease.prepare(sql);
+            bind(statement, sqlStatement, lockConfiguration, ClockProvider.now());
+            if (statement.executeUpdate() > 0) {
+                return true;
+            }
         } catch (SQLException e) {
+            failed(lease);
             handleUpdateException(sql, e);
             return false;
         } finally {
-            closeQuietly(connection, statement);
+            release(lease);
         }
+        verifyFullNames(Collections.singletonList(lockConfiguration.getName()));
+        return false;
+    }
+
+    /**
+     * Updates the records in one JDBC batch.
+     */
+    @NotNull
+    @Override
+    public Set<String> updateRecords(@NotNull Collection<LockConfiguration> lockConfigurations) {
+        SqlStatement sqlStatement = getSqlStatements().update();
+        String sql = sqlStatement.getSql();
+        List<LockConfiguration> configurations = new ArrayList<LockConfiguration>(lockConfigurations);
+        Set<String> updated;
+        Lease lease = null;
+        try {
+            lease = connections.acquire();
+            PreparedStatement statement = lease.prepare(sql);
+            Instant now = ClockProvider.now();
+            for (LockConfiguration lockConfiguration : configurations) {
+                bind(statement, sqlStatement, lockConfiguration, now);
+                statement.addBatch();
+            }
+            updated = affectedNames(configurations, statement.executeBatch());
+        } catch (SQLException e) {
+            failed(lease);
+            handleUpdateException(sql, e);
+            return new LinkedHashSet<String>();
+        } finally {
+            release(lease);
+        }
+        verifyFullNames(refusedNames(configurations, updated));
+        return updated;
+    }
+
+    private static List<String> refusedNames(List<LockConfiguration> configurations, Set<String> obtained) {
+        List<String> refused = new ArrayList<String>();
+        for (LockConfiguration lockConfiguration : configurations) {
+            if (!obtained.contains(lockConfiguration.getName())) {
+                refused.add(lockConfiguration.getName());
+            }
+        }
+        return refused;
+    }
+
+    /**
+     * With hashed names, checks that the records of the locks that have not been obtained belong to them, see
+     * {@link FullNameVerifier}. Uses one SELECT per {@value #MAX_NAMES_PER_STATEMENT} names not checked yet.
+     */
+    private void verifyFullNames(List<String> names) {
+        if (!useHashedNames || names.isEmpty()) {
+            return;
+        }
+        List<String> toCheck = fullNameVerifier.toCheck(names);
+        if (toCheck.isEmpty()) {
+            return;
+        }
+        String sql = null;
+        Lease lease = null;
+        try {
+            lease = connections.acquire();
+            Instant now = ClockProvider.now();
+            for (int from = 0; from < toCheck.size(); from += MAX_NAMES_PER_STATEMENT) {
+                Map<String, String> chunk = byKey(toCheck.subList(from, Math.min(from + MAX_NAMES_PER_STATEMENT, toCheck.size())));
+                SqlStatement sqlStatement = getSqlStatements().selectFullNames(chunk.size());
+                sql = sqlStatement.getSql();
+                PreparedStatement statement = lease.prepare(sql);
+                ResultSet resultSet = null;
+                try {
+                    bindKeys(statement, sqlStatement, chunk.keySet(), now, now);
+                    resultSet = statement.executeQuery();
+                    while (resultSet.next()) {
+                        fullNameVerifier.verify(chunk.get(resultSet.getString(1)), resultSet.getString(2));
+                    }
+                } finally {
+                    closeQuietly(resultSet);
+                }
+            }
+        } catch (SQLException e) {
+            // only a diagnostic, the names are not checked again
+            failed(lease);
+            logger.debug("Can not verify full names of locks {}", toCheck, e);
+        } finally {
+            release(lease);
+        }
+    }
+
+    private void bind(PreparedStatement statement, SqlStatement sqlStatement, LockConfiguration lockConfiguration, Instant now) throws SQLException {
+        sqlStatement.bind(statement, lockConfiguration.getName(), getHostname(), lockConfiguration.getLockAtMostUntil(), now, null);
+    }
+
+    private Set<String> affectedNames(List<LockConfiguration> configurations, int[] updateCounts) {
+        Set<String> names = new LinkedHashSet<String>();
+        for (int i = 0; i < updateCounts.length && i < configurations.size(); i++) {
+            if (updateCounts[i] > 0) {
+                names.add(configurations.get(i).getName());
+            } else if (updateCounts[i] == Statement.SUCCESS_NO_INFO) {
+                // we can not tell if we have the lock, let's be on the safe side
+                logger.warn("JDBC driver did not report update count for lock '{}', considering it not locked", configurations.get(i).getName());
+            }
+        }
+        return names;
     }
 
     @Override
     public boolean extend(@NotNull LockConfiguration lockConfiguration) {
-        String sql = "UPDATE " + tableName + " SET lock_until = ? WHERE name = ? AND locked_by = ? AND lock_until > ? ";
+        SqlStatement sqlStatement = getSqlStatements().extend();
+        String sql = sqlStatement.getSql();
 
         logger.debug("Extending lock={} until={}", lockConfiguration.getName(), lockConfiguration.getLockAtMostUntil());
 
-        Connection connection = null;
-        PreparedStatement statement = null;
+        Lease lease = null;
         try {
-            connection = dataSource.getConnection();
-            statement = connection.prepareStatement(sql);
-
-            connection.setAutoCommit(true); // just to be sure, should be set by default
-            statement.setTimestamp(1, DateTimeUtils.toSqlTimestamp(lockConfiguration.getLockAtMostUntil()));
-            statement.setString(2, lockConfiguration.getName());
-            statement.setString(3, getHostname());
-            statement.setTimestamp(4, DateTimeUtils.toSqlTimestamp(Instant.now()));
+            lease = connections.acquire();
+            PreparedStatement statement = lease.prepare(sql);
+            bind(statement, sqlStatement, lockConfiguration, ClockProvider.now());
             return statement.executeUpdate() > 0;
         } catch (SQLException e) {
+            failed(lease);
             handleUnlockException(sql, e);
             return false;
         } finally {
-            closeQuietly(connection, statement);
+            release(lease);
+        }
+    }
+
+    /**
+     * Extends the records using one UPDATE per {@value #MAX_NAMES_PER_STATEMENT} names. Only if the UPDATE has not
+     * extended all the records, the names of the extended ones are read back. lock_until has to be within
+     * {@value SqlStatements#LEASE_TOLERANCE_MILLIS} ms of leaseUntil.
+     */
+    @NotNull
+    @Override
+    public Set<String> extendRecords(@NotNull Collection<String> names, @NotNull Instant leaseUntil, @NotNull Instant lockUntil) {
+        List<String> nameList = new ArrayList<String>(new LinkedHashSet<String>(names));
+        Set<String> extended = new LinkedHashSet<String>();
+        String sql = null;
+        Lease lease = null;
+        try {
+            lease = connections.acquire();
+            Instant now = ClockProvider.now();
+            for (int from = 0; from < nameList.size(); from += MAX_NAMES_PER_STATEMENT) {
+                Map<String, String> chunk = byKey(nameList.subList(from, Math.min(from + MAX_NAMES_PER_STATEMENT, nameList.size())));
+                SqlStatement sqlStatement = getSqlStatements().extendAll(chunk.size());
+                sql = sqlStatement.getSql();
+                PreparedStatement statement = lease.prepare(sql);
+                bindKeys(statement, sqlStatement, chunk.keySet(), leaseUntil, lockUntil, now);
+                if (statement.executeUpdate() >= chunk.size()) {
+                    extended.addAll(chunk.values());
+                    continue;
+                }
+
+                // some of the locks have been lost, lock_until of the others is in the future now
+                sqlStatement = getSqlStatements().selectHeld(chunk.size());
+                sql = sqlStatement.getSql();
+                statement = lease.prepare(sql);
+                ResultSet resultSet = null;
+                try {
+                    // the extended records have the new lock_until now
+                    bindKeys(statement, sqlStatement, chunk.keySet(), lockUntil, lockUntil, now);
+                    resultSet = statement.executeQuery();
+                    while (resultSet.next()) {
+                        extended.add(chunk.get(resultSet.getString(1)));
+                    }
+                } finally {
+                    closeQuietly(resultSet);
+                }
+            }
+        } catch (SQLException e) {
+            failed(lease);
+            handleUnlockException(sql, e);
+        } finally {
+            release(lease);
+        }
+        return extended;
+    }
+
+    /**
+     * Maps the values of the name column to the lock names, see {@link SqlStatements#toKey(String)}.
+     */
+    private Map<String, String> byKey(List<String> names) {
+        Map<String, String> byKey = new LinkedHashMap<String, String>();
+        for (String name : names) {
+            byKey.put(getSqlStatements().toKey(name), name);
+        }
+        return byKey;
+    }
+
+    private void bindKeys(PreparedStatement statement, SqlStatement sqlStatement, Collection<String> keys, Instant lockUntil, Instant now) throws SQLException {
+        bindKeys(statement, sqlStatement, keys, null, lockUntil, now);
+    }
+
+    private void bindKeys(PreparedStatement statement, SqlStatement sqlStatement, Collection<String> keys, Instant leaseUntil, Instant lockUntil,
+                          Instant now) throws SQLException {
+        int index = sqlStatement.bind(statement, null, getHostname(), leaseUntil, lockUntil, now, null);
+        for (String key : keys) {
+            statement.setString(index++, key);
         }
     }
 
     protected abstract void handleUpdateException(String sql, SQLException e);
 
+    /**
+     * Selects up to limit names of the expired records and deletes them with one DELETE per
+     * {@value #MAX_NAMES_PER_STATEMENT} names. The DELETE checks lock_until again, so a record locked in the meantime
+     * is not deleted.
+     */
+    @NotNull
     @Override
-    public void unlock(@NotNull LockConfiguration lockConfiguration) {
-        String sql = "UPDATE " + tableName + " SET lock_until = ? WHERE name = ?";
-        Connection connection = null;
-        PreparedStatement statement = null;
+    public Set<String> deleteExpiredRecords(@NotNull Instant expiredBefore, int limit) {
+        Map<String, String> expired = new LinkedHashMap<String, String>();
+        String sql = null;
+        Lease lease = null;
+        try {
+            lease = connections.acquire();
+            Instant now = ClockProvider.now();
+            SqlStatement sqlStatement = getSqlStatements().selectExpired();
+            sql = sqlStatement.getSql();
+            PreparedStatement statement = lease.prepare(sql);
+            ResultSet resultSet = null;
+            try {
+                statement.setMaxRows(limit);
+                sqlStatement.bind(statement, null, getHostname(), expiredBefore, now, null);
+                resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    String key = resultSet.getString(1);
+                    String fullName = useHashedNames ? resultSet.getString(2) : null;
+                    expired.put(key, fullName != null ? fullName : key);
+                }
+            } finally {
+                closeQuietly(resultSet);
+            }
+
+            List<String> keyList = new ArrayList<String>(expired.keySet());
+            for (int from = 0; from < keyList.size(); from += MAX_NAMES_PER_STATEMENT) {
+                List<String> chunk = keyList.subList(from, Math.min(from + MAX_NAMES_PER_STATEMENT, keyList.size()));
+                sqlStatement = getSqlStatements().deleteExpired(chunk.size());
+                sql = sqlStatement.getSql();
+                statement = lease.prepare(sql);
+                bindKeys(statement, sqlStatement, chunk, expiredBefore, now);
+                statement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            failed(lease);
+            handleUpdateException(sql, e);
+        } finally {
+            release(lease);
+        }
+        return new LinkedHashSet<String>(expired.values());
+    }
+
+    /**
+     * Reads the existing records using one SELECT per {@value #MAX_NAMES_PER_STATEMENT} names and inserts the missing
+     * ones, unlocked, in one JDBC batch.
+     */
+    @NotNull
+    @Override
+    public Set<String> createRecords(@NotNull Collection<String> names) {
+        List<String> nameList = new ArrayList<String>(new LinkedHashSet<String>(names));
+        Set<String> existing = new LinkedHashSet<String>();
+        List<String> missing = new ArrayList<String>();
+        String sql = null;
+        Lease lease = null;
         try {
-            connection = dataSource.getConnection();
-            statement = connection.prepareStatement(sql);
+            lease = connections.acquire();
+            Instant now = ClockProvider.now();
+            for (int from = 0; from < nameList.size(); from += MAX_NAMES_PER_STATEMENT) {
+                Map<String, String> chunk = byKey(nameList.subList(from, Math.min(from + MAX_NAMES_PER_STATEMENT, nameList.size())));
+                SqlStatement sqlStatement = getSqlStatements().selectExisting(chunk.size());
+                sql = sqlStatement.getSql();
+                PreparedStatement statement = lease.prepare(sql);
+                ResultSet resultSet = null;
+                try {
+                    bindKeys(statement, sqlStatement, chunk.keySet(), now, now);
+                    resultSet = statement.executeQuery();
+                    while (resultSet.next()) {
+                        existing.add(chunk.get(resultSet.getString(1)));
+                    }
+                } finally {
+                    closeQuietly(resultSet);
+                }
+            }
+            for (String name : nameList) {
+                if (!existing.contains(name)) {
+                    missing.add(name);
+                }
+            }
+            if (missing.isEmpty()) {
+                return existing;
+            }
 
-            connection.setAutoCommit(true); // just to be sure, should be set by default
-            statement.setTimestamp(1, DateTimeUtils.toSqlTimestamp(lockConfiguration.getUnlockTime()));
-            statement.setString(2, lockConfiguration.getName());
+            // lock_until = now, the records are not locked
+            SqlStatement sqlStatement = getSqlStatements().insert();
+            sql = sqlStatement.getSql();
+            PreparedStatement statement = lease.prepare(sql);
+            for (String name : missing) {
+                sqlStatement.bind(statement, name, getHostname(), now, now, null);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            // a record not inserted by the batch has been inserted by someone else in the meantime
+            existing.addAll(missing);
+        } catch (BatchUpdateException e) {
+            // most likely another node has inserted one of the records, the rest is created on the first lock attempt
+            failed(lease);
+            logger.debug("Can not insert lock records", e);
+            int[] updateCounts = e.getUpdateCounts() != null ? e.getUpdateCounts() : new int[0];
+            for (int i = 0; i < updateCounts.length && i < missing.size(); i++) {
+                if (updateCounts[i] > 0 || updateCounts[i] == Statement.SUCCESS_NO_INFO) {
+                    existing.add(missing.get(i));
+                }
+            }
+        } catch (SQLException e) {
+            failed(lease);
+            handleUpdateException(sql, e);
+        } finally {
+            release(lease);
+        }
+        return existing;
+    }
+
+    @NotNull
+    @Override
+    public Optional<Instant> getLockUntil(@NotNull String name) {
+        SqlStatement sqlStatement = getSqlStatements().selectLockUntil();
+        Lease lease = null;
+        ResultSet resultSet = null;
+        try {
+            lease = connections.acquire();
+            PreparedStatement statement = lease.prepare(sqlStatement.getSql());
+
+            Instant now = ClockProvider.now();
+            sqlStatement.bind(statement, name, getHostname(), now, now, null);
+            resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                Instant lockUntil = getSqlStatements().readTime(resultSet, 1, null);
+                if (lockUntil != null) {
+                    if (getSqlStatements().isUsingDbTime()) {
+                        return Optional.of(SqlStatements.toClientTime(lockUntil, DateTimeUtils.toInstant(resultSet.getTimestamp(2)), now));
+                    }
+                    return Optional.of(lockUntil);
+                }
+            }
+        } catch (SQLException e) {
+            // we will just try to obtain the lock next time
+            failed(lease);
+            logger.debug("Can not read lock_until of lock '{}'", name, e);
+        } finally {
+            closeQuietly(resultSet);
+            release(lease);
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public void unlock(@NotNull LockConfiguration lockConfiguration) {
+        SqlStatement sqlStatement = getSqlStatements().unlock();
+        String sql = sqlStatement.getSql();
+        Lease lease = null;
+        try {
+            lease = connections.acquire();
+            PreparedStatement statement = lease.prepare(sql);
+            sqlStatement.bind(statement, lockConfiguration.getName(), getHostname(), lockConfiguration.getUnlockTime(), ClockProvider.now(), null);
             statement.executeUpdate();
         } catch (SQLException e) {
+            failed(lease);
             handleUnlockException(sql, e);
         } finally {
-            closeQuietly(connection, statement);
+            release(lease);
         }
     }
 
     protected abstract void handleUnlockException(String sql, SQLException e);
 
-    private void closeQuietly(Connection connection, PreparedStatement statement) {
-        if (statement != null) {
-            try {
-                statement.close();
-            } catch (SQLException e) {
-                // Intentionally ignore the exception
-            }
+    /**
+     * Closes the connections kept open by the accessor, if any.
+     */
+    @Override
+    public void close() {
+        connections.close();
+    }
+
+    private SqlStatements getSqlStatements() {
+        // the dialect is detected lazily, we do not want to touch the database when the lock provider is being created
+        SqlStatements statements = sqlStatements;
+        if (statements == null) {
+            statements = newSqlStatements(SqlDialect.forDataSource(dataSource));
+            sqlStatements = statements;
+        }
+        return statements;
+    }
+
+    private SqlStatements newSqlStatements(SqlDialect dialect) {
+        return new SqlStatements(dialect, tableName, "name", "lock_until", "locked_at", "locked_by", useDbTime, useEpochMillis,
+            useHashedNames ? "full_name" : null);
+    }
+
+    private static void failed(Lease lease) {
+        if (lease != null) {
+            lease.failed();
         }
+    }
+
+    private static void release(Lease lease) {
+        if (lease != null) {
+            lease.release();
+        }
+    }
 
-        if (connection != null) {
+    private void closeQuietly(ResultSet resultSet) {
+        if (resultSet != null) {
             try {
-                connection.close();
+                resultSet.close();
             } catch (SQLException e) {
                 // Intentionally ignore the exception
             }
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.provider.jdbc.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Detects lock names sharing one record because their hashes collide, see {@link SqlStatements#hashName(String)}.
+ * When a lock can not be obtained, the full name stored in the record is compared with the name of the lock. Every
+ * name is checked only once, so a lock held by someone else costs one extra SELECT, not one per attempt.
+ * <p>
+ * WARNING: internal class API might be volatile
+ */
+public class FullNameVerifier {
+    private static final Logger logger = LoggerFactory.getLogger(FullNameVerifier.class);
+    private static final int MAX_CHECKED_NAMES = 10000;
+
+    private final Set<String> checkedNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Returns the names that have not been checked yet and marks them as checked.
+     */
+    @NotNull
+    public List<String> toCheck(@NotNull Collection<String> names) {
+        if (checkedNames.size() >= MAX_CHECKED_NAMES) {
+            // generated names, a name is checked again at worst
+            checkedNames.clear();
+        }
+        List<String> toCheck = new ArrayList<String>();
+        for (String name : names) {
+            if (checkedNames.add(name)) {
+                toCheck.add(name);
+            }
+        }
+        return toCheck;
+    }
+
+    /**
+     * @param fullName full name stored in the record of the lock, null if the record has not been created with hashed
+     *                 names
+     * @return false if the record belongs to another lock
+     */
+    public boolean verify(@NotNull String name, @Nullable String fullName) {
+        if (fullName != null && !fullName.equals(name)) {
+            logger.error("Lock names '{}' and '{}' have the same hash and share one lock record, rename one of the locks", name, fullName);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,397 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.provider.jdbc.internal;
+
+import com.scottescue.backporchshedlock.support.LockException;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.threeten.bp.jdk8.Jdk8Methods.requireNonNull;
+
+/**
+ * Source of the connections and prepared statements used by {@link AbstractJdbcStorageAccessor}.
+ * <p>
+ * WARNING: internal class API might be volatile
+ */
+public abstract class JdbcConnections {
+    private static final Logger logger = LoggerFactory.getLogger(JdbcConnections.class);
+    private static final long DEFAULT_ACQUIRE_TIMEOUT = 30000;
+
+    /**
+     * Gets a new connection from the data source for every operation and prepares the statements again. Suits data
+     * sources backed by a connection pool shared with the application.
+     */
+    @NotNull
+    public static JdbcConnections perOperation(@NotNull DataSource dataSource) {
+        return new PerOperationConnections(dataSource);
+    }
+
+    /**
+     * Keeps up to {@code poolSize} connections open for the lock provider only. Every connection caches its prepared
+     * statements. A connection is validated before use if it has been idle for {@code validationInterval} milliseconds
+     * or an operation on it has failed, and it is reopened if it is not valid anymore. Waits at most 30 seconds for a
+     * connection.
+     */
+    @NotNull
+    public static JdbcConnections pinned(@NotNull DataSource dataSource, int poolSize, long validationInterval) {
+        return pinned(dataSource, poolSize, validationInterval, DEFAULT_ACQUIRE_TIMEOUT);
+    }
+
+    /**
+     * Like {@link #pinned(DataSource, int, long)}, but waits at most {@code acquireTimeout} milliseconds for a
+     * connection if all of them are in use.
+     */
+    @NotNull
+    public static JdbcConnections pinned(@NotNull DataSource dataSource, int poolSize, long validationInterval, long acquireTimeout) {
+        return new PinnedConnections(dataSource, poolSize, validationInterval, acquireTimeout);
+    }
+
+    /**
+     * Gets a connection for one operation. Blocks if all the pinned connections are in use, at most for the acquire
+     * timeout.
+     *
+     * @throws IllegalStateException if the connections have been closed
+     * @throws LockException         if no pinned connection has become available in time
+     */
+    @NotNull
+    public abstract Lease acquire() throws SQLException;
+
+    /**
+     * Closes the connections kept open, if any. No connection can be acquired afterwards.
+     */
+    public void close() {
+    }
+
+    /**
+     * Connection in use by one operation. Has to be released when the operation is done.
+     */
+    public abstract static class Lease {
+        /**
+         * Returns a prepared statement for the SQL. The statement is owned by the lease, do not close it.
+         */
+        @NotNull
+        public abstract PreparedStatement prepare(@NotNull String sql) throws SQLException;
+
+        /**
+         * Marks the connection as suspicious after a {@link SQLException}, it will be validated before next use.
+         */
+        public abstract void failed();
+
+        public abstract void release();
+    }
+
+    private static class PerOperationConnections extends JdbcConnections {
+        private final DataSource dataSource;
+
+        PerOperationConnections(DataSource dataSource) {
+            this.dataSource = requireNonNull(dataSource, "dataSource can not be null");
+        }
+
+        @NotNull
+        @Override
+        public Lease acquire() throws SQLException {
+            Connection connection = dataSource.getConnection();
+            try {
+                enableAutoCommit(connection);
+            } catch (SQLException e) {
+                closeQuietly(connection);
+                throw e;
+            }
+            return new PerOperationLease(connection);
+        }
+    }
+
+    private static class PerOperationLease extends Lease {
+        private final Connection connection;
+        private final List<PreparedStatement> statements = new ArrayList<PreparedStatement>(2);
+
+        PerOperationLease(Connection connection) {
+            this.connection = connection;
+        }
+
+        @NotNull
+        @Override
+        public PreparedStatement prepare(@NotNull String sql) throws SQLException {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statements.add(statement);
+            return statement;
+        }
+
+        @Override
+        public void failed() {
+            // the connection is returned to the data source anyway
+        }
+
+        @Override
+        public void release() {
+            for (PreparedStatement statement : statements) {
+                closeQuietly(statement);
+            }
+            closeQuietly(connection);
+        }
+    }
+
+    private static class PinnedConnections extends JdbcConnections {
+        private final BlockingQueue<PinnedConnection> idle;
+        private final List<PinnedConnection> all = new ArrayList<PinnedConnection>();
+        private final long acquireTimeout;
+        private volatile boolean closed;
+
+        PinnedConnections(DataSource dataSource, int poolSize, long validationInterval, long acquireTimeout) {
+            requireNonNull(dataSource, "dataSource can not be null");
+            if (poolSize < 1) {
+                throw new IllegalArgumentException("poolSize has to be positive");
+            }
+            if (validationInterval < 0) {
+                throw new IllegalArgumentException("validationInterval can not be negative");
+            }
+            if (acquireTimeout <= 0) {
+                throw new IllegalArgumentException("acquireTimeout has to be positive");
+            }
+            this.acquireTimeout = acquireTimeout;
+            this.idle = new ArrayBlockingQueue<PinnedConnection>(poolSize);
+            for (int i = 0; i < poolSize; i++) {
+                // connections are opened on first use, we do not want to touch the database when the lock provider is being created
+                PinnedConnection connection = new PinnedConnection(dataSource, validationInterval, idle);
+                all.add(connection);
+                idle.add(connection);
+            }
+        }
+
+        @NotNull
+        @Override
+        public Lease acquire() throws SQLException {
+            if (closed) {
+                throw new IllegalStateException("Connections have been closed");
+            }
+            PinnedConnection connection;
+            try {
+                connection = idle.poll(acquireTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection", e);
+            }
+            if (connection == null) {
+                // the operations holding the connections may hang, do not block all the lock operations with them
+                throw new LockException("No lock provider connection available in " + acquireTimeout + " ms");
+            }
+            try {
+                connection.open();
+            } catch (SQLException e) {
+                connection.release();
+                throw e;
+            } catch (RuntimeException e) {
+                connection.release();
+                throw e;
+            }
+            return connection;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            for (PinnedConnection connection : all) {
+                connection.close();
+            }
+        }
+    }
+
+    private static class PinnedConnection extends Lease {
+        /**
+         * Statements with distinct IN lists are cached too, keep only the recently used ones.
+         */
+        private static final int MAX_CACHED_STATEMENTS = 32;
+        private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+        private final DataSource dataSource;
+        private final long validationIntervalNanos;
+        private final BlockingQueue<PinnedConnection> idle;
+        private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > MAX_CACHED_STATEMENTS) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        // used by the thread holding the lease, guarded only because close() can come from any thread. Not a monitor,
+        // the guarded code makes round trips to the database and would pin the carrier thread of a virtual thread
+        private final ReentrantLock guard = new ReentrantLock();
+        private Connection connection;
+        private boolean suspicious;
+        private boolean closed;
+        // System.nanoTime(), not affected by changes of the wall clock
+        private long lastUsed;
+
+        PinnedConnection(DataSource dataSource, long validationInterval, BlockingQueue<PinnedConnection> idle) {
+            this.dataSource = dataSource;
+            this.validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(validationInterval);
+            this.idle = idle;
+        }
+
+        void open() throws SQLException {
+            guard.lock();
+            try {
+                checkNotClosed();
+                if (connection != null && (suspicious || System.nanoTime() - lastUsed >= validationIntervalNanos)) {
+                    if (!isValid()) {
+                        logger.warn("Lock provider connection is not valid anymore, reconnecting");
+                        disconnect();
+                    }
+                }
+                if (connection == null) {
+                    Connection newConnection = dataSource.getConnection();
+                    try {
+                        enableAutoCommit(newConnection);
+                    } catch (SQLException e) {
+                        closeQuietly(newConnection);
+                        throw e;
+                    }
+                    connection = newConnection;
+                }
+                suspicious = false;
+            } finally {
+                guard.unlock();
+            }
+        }
+
+        private void checkNotClosed() {
+            if (closed) {
+                // closed while waiting for or using the connection, do not open it again
+                throw new IllegalStateException("Connections have been closed");
+            }
+        }
+
+        private boolean isValid() {
+            try {
+                return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException e) {
+                return false;
+            } catch (AbstractMethodError e) {
+                // JDBC 3 driver, we can only tell if it has been closed
+                try {
+                    return !connection.isClosed();
+                } catch (SQLException closedException) {
+                    return false;
+                }
+            }
+        }
+
+        @NotNull
+        @Override
+        public PreparedStatement prepare(@NotNull String sql) throws SQLException {
+            guard.lock();
+            try {
+                checkNotClosed();
+                PreparedStatement statement = statements.get(sql);
+                if (statement == null) {
+                    statement = connection.prepareStatement(sql);
+                    statements.put(sql, statement);
+                } else {
+                    // a failed batch may have left some rows behind
+                    statement.clearParameters();
+                    statement.clearBatch();
+                }
+                return statement;
+            } finally {
+                guard.unlock();
+            }
+        }
+
+        @Override
+        public void failed() {
+            guard.lock();
+            try {
+                suspicious = true;
+            } finally {
+                guard.unlock();
+            }
+        }
+
+        @Override
+        public void release() {
+            guard.lock();
+            try {
+                lastUsed = System.nanoTime();
+            } finally {
+                guard.unlock();
+            }
+            idle.add(this);
+        }
+
+        void close() {
+            guard.lock();
+            try {
+                closed = true;
+                disconnect();
+            } finally {
+                guard.unlock();
+            }
+        }
+
+        private void disconnect() {
+            for (PreparedStatement statement : statements.values()) {
+                closeQuietly(statement);
+            }
+            statements.clear();
+            closeQuietly(connection);
+            connection = null;
+        }
+    }
+
+    private static void enableAutoCommit(Connection connection) throws SQLException {
+        // just to be sure, should be set by default. Most drivers answer getAutoCommit() without a round trip
+        if (!connection.getAutoCommit()) {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // Intentionally ignore the exception
+            }
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // Intentionally ignore the exception
+            }
+        }
+    }
+}
@@ -0,0 +1,520 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.provider.jdbc.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Database specific SQL. The dialect is detected from the database product name reported by the JDBC driver.
+ * <p>
+ * All statements that insert a lock record expect the same values in the same order: name, lock_until, locked_at (now),
+ * locked_by and, if the name column holds a hash of the lock name, the full name. lock_until and locked_at are SQL expressions, either a parameter typed by {@link #getTimeParameter(boolean)}
+ * or database time, see {@link SqlStatements}.
+ * <p>
+ * WARNING: internal class API might be volatile
+ */
+public enum SqlDialect {
+    /**
+     * Lowest common denominator, used for databases we do not know.
+     */
+    GENERIC {
+        /**
+         * Any integrity constraint violation is considered to be a duplicate key.
+         */
+        @Override
+        boolean isDuplicateKey(String sqlState, int errorCode) {
+            return sqlState != null && sqlState.startsWith("23");
+        }
+    },
+
+    H2 {
+        @Override
+        public boolean supportsUpsert() {
+            return true;
+        }
+
+        @Override
+        public String getUpsertStatement(String tableName, String name, String lockUntil, String lockedAt, String lockedBy,
+                                         @Nullable String fullName, String lockUntilValue, String lockedAtValue) {
+            return "MERGE INTO " + tableName + " t USING (SELECT CAST(? AS VARCHAR(255)) AS " + name
+                + ", " + lockUntilValue + " AS " + lockUntil + ", " + lockedAtValue + " AS " + lockedAt
+                + ", CAST(? AS VARCHAR(255)) AS " + lockedBy + fullNameValue(", CAST(? AS VARCHAR(4000)) AS ", fullName) + ") v"
+                + mergeClauses(name, lockUntil, lockedAt, lockedBy, fullName);
+        }
+
+        @Override
+        public String getTimeParameter(boolean epochMillis) {
+            return epochMillis ? "CAST(? AS BIGINT)" : "CAST(? AS TIMESTAMP(3))";
+        }
+
+        @Override
+        public boolean supportsDbTime() {
+            return true;
+        }
+
+        @Override
+        public String getDbTime() {
+            return "LOCALTIMESTAMP(3)";
+        }
+
+        @Override
+        public String getDbTimePlusMillis() {
+            return "DATEADD(MILLISECOND, CAST(? AS BIGINT), LOCALTIMESTAMP(3))";
+        }
+    },
+
+    HSQLDB {
+        @Override
+        public boolean supportsUpsert() {
+            return true;
+        }
+
+        @Override
+        public String getUpsertStatement(String tableName, String name, String lockUntil, String lockedAt, String lockedBy,
+                                         @Nullable String fullName, String lockUntilValue, String lockedAtValue) {
+            return "MERGE INTO " + tableName + " t USING (VALUES(CAST(? AS VARCHAR(255)), " + lockUntilValue + ", "
+                + lockedAtValue + ", CAST(? AS VARCHAR(255))" + (fullName != null ? ", CAST(? AS VARCHAR(4000))" : "") + ")) AS v("
+                + columns(name, lockUntil, lockedAt, lockedBy, fullName) + ")"
+                + mergeClauses(name, lockUntil, lockedAt, lockedBy, fullName);
+        }
+
+        @Override
+        public String getTimeParameter(boolean epochMillis) {
+            return epochMillis ? "CAST(? AS BIGINT)" : "CAST(? AS TIMESTAMP(3))";
+        }
+
+        @Override
+        public boolean supportsDbTime() {
+            return true;
+        }
+
+        @Override
+        public String getDbTime() {
+            return "LOCALTIMESTAMP(3)";
+        }
+
+        @Override
+        public String getDbTimePlusMillis() {
+            return "TIMESTAMPADD(SQL_TSI_MILLI_SECOND, CAST(? AS BIGINT), LOCALTIMESTAMP(3))";
+        }
+    },
+
+    /**
+     * MySQL does not get a single statement acquisition. INSERT ... ON DUPLICATE KEY UPDATE reports "found" rows by
+     * default (Connector/J does not set useAffectedRows), so we would not be able to tell a held lock from an acquired one.
+     * INSERT IGNORE is not used either, it would silently truncate lock names that are too long.
+     */
+    MYSQL {
+        @Override
+        boolean isDuplicateKey(String sqlState, int errorCode) {
+            // ER_DUP_ENTRY, reported with the generic 23000 state
+            return errorCode == 1062;
+        }
+
+        @Override
+        public boolean supportsInsertIfAbsent() {
+            return true;
+        }
+
+        @Override
+        public String getInsertIfAbsentStatement(String tableName, String name, String lockUntil, String lockedAt, String lockedBy,
+                                                 @Nullable String fullName, String lockUntilValue, String lockedAtValue) {
+            return "INSERT INTO " + tableName + "(" + columns(name, lockUntil, lockedAt, lockedBy, fullName) + ")"
+                + " SELECT ?, " + lockUntilValue + ", " + lockedAtValue + ", ?" + (fullName != null ? ", ?" : "") + " FROM DUAL"
+                + notExists(tableName, name);
+        }
+
+        @Override
+        public boolean supportsDbTime() {
+            return true;
+        }
+
+        @Override
+        public String getDbTime() {
+            return "LOCALTIMESTAMP(3)";
+        }
+
+        @Override
+        public String getDbTimePlusMillis() {
+            return "TIMESTAMPADD(MICROSECOND, ? * 1000, LOCALTIMESTAMP(3))";
+        }
+    },
+
+    POSTGRES {
+        @Override
+        public boolean supportsUpsert() {
+            return true;
+        }
+
+        @Override
+        public String getUpsertStatement(String tableName, String name, String lockUntil, String lockedAt, String lockedBy,
+                                         @Nullable String fullName, String lockUntilValue, String lockedAtValue) {
+            return "INSERT INTO " + tableName + "(" + columns(name, lockUntil, lockedAt, lockedBy, fullName) + ")"
+                + " VALUES(?, " + lockUntilValue + ", " + lockedAtValue + ", ?" + (fullName != null ? ", ?" : "") + ")"
+                + " ON CONFLICT (" + name + ") DO UPDATE SET " + lockUntil + " = EXCLUDED." + lockUntil + ", "
+                + lockedAt + " = EXCLUDED." + lockedAt + ", " + lockedBy + " = EXCLUDED." + lockedBy
+                + (fullName != null ? ", " + fullName + " = EXCLUDED." + fullName : "")
+                + " WHERE " + tableName + "." + lockUntil + " <= EXCLUDED." + lockedAt;
+        }
+
+        @Override
+        public boolean supportsDbTime() {
+            return true;
+        }
+
+        @Override
+        public String getDbTime() {
+            return "LOCALTIMESTAMP(3)";
+        }
+
+        @Override
+        public String getDbTimePlusMillis() {
+            return "(LOCALTIMESTAMP(3) + CAST(? AS BIGINT) * INTERVAL '1 millisecond')";
+        }
+    },
+
+    ORACLE {
+        @Override
+        boolean isDuplicateKey(String sqlState, int errorCode) {
+            // ORA-00001 unique constraint violated
+            return errorCode == 1;
+        }
+
+        @Override
+        public boolean supportsUpsert() {
+            return true;
+        }
+
+        /**
+         * Oracle does not support WHEN MATCHED AND, the condition goes to the WHERE clause of the update.
+         */
+        @Override
+        public String getUpsertStatement(String tableName, String name, String lockUntil, String lockedAt, String lockedBy,
+                                         @Nullable String fullName, String lockUntilValue, String lockedAtValue) {
+            return "MERGE INTO " + tableName + " t USING (SELECT CAST(? AS VARCHAR2(255)) AS " + name
+                + ", " + lockUntilValue + " AS " + lockUntil + ", " + lockedAtValue + " AS " + lockedAt
+                + ", CAST(? AS VARCHAR2(255)) AS " + lockedBy + fullNameValue(", CAST(? AS VARCHAR2(4000)) AS ", fullName) + " FROM DUAL) v"
+                + " ON (t." + name + " = v." + name + ")"
+                + " WHEN MATCHED THEN UPDATE SET t." + lockUntil + " = v." + lockUntil + ", t." + lockedAt + " = v." + lockedAt
+                + ", t." + lockedBy + " = v." + lockedBy + (fullName != null ? ", t." + fullName + " = v." + fullName : "")
+                + " WHERE t." + lockUntil + " <= v." + lockedAt
+                + " WHEN NOT MATCHED THEN INSERT (" + columns(name, lockUntil, lockedAt, lockedBy, fullName) + ")"
+                + " VALUES (" + columns("v.", name, lockUntil, lockedAt, lockedBy, fullName) + ")";
+        }
+
+        @Override
+        public String getTimeParameter(boolean epochMillis) {
+            return epochMillis ? "CAST(? AS NUMBER(19))" : "CAST(? AS TIMESTAMP(3))";
+        }
+
+        @Override
+        public boolean supportsDbTime() {
+            return true;
+        }
+
+        @Override
+        public String getDbTime() {
+            return "LOCALTIMESTAMP(3)";
+        }
+
+        @Override
+        public String getDbTimePlusMillis() {
+            return "(LOCALTIMESTAMP(3) + NUMTODSINTERVAL(? / 1000, 'SECOND'))";
+        }
+    },
+
+    SQLSERVER {
+        @Override
+        boolean isDuplicateKey(String sqlState, int errorCode) {
+            // violation of a primary key constraint or of a unique index
+            return errorCode == 2627 || errorCode == 2601;
+        }
+
+        @Override
+        public boolean supportsUpsert() {
+            return true;
+        }
+
+        /**
+         * HOLDLOCK makes two concurrent merges of a new record serialize instead of failing on the primary key.
+         */
+        @Override
+        public String getUpsertStatement(String tableName, String name, String lockUntil, String lockedAt, String lockedBy,
+                                         @Nullable String fullName, String lockUntilValue, String lockedAtValue) {
+            return "MERGE INTO " + tableName + " WITH (HOLDLOCK) AS t USING (SELECT CAST(? AS VARCHAR(255)) AS " + name
+                + ", " + lockUntilValue + " AS " + lockUntil + ", " + lockedAtValue + " AS " + lockedAt
+                + ", CAST(? AS VARCHAR(255)) AS " + lockedBy + fullNameValue(", CAST(? AS VARCHAR(4000)) AS ", fullName) + ") AS v"
+                + mergeClauses(name, lockUntil, lockedAt, lockedBy, fullName) + ";";
+        }
+
+        @Override
+        public String getTimeParameter(boolean epochMillis) {
+            return epochMillis ? "CAST(? AS BIGINT)" : "CAST(? AS DATETIME2(3))";
+        }
+
+        @Override
+        public boolean supportsDbTime() {
+            return true;
+        }
+
+        @Override
+        public String getDbTime() {
+            return "CAST(SYSDATETIME() AS DATETIME2(3))";
+        }
+
+        /**
+         * DATEADD does not take more than an int, the days are added separately.
+         */
+        @Override
+        public String getDbTimePlusMillis() {
+            return "DATEADD(MILLISECOND, ? % 86400000, DATEADD(DAY, ? / 86400000, CAST(SYSDATETIME() AS DATETIME2(3))))";
+        }
+    },
+
+    /**
+     * Derby has neither a MERGE that takes parameters in the source nor date arithmetic in milliseconds, it uses the
+     * generic statements.
+     */
+    DERBY {
+        @Override
+        public boolean supportsInsertIfAbsent() {
+            return true;
+        }
+
+        /**
+         * Derby can not infer the types of parameters in a select list.
+         */
+        @Override
+        public String getInsertIfAbsentStatement(String tableName, String name, String lockUntil, String lockedAt, String lockedBy,
+                                                 @Nullable String fullName, String lockUntilValue, String lockedAtValue) {
+            return "INSERT INTO " + tableName + "(" + columns(name, lockUntil, lockedAt, lockedBy, fullName) + ")"
+                + " SELECT CAST(? AS VARCHAR(255)), " + lockUntilValue + ", " + lockedAtValue + ","
+                + " CAST(? AS VARCHAR(255))" + (fullName != null ? ", CAST(? AS VARCHAR(4000))" : "") + " FROM SYSIBM.SYSDUMMY1"
+                + notExists(tableName, name);
+        }
+
+        @Override
+        public String getTimeParameter(boolean epochMillis) {
+            return epochMillis ? "CAST(? AS BIGINT)" : "CAST(? AS TIMESTAMP)";
+        }
+    };
+
+    /**
+     * Standard SQLState of a unique constraint violation.
+     */
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    private static final Logger logger = LoggerFactory.getLogger(SqlDialect.class);
+
+    /**
+     * Returns true if the exception, or any exception chained by {@link SQLException#getNextException()}, has been
+     * caused by an insert of a record that already exists.
+     */
+    public boolean isDuplicateKey(@NotNull SQLException e) {
+        for (SQLException exception = e; exception != null; exception = exception.getNextException()) {
+            if (isDuplicateKey(exception.getSQLState(), exception.getErrorCode())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The standard SQLState is used by H2, HSQLDB, PostgreSQL and Derby.
+     */
+    boolean isDuplicateKey(String sqlState, int errorCode) {
+        return UNIQUE_VIOLATION.equals(sqlState);
+    }
+
+    /**
+     * Returns true if the lock can be obtained in a single statement that either inserts a new lock record or takes over
+     * an existing one whose lock_until is not in the future.
+     */
+    public boolean supportsUpsert() {
+        return false;
+    }
+
+    /**
+     * Statement that inserts the lock record or updates it if lock_until &lt;= now. Updates 1 row if the lock has
+     * been obtained and 0 rows if it is held by someone else.
+     *
+     * @param fullName       column of the full lock name if the name column holds a hash of it, null otherwise
+     * @param lockUntilValue SQL expression of the new lock_until
+     * @param lockedAtValue  SQL expression of now
+     * @throws UnsupportedOperationException if the database does not support it, see {@link #supportsUpsert()}
+     */
+    public String getUpsertStatement(String tableName, String name, String lockUntil, String lockedAt, String lockedBy,
+                                     @Nullable String fullName, String lockUntilValue, String lockedAtValue) {
+        throw new UnsupportedOperationException("Upsert is not supported by " + this);
+    }
+
+    /**
+     * Returns true if the lock record can be inserted by a statement that does not fail if the record already exists.
+     * Only used if {@link #supportsUpsert()} is false.
+     */
+    public boolean supportsInsertIfAbsent() {
+        return false;
+    }
+
+    /**
+     * Statement that inserts the lock record if it does not exist. Updates 1 row if the record has been inserted and
+     * 0 rows if it already exists. Expects the name once more after the values.
+     *
+     * @param fullName       column of the full lock name if the name column holds a hash of it, null otherwise
+     * @param lockUntilValue SQL expression of the new lock_until
+     * @param lockedAtValue  SQL expression of now
+     * @throws UnsupportedOperationException if the database does not support it, see {@link #supportsInsertIfAbsent()}
+     */
+    public String getInsertIfAbsentStatement(String tableName, String name, String lockUntil, String lockedAt, String lockedBy,
+                                             @Nullable String fullName, String lockUntilValue, String lockedAtValue) {
+        throw new UnsupportedOperationException("Insert if absent is not supported by " + this);
+    }
+
+    /**
+     * Parameter of a time value of a new record, with a CAST where the database can not infer the type of the parameter
+     * from the statement.
+     *
+     * @param epochMillis the time columns are BIGINT epoch milliseconds instead of timestamps
+     */
+    public String getTimeParameter(boolean epochMillis) {
+        return "?";
+    }
+
+    /**
+     * Returns true if the statements can use the time of the database server instead of the time of the client, see
+     * {@link #getDbTime()} and {@link #getDbTimePlusMillis()}.
+     */
+    public boolean supportsDbTime() {
+        return false;
+    }
+
+    /**
+     * SQL expression of the current database time, comparable with TIMESTAMP columns.
+     *
+     * @throws UnsupportedOperationException if the database does not support it, see {@link #supportsDbTime()}
+     */
+    public String getDbTime() {
+        throw new UnsupportedOperationException("Database time is not supported by " + this);
+    }
+
+    /**
+     * SQL expression of the current database time plus a number of milliseconds. All the parameters of the
+     * expression are set to the number of milliseconds.
+     *
+     * @throws UnsupportedOperationException if the database does not support it, see {@link #supportsDbTime()}
+     */
+    public String getDbTimePlusMillis() {
+        throw new UnsupportedOperationException("Database time is not supported by " + this);
+    }
+
+    @NotNull
+    public static SqlDialect forDatabaseProductName(String productName) {
+        if (productName == null) {
+            return GENERIC;
+        }
+        String normalized = productName.toLowerCase();
+        if (normalized.startsWith("h2")) {
+            return H2;
+        } else if (normalized.startsWith("hsql")) {
+            return HSQLDB;
+        } else if (normalized.startsWith("mysql") || normalized.startsWith("mariadb")) {
+            return MYSQL;
+        } else if (normalized.startsWith("postgresql")) {
+            return POSTGRES;
+        } else if (normalized.startsWith("oracle")) {
+            return ORACLE;
+        } else if (normalized.startsWith("microsoft sql server")) {
+            return SQLSERVER;
+        } else if (normalized.startsWith("apache derby")) {
+            return DERBY;
+        } else {
+            return GENERIC;
+        }
+    }
+
+    /**
+     * Detects the dialect from the connection metadata. Falls back to {@link #GENERIC} if the metadata can not be read.
+     */
+    @NotNull
+    public static SqlDialect forDataSource(@NotNull DataSource dataSource) {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            SqlDialect dialect = forDatabaseProductName(connection.getMetaData().getDatabaseProductName());
+            logger.debug("Using {} SQL dialect", dialect);
+            return dialect;
+        } catch (SQLException e) {
+            logger.warn("Can not detect database type, using generic SQL", e);
+            return GENERIC;
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    // Intentionally ignore the exception
+                }
+            }
+        }
+    }
+
+    /**
+     * Detects the dialect of a lock table using database time, see {@link #forDataSource(DataSource)}.
+     *
+     * @throws IllegalArgumentException if the database does not support database time, or its type can not be detected
+     */
+    @NotNull
+    public static SqlDialect forDbTime(@NotNull DataSource dataSource) {
+        SqlDialect dialect = forDataSource(dataSource);
+        if (!dialect.supportsDbTime()) {
+            throw new IllegalArgumentException("Database time is not supported for " + dialect
+                + " databases, use the time of this JVM instead of usingDbTime()");
+        }
+        return dialect;
+    }
+
+    private static String notExists(String tableName, String name) {
+        return " WHERE NOT EXISTS (SELECT 1 FROM " + tableName + " WHERE " + name + " = ?)";
+    }
+
+    private static String mergeClauses(String name, String lockUntil, String lockedAt, String lockedBy, String fullName) {
+        return " ON (t." + name + " = v." + name + ")"
+            + " WHEN MATCHED AND t." + lockUntil + " <= v." + lockedAt
+            + " THEN UPDATE SET " + lockUntil + " = v." + lockUntil + ", " + lockedAt + " = v." + lockedAt + ", " + lockedBy + " = v." + lockedBy
+            + (fullName != null ? ", " + fullName + " = v." + fullName : "")
+            + " WHEN NOT MATCHED THEN INSERT (" + columns(name, lockUntil, lockedAt, lockedBy, fullName) + ")"
+            + " VALUES (" + columns("v.", name, lockUntil, lockedAt, lockedBy, fullName) + ")";
+    }
+
+    private static String columns(String name, String lockUntil, String lockedAt, String lockedBy, String fullName) {
+        return columns("", name, lockUntil, lockedAt, lockedBy, fullName);
+    }
+
+    private static String columns(String prefix, String name, String lockUntil, String lockedAt, String lockedBy, String fullName) {
+        return prefix + name + ", " + prefix + lockUntil + ", " + prefix + lockedAt + ", " + prefix + lockedBy
+            + (fullName != null ? ", " + prefix + fullName : "");
+    }
+
+    private static String fullNameValue(String value, String fullName) {
+        return fullName != null ? value + fullName : "";
+    }
+}
@@ -0,0 +1,734 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.provider.jdbc.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.threeten.bp.DateTimeUtils;
+import org.threeten.bp.Instant;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.threeten.bp.jdk8.Jdk8Methods.requireNonNull;
+
+/**
+ * SQL statements of a lock table together with the parameters they expect.
+ * <p>
+ * By default, the current time and lock_until are computed by the client and bound as timestamps. With database time,
+ * the statements use the time of the database server instead, lock_until is bound as the number of milliseconds from
+ * now, so the clocks of the nodes do not have to be in sync.
+ * <p>
+ * By default, lock_until and locked_at are TIMESTAMP columns. With epoch millis, they are BIGINT columns holding
+ * milliseconds since the epoch, the times are bound and read as longs.
+ * <p>
+ * By default, the name column holds the lock name. With hashed names, it holds {@link #hashName(String)} of the lock
+ * name, a fixed width key that keeps the primary key index small however long the names are, and the full name is
+ * stored in a separate column that is not part of the key. The full name is not compared by the statements, two names
+ * with the same hash would exclude each other, they would never be held at the same time.
+ * <p>
+ * WARNING: internal class API might be volatile
+ */
+public class SqlStatements {
+    /**
+     * Value bound to a statement parameter.
+     */
+    public enum Parameter {
+        /**
+         * Lock name, or its hash if the names are hashed.
+         */
+        NAME,
+        /**
+         * Full lock name, only used if the names are hashed.
+         */
+        FULL_NAME,
+        /**
+         * locked_by value of this node.
+         */
+        LOCKED_BY,
+        /**
+         * Current client time, as a timestamp or epoch millis.
+         */
+        NOW,
+        /**
+         * New lock_until, as a timestamp or epoch millis.
+         */
+        LOCK_UNTIL,
+        /**
+         * New lock_until relative to now, in milliseconds. Not negative.
+         */
+        LOCK_UNTIL_MILLIS,
+        /**
+         * Bound lock_until relative to now, in milliseconds. Negative when lock_until is in the past.
+         */
+        LOCK_UNTIL_OFFSET_MILLIS,
+        /**
+         * Lowest lock_until of a lease, as a timestamp or epoch millis, see {@link SqlStatements#LEASE_TOLERANCE_MILLIS}.
+         */
+        LEASE_FROM,
+        /**
+         * Highest lock_until of a lease, as a timestamp or epoch millis.
+         */
+        LEASE_TO,
+        /**
+         * Lowest lock_until of a lease relative to now, in milliseconds.
+         */
+        LEASE_FROM_OFFSET_MILLIS,
+        /**
+         * Highest lock_until of a lease relative to now, in milliseconds.
+         */
+        LEASE_TO_OFFSET_MILLIS
+    }
+
+    /**
+     * How far lock_until of a lease may be from the expected value. Covers timestamp columns of lower precision and,
+     * with database time, the varying delay between the client and the database.
+     */
+    public static final long LEASE_TOLERANCE_MILLIS = 1000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int HASH_LENGTH = 16;
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // every Java platform is required to support SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final SqlDialect dialect;
+    private final String tableName;
+    private final String name;
+    private final String lockUntil;
+    private final String lockedAt;
+    private final String lockedBy;
+    private final boolean useDbTime;
+    private final boolean useEpochMillis;
+    private final String fullName;
+
+    // the statements are built once, only the IN lists of the batch statements depend on the number of names
+    private final SqlStatement insert;
+    private final SqlStatement upsert;
+    private final SqlStatement update;
+    private final SqlStatement extend;
+    private final SqlStatement unlock;
+    private final SqlStatement selectLockUntil;
+    private final SqlStatement selectExpired;
+    private final ConcurrentMap<Integer, SqlStatement> extendAll = new ConcurrentHashMap<Integer, SqlStatement>();
+    private final ConcurrentMap<Integer, SqlStatement> selectHeld = new ConcurrentHashMap<Integer, SqlStatement>();
+    private final ConcurrentMap<Integer, SqlStatement> selectExisting = new ConcurrentHashMap<Integer, SqlStatement>();
+    private final ConcurrentMap<Integer, SqlStatement> deleteExpired = new ConcurrentHashMap<Integer, SqlStatement>();
+    private final ConcurrentMap<Integer, SqlStatement> selectFullNames = new ConcurrentHashMap<Integer, SqlStatement>();
+
+    /**
+     * @throws UnsupportedOperationException if database time is requested and the dialect does not support it
+     */
+    public SqlStatements(@NotNull SqlDialect dialect, @NotNull String tableName, @NotNull String name, @NotNull String lockUntil,
+                         @NotNull String lockedAt, @NotNull String lockedBy, boolean useDbTime) {
+        this(dialect, tableName, name, lockUntil, lockedAt, lockedBy, useDbTime, false);
+    }
+
+    /**
+     * @param useEpochMillis lock_until and locked_at are BIGINT epoch milliseconds instead of timestamps
+     * @throws UnsupportedOperationException if database time is requested and the dialect does not support it
+     * @throws IllegalArgumentException      if both database time and epoch millis are requested
+     */
+    public SqlStatements(@NotNull SqlDialect dialect, @NotNull String tableName, @NotNull String name, @NotNull String lockUntil,
+                         @NotNull String lockedAt, @NotNull String lockedBy, boolean useDbTime, boolean useEpochMillis) {
+        this(dialect, tableName, name, lockUntil, lockedAt, lockedBy, useDbTime, useEpochMillis, null);
+    }
+
+    /**
+     * @param useEpochMillis lock_until and locked_at are BIGINT epoch milliseconds instead of timestamps
+     * @param fullName       column of the full lock name if the name column holds {@link #hashName(String)}, null if
+     *                       the name column holds the lock name
+     * @throws UnsupportedOperationException if database time is requested and the dialect does not support it
+     * @throws IllegalArgumentException      if both database time and epoch millis are requested
+     */
+    public SqlStatements(@NotNull SqlDialect dialect, @NotNull String tableName, @NotNull String name, @NotNull String lockUntil,
+                         @NotNull String lockedAt, @NotNull String lockedBy, boolean useDbTime, boolean useEpochMillis,
+                         @Nullable String fullName) {
+        this.dialect = requireNonNull(dialect, "dialect can not be null");
+        this.tableName = requireNonNull(tableName, "tableName can not be null");
+        this.name = requireNonNull(name, "name can not be null");
+        this.lockUntil = requireNonNull(lockUntil, "lockUntil can not be null");
+        this.lockedAt = requireNonNull(lockedAt, "lockedAt can not be null");
+        this.lockedBy = requireNonNull(lockedBy, "lockedBy can not be null");
+        if (useDbTime && !dialect.supportsDbTime()) {
+            throw new UnsupportedOperationException("Database time is not supported for " + dialect + " databases");
+        }
+        this.useDbTime = useDbTime;
+        if (useDbTime && useEpochMillis) {
+            throw new IllegalArgumentException("Database time can not be used with epoch millis columns");
+        }
+        this.useEpochMillis = useEpochMillis;
+        this.fullName = fullName;
+
+        this.insert = createInsert();
+        this.upsert = dialect.supportsUpsert() ? createUpsert() : null;
+        this.update = createUpdate();
+        this.extend = createExtend();
+        this.unlock = createUnlock();
+        this.selectLockUntil = createSelectLockUntil();
+        this.selectExpired = createSelectExpired();
+    }
+
+    public boolean supportsUpsert() {
+        return upsert != null;
+    }
+
+    @NotNull
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * Inserts the lock record. If the database supports it, the statement inserts no row instead of failing on
+     * a record that already exists, see {@link SqlDialect#supportsInsertIfAbsent()}.
+     */
+    @NotNull
+    public SqlStatement insert() {
+        return insert;
+    }
+
+    /**
+     * Inserts the lock record or takes over an expired one, see {@link SqlDialect#getUpsertStatement}.
+     *
+     * @throws UnsupportedOperationException if the database does not support it, see {@link #supportsUpsert()}
+     */
+    @NotNull
+    public SqlStatement upsert() {
+        if (upsert == null) {
+            throw new UnsupportedOperationException("Upsert is not supported by " + dialect);
+        }
+        return upsert;
+    }
+
+    /**
+     * Takes over an expired lock record.
+     */
+    @NotNull
+    public SqlStatement update() {
+        return update;
+    }
+
+    /**
+     * Moves lock_until of a lock held by this node.
+     */
+    @NotNull
+    public SqlStatement extend() {
+        return extend;
+    }
+
+    /**
+     * Moves lock_until of several locks held by this node, whose lock_until is the bound lease. The statement is
+     * followed by {@code count} name parameters.
+     */
+    @NotNull
+    public SqlStatement extendAll(int count) {
+        SqlStatement statement = extendAll.get(count);
+        if (statement == null) {
+            statement = createExtendAll(count);
+            extendAll.putIfAbsent(count, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Selects the names of the locks held by this node, whose lock_until is the bound lease. The statement is followed
+     * by {@code count} name parameters.
+     */
+    @NotNull
+    public SqlStatement selectHeld(int count) {
+        SqlStatement statement = selectHeld.get(count);
+        if (statement == null) {
+            statement = createSelectHeld(count);
+            selectHeld.putIfAbsent(count, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Selects the names of the existing lock records. The statement is followed by {@code count} name parameters.
+     */
+    @NotNull
+    public SqlStatement selectExisting(int count) {
+        SqlStatement statement = selectExisting.get(count);
+        if (statement == null) {
+            statement = createSelectExisting(count);
+            selectExisting.putIfAbsent(count, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Releases the lock, lock_until is set to the unlock time.
+     */
+    @NotNull
+    public SqlStatement unlock() {
+        return unlock;
+    }
+
+    /**
+     * Selects lock_until of the lock. With database time, the current database time is selected as the second column,
+     * see {@link #toClientTime(Instant, Instant, Instant)}.
+     */
+    @NotNull
+    public SqlStatement selectLockUntil() {
+        return selectLockUntil;
+    }
+
+    /**
+     * Selects the names of the records whose lock_until is before the bound lock_until, with hashed names followed by
+     * the full names. When using database time, the bound lock_until is converted to an offset from the time of the
+     * client and added to the time of the database, so a client clock ahead of the database does not select held locks.
+     */
+    @NotNull
+    public SqlStatement selectExpired() {
+        return selectExpired;
+    }
+
+    /**
+     * Deletes the records whose lock_until is before the bound lock_until. The statement is followed by {@code count}
+     * name parameters.
+     */
+    @NotNull
+    public SqlStatement deleteExpired(int count) {
+        SqlStatement statement = deleteExpired.get(count);
+        if (statement == null) {
+            statement = createDeleteExpired(count);
+            deleteExpired.putIfAbsent(count, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Selects the hashed names and the full names of the records. The statement is followed by {@code count} name
+     * parameters.
+     *
+     * @throws UnsupportedOperationException if the names are not hashed, see {@link #isUsingHashedNames()}
+     */
+    @NotNull
+    public SqlStatement selectFullNames(int count) {
+        if (fullName == null) {
+            throw new UnsupportedOperationException("Full names are stored only with hashed names");
+        }
+        SqlStatement statement = selectFullNames.get(count);
+        if (statement == null) {
+            statement = new Builder()
+                .sql("SELECT " + name + ", " + fullName + " FROM " + tableName + " WHERE " + name + " IN (" + placeholders(count) + ")")
+                .build();
+            selectFullNames.putIfAbsent(count, statement);
+        }
+        return statement;
+    }
+
+    private SqlStatement createInsert() {
+        if (dialect.supportsInsertIfAbsent()) {
+            // does not throw on records that already exist, they are there after every restart
+            List<Parameter> parameters = valueParameters();
+            parameters.add(Parameter.NAME);
+            String sql = dialect.getInsertIfAbsentStatement(tableName, name, lockUntil, lockedAt, lockedBy, fullName, lockUntilValue(), nowValue());
+            return new SqlStatement(sql, parameters, useEpochMillis, isUsingHashedNames());
+        }
+        Builder builder = new Builder()
+            .sql("INSERT INTO " + tableName + "(" + name + ", " + lockUntil + ", " + lockedAt + ", " + lockedBy
+                + (fullName != null ? ", " + fullName : "") + ") VALUES(")
+            .parameter(Parameter.NAME).sql(", ").lockUntil().sql(", ").now().sql(", ").parameter(Parameter.LOCKED_BY);
+        if (fullName != null) {
+            builder.sql(", ").parameter(Parameter.FULL_NAME);
+        }
+        return builder.sql(")").build();
+    }
+
+    private SqlStatement createUpsert() {
+        List<Parameter> parameters = valueParameters();
+        String sql = dialect.getUpsertStatement(tableName, name, lockUntil, lockedAt, lockedBy, fullName, lockUntilValue(), nowValue());
+        return new SqlStatement(sql, parameters, useEpochMillis, isUsingHashedNames());
+    }
+
+    private SqlStatement createUpdate() {
+        Builder builder = new Builder()
+            .sql("UPDATE " + tableName + " SET " + lockUntil + " = ").lockUntil()
+            .sql(", " + lockedAt + " = ").now()
+            .sql(", " + lockedBy + " = ").parameter(Parameter.LOCKED_BY);
+        if (fullName != null) {
+            // records inserted before the names were hashed get their full name on the first takeover
+            builder.sql(", " + fullName + " = ").parameter(Parameter.FULL_NAME);
+        }
+        return builder
+            .sql(" WHERE " + name + " = ").parameter(Parameter.NAME)
+            .sql(" AND " + lockUntil + " <= ").now()
+            .build();
+    }
+
+    private SqlStatement createExtend() {
+        return new Builder()
+            .sql("UPDATE " + tableName + " SET " + lockUntil + " = ").lockUntil()
+            .sql(" WHERE " + name + " = ").parameter(Parameter.NAME)
+            .sql(" AND " + lockedBy + " = ").parameter(Parameter.LOCKED_BY)
+            .sql(" AND " + lockUntil + " > ").now()
+            .build();
+    }
+
+    private SqlStatement createExtendAll(int count) {
+        return new Builder()
+            .sql("UPDATE " + tableName + " SET " + lockUntil + " = ").lockUntil()
+            .sql(" WHERE " + lockedBy + " = ").parameter(Parameter.LOCKED_BY)
+            .sql(" AND " + lockUntil + " > ").now()
+            .sql(" AND " + lockUntil + " >= ").lease(Parameter.LEASE_FROM, Parameter.LEASE_FROM_OFFSET_MILLIS)
+            .sql(" AND " + lockUntil + " <= ").lease(Parameter.LEASE_TO, Parameter.LEASE_TO_OFFSET_MILLIS)
+            .sql(" AND " + name + " IN (" + placeholders(count) + ")")
+            .build();
+    }
+
+    private SqlStatement createSelectHeld(int count) {
+        return new Builder()
+            .sql("SELECT " + name + " FROM " + tableName + " WHERE " + lockedBy + " = ").parameter(Parameter.LOCKED_BY)
+            .sql(" AND " + lockUntil + " >= ").lease(Parameter.LEASE_FROM, Parameter.LEASE_FROM_OFFSET_MILLIS)
+            .sql(" AND " + lockUntil + " <= ").lease(Parameter.LEASE_TO, Parameter.LEASE_TO_OFFSET_MILLIS)
+            .sql(" AND " + name + " IN (" + placeholders(count) + ")")
+            .build();
+    }
+
+    private SqlStatement createSelectExisting(int count) {
+        return new Builder()
+            .sql("SELECT " + name + " FROM " + tableName + " WHERE " + name + " IN (" + placeholders(count) + ")")
+            .build();
+    }
+
+    private SqlStatement createUnlock() {
+        return new Builder()
+            .sql("UPDATE " + tableName + " SET " + lockUntil + " = ").lockUntil()
+            .sql(" WHERE " + name + " = ").parameter(Parameter.NAME)
+            .build();
+    }
+
+    private SqlStatement createSelectLockUntil() {
+        return new Builder()
+            .sql("SELECT " + lockUntil + (useDbTime ? ", " + dialect.getDbTime() : "") + " FROM " + tableName + " WHERE " + name + " = ")
+            .parameter(Parameter.NAME)
+            .build();
+    }
+
+    private SqlStatement createSelectExpired() {
+        return new Builder()
+            .sql("SELECT " + name + (fullName != null ? ", " + fullName : "") + " FROM " + tableName + " WHERE " + lockUntil + " < ")
+            .expiredBefore()
+            .build();
+    }
+
+    private SqlStatement createDeleteExpired(int count) {
+        return new Builder()
+            .sql("DELETE FROM " + tableName + " WHERE " + lockUntil + " < ").expiredBefore()
+            .sql(" AND " + name + " IN (" + placeholders(count) + ")")
+            .build();
+    }
+
+    public boolean isUsingDbTime() {
+        return useDbTime;
+    }
+
+    public boolean isUsingEpochMillis() {
+        return useEpochMillis;
+    }
+
+    public boolean isUsingHashedNames() {
+        return fullName != null;
+    }
+
+    /**
+     * Returns the value of the name column of the lock, the name itself or its hash if the names are hashed.
+     */
+    @NotNull
+    public String toKey(@NotNull String lockName) {
+        return fullName != null ? hashName(lockName) : lockName;
+    }
+
+    /**
+     * Hash of the lock name stored in the name column if the names are hashed. The first 128 bits of SHA-256 of the
+     * UTF-8 encoded name, as 32 lower case hex digits.
+     */
+    @NotNull
+    public static String hashName(@NotNull String lockName) {
+        byte[] hash = DIGEST.get().digest(lockName.getBytes(UTF_8));
+        StringBuilder key = new StringBuilder(HASH_LENGTH * 2);
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            key.append(HEX_DIGITS[(hash[i] >> 4) & 0xF]).append(HEX_DIGITS[hash[i] & 0xF]);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Reads a time column, lock_until or locked_at, of the result set.
+     *
+     * @param calendar time zone of the timestamps, JVM default if null
+     * @return the time or null if the column is null
+     */
+    @Nullable
+    public Instant readTime(@NotNull ResultSet resultSet, int column, @Nullable Calendar calendar) throws SQLException {
+        if (useEpochMillis) {
+            long millis = resultSet.getLong(column);
+            return resultSet.wasNull() ? null : Instant.ofEpochMilli(millis);
+        }
+        Timestamp timestamp = calendar == null ? resultSet.getTimestamp(column) : resultSet.getTimestamp(column, calendar);
+        return timestamp == null ? null : DateTimeUtils.toInstant(timestamp);
+    }
+
+    /**
+     * Converts lock_until read from the database to the clock of this JVM, so it can be compared with
+     * {@link com.scottescue.backporchshedlock.core.ClockProvider#now()}.
+     */
+    @NotNull
+    public static Instant toClientTime(@NotNull Instant lockUntil, @NotNull Instant dbNow, @NotNull Instant clientNow) {
+        return clientNow.plusMillis(lockUntil.toEpochMilli() - dbNow.toEpochMilli());
+    }
+
+    /**
+     * Parameters of the values of a new record, see {@link SqlDialect}.
+     */
+    private List<Parameter> valueParameters() {
+        List<Parameter> parameters = new ArrayList<Parameter>();
+        parameters.add(Parameter.NAME);
+        if (useDbTime) {
+            parameters.addAll(Collections.nCopies(countParameters(dialect.getDbTimePlusMillis()), Parameter.LOCK_UNTIL_MILLIS));
+        } else {
+            parameters.add(Parameter.LOCK_UNTIL);
+            parameters.add(Parameter.NOW);
+        }
+        parameters.add(Parameter.LOCKED_BY);
+        if (fullName != null) {
+            parameters.add(Parameter.FULL_NAME);
+        }
+        return parameters;
+    }
+
+    private String lockUntilValue() {
+        return useDbTime ? dialect.getDbTimePlusMillis() : dialect.getTimeParameter(useEpochMillis);
+    }
+
+    private String nowValue() {
+        return useDbTime ? dialect.getDbTime() : dialect.getTimeParameter(useEpochMillis);
+    }
+
+    private static int countParameters(String expression) {
+        int count = 0;
+        for (int i = 0; i < expression.length(); i++) {
+            if (expression.charAt(i) == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+        return placeholders.toString();
+    }
+
+    private class Builder {
+        private final StringBuilder sql = new StringBuilder();
+        private final List<Parameter> parameters = new ArrayList<Parameter>();
+
+        Builder sql(String part) {
+            sql.append(part);
+            return this;
+        }
+
+        Builder parameter(Parameter parameter) {
+            sql.append('?');
+            parameters.add(parameter);
+            return this;
+        }
+
+        Builder lockUntil() {
+            if (useDbTime) {
+                String lockUntil = dialect.getDbTimePlusMillis();
+                sql.append(lockUntil);
+                parameters.addAll(Collections.nCopies(countParameters(lockUntil), Parameter.LOCK_UNTIL_MILLIS));
+                return this;
+            }
+            return parameter(Parameter.LOCK_UNTIL);
+        }
+
+        Builder expiredBefore() {
+            if (useDbTime) {
+                String expiredBefore = dialect.getDbTimePlusMillis();
+                sql.append(expiredBefore);
+                parameters.addAll(Collections.nCopies(countParameters(expiredBefore), Parameter.LOCK_UNTIL_OFFSET_MILLIS));
+                return this;
+            }
+            return parameter(Parameter.LOCK_UNTIL);
+        }
+
+        Builder lease(Parameter time, Parameter offset) {
+            if (useDbTime) {
+                String lease = dialect.getDbTimePlusMillis();
+                sql.append(lease);
+                parameters.addAll(Collections.nCopies(countParameters(lease), offset));
+                return this;
+            }
+            return parameter(time);
+        }
+
+        Builder now() {
+            if (useDbTime) {
+                sql.append(dialect.getDbTime());
+                return this;
+            }
+            return parameter(Parameter.NOW);
+        }
+
+        SqlStatement build() {
+            return new SqlStatement(sql.toString(), parameters, useEpochMillis, isUsingHashedNames());
+        }
+    }
+
+    /**
+     * SQL with the parameters it expects, in order.
+     */
+    public static class SqlStatement {
+        private final String sql;
+        private final List<Parameter> parameters;
+        private final boolean epochMillis;
+        private final boolean hashedNames;
+
+        SqlStatement(String sql, List<Parameter> parameters, boolean epochMillis, boolean hashedNames) {
+            this.sql = sql;
+            this.parameters = Collections.unmodifiableList(new ArrayList<Parameter>(parameters));
+            this.epochMillis = epochMillis;
+            this.hashedNames = hashedNames;
+        }
+
+        @NotNull
+        public String getSql() {
+            return sql;
+        }
+
+        @NotNull
+        public List<Parameter> getParameters() {
+            return parameters;
+        }
+
+        /**
+         * Sets the parameters of the statement.
+         *
+         * @param name     lock name, hashed by the statement if the names are hashed
+         * @param calendar time zone of the timestamps, JVM default if null, not used with epoch millis
+         * @return index of the first parameter following the bound ones
+         */
+        public int bind(@NotNull PreparedStatement statement, @Nullable String name, @NotNull String lockedBy, @NotNull Instant lockUntil,
+                        @NotNull Instant now, @Nullable Calendar calendar) throws SQLException {
+            return bind(statement, name, lockedBy, null, lockUntil, now, calendar);
+        }
+
+        /**
+         * Sets the parameters of the statement.
+         *
+         * @param name       lock name, hashed by the statement if the names are hashed
+         * @param leaseUntil lock_until expected by the statements matching a lease, see {@link SqlStatements#LEASE_TOLERANCE_MILLIS}
+         * @param calendar   time zone of the timestamps, JVM default if null, not used with epoch millis
+         * @return index of the first parameter following the bound ones
+         */
+        public int bind(@NotNull PreparedStatement statement, @Nullable String name, @NotNull String lockedBy, @Nullable Instant leaseUntil,
+                        @NotNull Instant lockUntil, @NotNull Instant now, @Nullable Calendar calendar) throws SQLException {
+            int index = 1;
+            for (Parameter parameter : parameters) {
+                switch (parameter) {
+                    case NAME:
+                        statement.setString(index, hashedNames && name != null ? hashName(name) : name);
+                        break;
+                    case FULL_NAME:
+                        statement.setString(index, name);
+                        break;
+                    case LOCKED_BY:
+                        statement.setString(index, lockedBy);
+                        break;
+                    case NOW:
+                        setTime(statement, index, now, calendar);
+                        break;
+                    case LOCK_UNTIL:
+                        setTime(statement, index, lockUntil, calendar);
+                        break;
+                    case LOCK_UNTIL_MILLIS:
+                        statement.setLong(index, Math.max(0, lockUntil.toEpochMilli() - now.toEpochMilli()));
+                        break;
+                    case LOCK_UNTIL_OFFSET_MILLIS:
+                        statement.setLong(index, lockUntil.toEpochMilli() - now.toEpochMilli());
+                        break;
+                    case LEASE_FROM:
+                        setTime(statement, index, lease(leaseUntil).minusMillis(LEASE_TOLERANCE_MILLIS), calendar);
+                        break;
+                    case LEASE_TO:
+                        setTime(statement, index, lease(leaseUntil).plusMillis(LEASE_TOLERANCE_MILLIS), calendar);
+                        break;
+                    case LEASE_FROM_OFFSET_MILLIS:
+                        statement.setLong(index, lease(leaseUntil).toEpochMilli() - now.toEpochMilli() - LEASE_TOLERANCE_MILLIS);
+                        break;
+                    case LEASE_TO_OFFSET_MILLIS:
+                        statement.setLong(index, lease(leaseUntil).toEpochMilli() - now.toEpochMilli() + LEASE_TOLERANCE_MILLIS);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown parameter " + parameter);
+                }
+                index++;
+            }
+            return index;
+        }
+
+        private Instant lease(Instant leaseUntil) {
+            if (leaseUntil == null) {
+                throw new IllegalArgumentException("Statement " + sql + " needs leaseUntil");
+            }
+            return leaseUntil;
+        }
+
+        private void setTime(PreparedStatement statement, int index, Instant time, Calendar calendar) throws SQLException {
+            if (epochMillis) {
+                statement.setLong(index, time.toEpochMilli());
+            } else if (calendar == null) {
+                statement.setTimestamp(index, DateTimeUtils.toSqlTimestamp(time));
+            } else {
+                statement.setTimestamp(index, DateTimeUtils.toSqlTimestamp(time), calendar);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return sql + " " + Arrays.toString(parameters.toArray());
+        }
+    }
+}
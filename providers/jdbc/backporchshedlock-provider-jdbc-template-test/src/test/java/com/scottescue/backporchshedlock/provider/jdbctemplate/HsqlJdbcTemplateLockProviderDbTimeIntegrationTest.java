@@ -0,0 +1,75 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.provider.jdbctemplate;
+
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.core.ClockProvider;
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import com.scottescue.backporchshedlock.core.SimpleLock;
+import com.scottescue.backporchshedlock.support.StorageBasedLockProvider;
+import com.scottescue.backporchshedlock.test.support.jdbc.AbstractHsqlJdbcLockProviderIntegrationTest;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.threeten.bp.Clock;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+
+import java.util.TimeZone;
+
+import static com.scottescue.backporchshedlock.provider.jdbctemplate.JdbcTemplateLockProvider.Configuration.builder;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HsqlJdbcTemplateLockProviderDbTimeIntegrationTest extends AbstractHsqlJdbcLockProviderIntegrationTest {
+
+    @Override
+    protected StorageBasedLockProvider getLockProvider() {
+        return new JdbcTemplateLockProvider(builder()
+            .withJdbcTemplate(new JdbcTemplate(getDatasource()))
+            .usingDbTime()
+            .build()
+        );
+    }
+
+    @After
+    public void resetClock() {
+        ClockProvider.setClock(Clock.systemUTC());
+    }
+
+    @Test
+    public void shouldUseDatabaseTimeIfClientClockIsAhead() {
+        ClockProvider.setClock(Clock.offset(Clock.systemUTC(), Duration.ofHours(1)));
+        Instant now = ClockProvider.now();
+        StorageBasedLockProvider provider = getLockProvider();
+
+        Optional<SimpleLock> lock = provider.lock(new LockConfiguration(LOCK_NAME1, now.plusSeconds(60), now));
+        assertThat(lock.isPresent()).isTrue();
+        assertLocked(LOCK_NAME1);
+        assertThat(provider.lock(new LockConfiguration(LOCK_NAME1, now.plusSeconds(60), now)).isPresent()).isFalse();
+
+        lock.get().unlock();
+        assertUnlocked(LOCK_NAME1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAllowTimeZoneWithDbTime() {
+        builder()
+            .withJdbcTemplate(new JdbcTemplate(getDatasource()))
+            .withTimeZone(TimeZone.getTimeZone("UTC"))
+            .usingDbTime()
+            .build();
+    }
+}
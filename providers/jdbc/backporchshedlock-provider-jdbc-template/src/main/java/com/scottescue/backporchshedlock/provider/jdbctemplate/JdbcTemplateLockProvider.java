@@ -23,6 +23,10 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.transaction.PlatformTransactionManager;
 
 import javax.sql.DataSource;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.TimeZone;
 
 import static org.threeten.bp.jdk8.Jdk8Methods.requireNonNull;
@@ -38,6 +42,14 @@ import static org.threeten.bp.jdk8.Jdk8Methods.requireNonNull;
  * If the insert succeeds (1 inserted row) we have the lock.
  * </li>
  * <li>
+ * On databases that support it (H2, HSQLDB, PostgreSQL, Oracle, SQL Server) the insert is an upsert (MERGE or INSERT ... ON CONFLICT DO UPDATE)
+ * that also takes over an existing record if lock_until &lt;= :now. The lock is then obtained or refused in a single statement.
+ * </li>
+ * <li>
+ * On MySQL and Derby the insert is INSERT ... SELECT ... WHERE NOT EXISTS, it inserts no row instead of failing if the record
+ * already exists.
+ * </li>
+ * <li>
  * If the insert failed due to duplicate key or we have skipped the insertion, we will try to update lock record using
  * UPDATE tableName SET lock_until = :lockUntil WHERE name = :lockName AND lock_until &lt;= :now
  * </li>
@@ -48,6 +60,19 @@ import static org.threeten.bp.jdk8.Jdk8Methods.requireNonNull;
  * When unlocking, lock_until is set to now.
  * </li>
  * </ol>
+ * By default, :now and :lockUntil are computed from the clock of this JVM. If the clocks of the nodes can not be kept
+ * in sync, use {@link Configuration.Builder#usingDbTime()} to evaluate them on the database server instead
+ * (H2, HSQLDB, MySQL, PostgreSQL, Oracle and SQL Server).
+ * <p>
+ * lock_until and locked_at are TIMESTAMP columns by default. Use {@link Configuration.Builder#usingEpochMillis()} if
+ * they are BIGINT columns holding epoch milliseconds.
+ * <p>
+ * Long lock names make the primary key index wide. With {@link Configuration.Builder#usingHashedNames()} the name
+ * column holds a fixed width hash of the name, CHAR(32) is enough, and the full name goes to the
+ * {@link ColumnNames#getFullName() full name} column that is not indexed.
+ * <p>
+ * The records of the locks listed in {@link Configuration.Builder#withKnownLockNames(Collection)} are created on the
+ * first lock attempt, using one SELECT and one batch of inserts, instead of one insert per lock.
  */
 public class JdbcTemplateLockProvider extends StorageBasedLockProvider {
 
@@ -84,6 +109,7 @@ public class JdbcTemplateLockProvider extends StorageBasedLockProvider {
 
     public JdbcTemplateLockProvider(@NotNull Configuration configuration) {
         super(new JdbcTemplateStorageAccessor(configuration));
+        setKnownLockNames(configuration.getKnownLockNames());
     }
 
     public static class Configuration {
@@ -93,6 +119,10 @@ public class JdbcTemplateLockProvider extends StorageBasedLockProvider {
         private final TimeZone timeZone;
         private final ColumnNames columnNames;
         private final String lockedByValue;
+        private final boolean useDbTime;
+        private final boolean useEpochMillis;
+        private final boolean useHashedNames;
+        private final Set<String> knownLockNames;
 
         Configuration(
             @NotNull JdbcTemplate jdbcTemplate,
@@ -100,13 +130,28 @@ public class JdbcTemplateLockProvider extends StorageBasedLockProvider {
             @NotNull String tableName,
             @Nullable TimeZone timeZone,
             @NotNull ColumnNames columnNames,
-            @NotNull String lockedByValue) {
+            @NotNull String lockedByValue,
+            boolean useDbTime,
+            boolean useEpochMillis,
+            boolean useHashedNames,
+            @NotNull Collection<String> knownLockNames) {
             this.jdbcTemplate = requireNonNull(jdbcTemplate, "jdbcTemplate can not be null");
             this.transactionManager = transactionManager;
             this.tableName = requireNonNull(tableName, "tableName can not be null");
             this.timeZone = timeZone;
             this.columnNames = requireNonNull(columnNames, "columnNames can not be null");
             this.lockedByValue = requireNonNull(lockedByValue, "lockedByValue can not be null");
+            if (useDbTime && timeZone != null) {
+                throw new IllegalArgumentException("Can not set both useDbTime and timeZone");
+            }
+            this.useDbTime = useDbTime;
+            if (useEpochMillis && (useDbTime || timeZone != null)) {
+                throw new IllegalArgumentException("Can not set useEpochMillis together with useDbTime or timeZone");
+            }
+            this.useEpochMillis = useEpochMillis;
+            this.useHashedNames = useHashedNames;
+            requireNonNull(knownLockNames, "knownLockNames can not be null");
+            this.knownLockNames = Collections.unmodifiableSet(new LinkedHashSet<String>(knownLockNames));
         }
 
         public JdbcTemplate getJdbcTemplate() {
@@ -133,6 +178,22 @@ public class JdbcTemplateLockProvider extends StorageBasedLockProvider {
             return lockedByValue;
         }
 
+        public boolean getUseDbTime() {
+            return useDbTime;
+        }
+
+        public boolean getUseEpochMillis() {
+            return useEpochMillis;
+        }
+
+        public boolean getUseHashedNames() {
+            return useHashedNames;
+        }
+
+        public Set<String> getKnownLockNames() {
+            return knownLockNames;
+        }
+
         public static Configuration.Builder builder() {
             return new Configuration.Builder();
         }
@@ -144,6 +205,10 @@ public class JdbcTemplateLockProvider extends StorageBasedLockProvider {
             private TimeZone timeZone;
             private String lockedByValue = Utils.getHostname();
             private ColumnNames columnNames = new ColumnNames("name", "lock_until", "locked_at", "locked_by");
+            private boolean useDbTime;
+            private boolean useEpochMillis;
+            private boolean useHashedNames;
+            private Collection<String> knownLockNames = Collections.emptySet();
 
             public Builder withJdbcTemplate(@NotNull JdbcTemplate jdbcTemplate) {
                 this.jdbcTemplate = jdbcTemplate;
@@ -178,8 +243,49 @@ public class JdbcTemplateLockProvider extends StorageBasedLockProvider {
                 return this;
             }
 
+            /**
+             * Evaluates the current time on the database server instead of using the clock of this JVM. Supported on
+             * H2, HSQLDB, MySQL, PostgreSQL, Oracle and SQL Server. The database type is detected when the provider is
+             * created, the provider throws {@link IllegalArgumentException} on other databases. Can not be combined with
+             * {@link #withTimeZone(TimeZone)}.
+             */
+            public Builder usingDbTime() {
+                this.useDbTime = true;
+                return this;
+            }
+
+            /**
+             * lock_until and locked_at are BIGINT columns holding milliseconds since the epoch instead of TIMESTAMP
+             * columns. Can not be combined with {@link #usingDbTime()} or {@link #withTimeZone(TimeZone)}.
+             */
+            public Builder usingEpochMillis() {
+                this.useEpochMillis = true;
+                return this;
+            }
+
+            /**
+             * The name column holds the first 128 bits of SHA-256 of the lock name as 32 hex digits, the full name is
+             * stored in the {@link ColumnNames#getFullName() full name} column that is not part of the primary key.
+             * The first time a lock can not be obtained, the stored full name is compared with the lock name and a hash
+             * collision is logged as an error.
+             */
+            public Builder usingHashedNames() {
+                this.useHashedNames = true;
+                return this;
+            }
+
+            /**
+             * Names of the locks used by the application. Their records are created on the first lock attempt, using
+             * one SELECT and one batch of inserts.
+             */
+            public Builder withKnownLockNames(@NotNull Collection<String> knownLockNames) {
+                this.knownLockNames = knownLockNames;
+                return this;
+            }
+
             public JdbcTemplateLockProvider.Configuration build() {
-                return new JdbcTemplateLockProvider.Configuration(jdbcTemplate, transactionManager, tableName, timeZone, columnNames, lockedByValue);
+                return new JdbcTemplateLockProvider.Configuration(jdbcTemplate, transactionManager, tableName, timeZone, columnNames, lockedByValue,
+                    useDbTime, useEpochMillis, useHashedNames, knownLockNames);
             }
         }
 
@@ -190,12 +296,21 @@ public class JdbcTemplateLockProvider extends StorageBasedLockProvider {
         private final String lockUntil;
         private final String lockedAt;
         private final String lockedBy;
+        private final String fullName;
 
         public ColumnNames(String name, String lockUntil, String lockedAt, String lockedBy) {
+            this(name, lockUntil, lockedAt, lockedBy, "full_name");
+        }
+
+        /**
+         * @param fullName column of the full lock name, only used with {@link Configuration.Builder#usingHashedNames()}
+         */
+        public ColumnNames(String name, String lockUntil, String lockedAt, String lockedBy, String fullName) {
             this.name = requireNonNull(name, "'name' column name can not be null");
             this.lockUntil = requireNonNull(lockUntil, "'lockUntil' column name can not be null");
             this.lockedAt = requireNonNull(lockedAt, "'lockedAt' column name can not be null");
             this.lockedBy = requireNonNull(lockedBy, "'lockedBy' column name can not be null");
+            this.fullName = requireNonNull(fullName, "'fullName' column name can not be null");
         }
 
         public String getName() {
@@ -213,6 +328,10 @@ public class JdbcTemplateLockProvider extends StorageBasedLockProvider {
         public String getLockedBy() {
             return lockedBy;
         }
+
+        public String getFullName() {
+            return fullName;
+        }
     }
 
 }
@@ -15,13 +15,23 @@
  */
 package com.scottescue.backporchshedlock.provider.jdbctemplate;
 
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.core.ClockProvider;
 import com.scottescue.backporchshedlock.core.LockConfiguration;
+import com.scottescue.backporchshedlock.provider.jdbc.internal.FullNameVerifier;
+import com.scottescue.backporchshedlock.provider.jdbc.internal.SqlDialect;
+import com.scottescue.backporchshedlock.provider.jdbc.internal.SqlStatements;
+import com.scottescue.backporchshedlock.provider.jdbc.internal.SqlStatements.SqlStatement;
 import com.scottescue.backporchshedlock.support.AbstractStorageAccessor;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
@@ -33,47 +43,76 @@ import org.threeten.bp.DateTimeUtils;
 import org.threeten.bp.Instant;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 
 import static org.threeten.bp.jdk8.Jdk8Methods.requireNonNull;
 
 /**
- * Spring JdbcTemplate based implementation usable in JTA environment
+ * Spring JdbcTemplate based implementation usable in JTA environment. Public to be used as a shard of a
+ * {@link com.scottescue.backporchshedlock.support.ShardedLockProvider}.
  */
-class JdbcTemplateStorageAccessor extends AbstractStorageAccessor {
+public class JdbcTemplateStorageAccessor extends AbstractStorageAccessor {
+    /**
+     * Keeps the IN list well below the limits of the databases (1000 in Oracle).
+     */
+    private static final int MAX_NAMES_PER_STATEMENT = 500;
+
     private final JdbcTemplate jdbcTemplate;
     private final TransactionTemplate transactionTemplate;
     private final JdbcTemplateLockProvider.Configuration configuration;
+    // null if no calendar is needed, epoch millis columns are bound as numbers
+    private final TimeZone calendarTimeZone;
+    private final FullNameVerifier fullNameVerifier = new FullNameVerifier();
+    private volatile SqlStatements sqlStatements;
 
-    JdbcTemplateStorageAccessor(@NotNull JdbcTemplateLockProvider.Configuration configuration) {
+    public JdbcTemplateStorageAccessor(@NotNull JdbcTemplateLockProvider.Configuration configuration) {
         this.configuration = requireNonNull(configuration, "configuration can not be null");
         this.jdbcTemplate = configuration.getJdbcTemplate();
+        this.calendarTimeZone = configuration.getUseEpochMillis() ? null : configuration.getTimeZone();
         PlatformTransactionManager transactionManager = configuration.getTransactionManager() != null ?
             configuration.getTransactionManager() :
             new DataSourceTransactionManager(jdbcTemplate.getDataSource());
 
         this.transactionTemplate = new TransactionTemplate(transactionManager);
         this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        if (configuration.getUseDbTime()) {
+            // an unsupported database is rejected here, instead of failing every lock attempt
+            this.sqlStatements = newSqlStatements(SqlDialect.forDbTime(jdbcTemplate.getDataSource()));
+        }
+    }
+
+    @Override
+    public boolean supportsUpsert() {
+        return getSqlStatements().supportsUpsert();
     }
 
     @SuppressWarnings("ConstantConditions")
     @Override
     public boolean insertRecord(@NotNull final LockConfiguration lockConfiguration) {
-        final String sql = "INSERT INTO " + tableName() + "(" + name() + ", " + lockUntil() + ", " + lockedAt() + ", " + lockedBy() + ") VALUES(?, ?, ?, ?)";
+        // Insert the record or take over an expired one in one statement if the database supports it
+        boolean upsert = supportsUpsert();
+        final SqlStatement sqlStatement = upsert ? getSqlStatements().upsert() : getSqlStatements().insert();
 
-        return transactionTemplate.execute(new TransactionCallback<Boolean>() {
+        boolean inserted = transactionTemplate.execute(new TransactionCallback<Boolean>() {
             @Override
             public Boolean doInTransaction(@NotNull TransactionStatus transactionStatus) {
                 try {
-                    int insertedRows = jdbcTemplate.update(sql, new PreparedStatementSetter() {
+                    int insertedRows = jdbcTemplate.update(sqlStatement.getSql(), new PreparedStatementSetter() {
                         @Override
                         public void setValues(@NotNull PreparedStatement preparedStatement) throws SQLException {
-                            preparedStatement.setString(1, lockConfiguration.getName());
-                            setTimestamp(preparedStatement, 2, lockConfiguration.getLockAtMostUntil());
-                            setTimestamp(preparedStatement, 3, Instant.now());
-                            preparedStatement.setString(4, lockedByValue());
+                            bind(preparedStatement, sqlStatement, lockConfiguration, ClockProvider.now());
                         }
                     });
                     return insertedRows > 0;
@@ -85,49 +124,162 @@ class JdbcTemplateStorageAccessor extends AbstractStorageAccessor {
                 }
             }
         });
+        if (!inserted && upsert) {
+            // the record has not been taken over, it is not updated afterwards
+            verifyFullNames(Collections.singletonList(lockConfiguration.getName()));
+        }
+        return inserted;
+    }
+
+    /**
+     * Upserts the records in one JDBC batch. Without upsert support, or if a concurrent upsert has inserted one of the
+     * records, the records are inserted one by one.
+     */
+    @NotNull
+    @Override
+    public Set<String> insertRecords(@NotNull Collection<LockConfiguration> lockConfigurations) {
+        if (!supportsUpsert()) {
+            return super.insertRecords(lockConfigurations);
+        }
+
+        final SqlStatement sqlStatement = getSqlStatements().upsert();
+        final List<LockConfiguration> configurations = new ArrayList<LockConfiguration>(lockConfigurations);
+        Set<String> inserted;
+        try {
+            inserted = transactionTemplate.execute(new TransactionCallback<Set<String>>() {
+                @Override
+                public Set<String> doInTransaction(@NotNull TransactionStatus transactionStatus) {
+                    final Instant now = ClockProvider.now();
+                    int[] updateCounts = jdbcTemplate.batchUpdate(sqlStatement.getSql(), new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(@NotNull PreparedStatement preparedStatement, int i) throws SQLException {
+                            bind(preparedStatement, sqlStatement, configurations.get(i), now);
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return configurations.size();
+                        }
+                    });
+                    return affectedNames(configurations, updateCounts);
+                }
+            });
+        } catch (DataIntegrityViolationException e) {
+            // the whole batch has been rolled back
+            logger.debug("Batch upsert failed, upserting one by one", e);
+            return super.insertRecords(configurations);
+        }
+        verifyFullNames(refusedNames(configurations, inserted));
+        return inserted;
     }
 
     @SuppressWarnings("ConstantConditions")
     @Override
     public boolean updateRecord(@NotNull final LockConfiguration lockConfiguration) {
-        final String sql = "UPDATE " + tableName()
-            + " SET " + lockUntil() + " = ?, " + lockedAt() + " = ?, " + lockedBy() + " = ? WHERE " + name() + " = ? AND " + lockUntil() + " <= ?";
-        return transactionTemplate.execute(new TransactionCallback<Boolean>() {
+        final SqlStatement sqlStatement = getSqlStatements().update();
+        boolean updated = transactionTemplate.execute(new TransactionCallback<Boolean>() {
             @Override
             public Boolean doInTransaction(@NotNull TransactionStatus transactionStatus) {
-                int updatedRows = jdbcTemplate.update(sql, new PreparedStatementSetter() {
+                int updatedRows = jdbcTemplate.update(sqlStatement.getSql(), new PreparedStatementSetter() {
                     @Override
                     public void setValues(@NotNull PreparedStatement statement) throws SQLException {
-                        Instant now = Instant.now();
-                        setTimestamp(statement, 1, lockConfiguration.getLockAtMostUntil());
-                        setTimestamp(statement, 2, now);
-                        statement.setString(3, lockedByValue());
-                        statement.setString(4, lockConfiguration.getName());
-                        setTimestamp(statement, 5, now);
+                        bind(statement, sqlStatement, lockConfiguration, ClockProvider.now());
                     }
                 });
                 return updatedRows > 0;
             }
         });
+        if (!updated) {
+            verifyFullNames(Collections.singletonList(lockConfiguration.getName()));
+        }
+        return updated;
+    }
+
+    /**
+     * Updates the records in one JDBC batch.
+     */
+    @NotNull
+    @Override
+    public Set<String> updateRecords(@NotNull Collection<LockConfiguration> lockConfigurations) {
+        final SqlStatement sqlStatement = getSqlStatements().update();
+        final List<LockConfiguration> configurations = new ArrayList<LockConfiguration>(lockConfigurations);
+        Set<String> updated = transactionTemplate.execute(new TransactionCallback<Set<String>>() {
+            @Override
+            public Set<String> doInTransaction(@NotNull TransactionStatus transactionStatus) {
+                final Instant now = ClockProvider.now();
+                int[] updateCounts = jdbcTemplate.batchUpdate(sqlStatement.getSql(), new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(@NotNull PreparedStatement statement, int i) throws SQLException {
+                        bind(statement, sqlStatement, configurations.get(i), now);
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return configurations.size();
+                    }
+                });
+                return affectedNames(configurations, updateCounts);
+            }
+        });
+        verifyFullNames(refusedNames(configurations, updated));
+        return updated;
+    }
+
+    private static List<String> refusedNames(List<LockConfiguration> configurations, Set<String> obtained) {
+        List<String> refused = new ArrayList<String>();
+        for (LockConfiguration lockConfiguration : configurations) {
+            if (!obtained.contains(lockConfiguration.getName())) {
+                refused.add(lockConfiguration.getName());
+            }
+        }
+        return refused;
+    }
+
+    /**
+     * With hashed names, checks that the records of the locks that have not been obtained belong to them, see
+     * {@link FullNameVerifier}. Uses one SELECT per {@value #MAX_NAMES_PER_STATEMENT} names not checked yet.
+     */
+    private void verifyFullNames(List<String> names) {
+        if (!configuration.getUseHashedNames() || names.isEmpty()) {
+            return;
+        }
+        List<String> toCheck = fullNameVerifier.toCheck(names);
+        final Instant now = ClockProvider.now();
+        try {
+            for (int from = 0; from < toCheck.size(); from += MAX_NAMES_PER_STATEMENT) {
+                final Map<String, String> chunk = byKey(toCheck.subList(from, Math.min(from + MAX_NAMES_PER_STATEMENT, toCheck.size())));
+                final SqlStatement sqlStatement = getSqlStatements().selectFullNames(chunk.size());
+                jdbcTemplate.query(sqlStatement.getSql(), new PreparedStatementSetter() {
+                    @Override
+                    public void setValues(@NotNull PreparedStatement statement) throws SQLException {
+                        bindKeys(statement, sqlStatement, chunk.keySet(), now, now);
+                    }
+                }, new RowCallbackHandler() {
+                    @Override
+                    public void processRow(@NotNull ResultSet resultSet) throws SQLException {
+                        fullNameVerifier.verify(chunk.get(resultSet.getString(1)), resultSet.getString(2));
+                    }
+                });
+            }
+        } catch (DataAccessException e) {
+            // only a diagnostic, the names are not checked again
+            logger.debug("Can not verify full names of locks {}", toCheck, e);
+        }
     }
 
     @SuppressWarnings("ConstantConditions")
     @Override
     public boolean extend(@NotNull final LockConfiguration lockConfiguration) {
-        final String sql = "UPDATE " + tableName()
-            + " SET " + lockUntil() + " = ? WHERE " + name() + " = ? AND " + lockedBy() + " = ? AND " + lockUntil() + " > ? ";
+        final SqlStatement sqlStatement = getSqlStatements().extend();
 
         logger.debug("Extending lock={} until={}", lockConfiguration.getName(), lockConfiguration.getLockAtMostUntil());
         return transactionTemplate.execute(new TransactionCallback<Boolean>() {
             @Override
             public Boolean doInTransaction(@NotNull TransactionStatus transactionStatus) {
-                int updatedRows = jdbcTemplate.update(sql, new PreparedStatementSetter() {
+                int updatedRows = jdbcTemplate.update(sqlStatement.getSql(), new PreparedStatementSetter() {
                     @Override
                     public void setValues(@NotNull PreparedStatement statement) throws SQLException {
-                        setTimestamp(statement, 1, lockConfiguration.getLockAtMostUntil());
-                        statement.setString(2, lockConfiguration.getName());
-                        statement.setString(3, lockedByValue());
-                        setTimestamp(statement, 4, Instant.now());
+                        bind(statement, sqlStatement, lockConfiguration, ClockProvider.now());
                     }
                 });
                 return updatedRows > 0;
@@ -135,32 +287,275 @@ class JdbcTemplateStorageAccessor extends AbstractStorageAccessor {
         });
     }
 
-    private void setTimestamp(PreparedStatement preparedStatement, int parameterIndex, Instant time) throws SQLException {
-        TimeZone timeZone = configuration.getTimeZone();
-        if (timeZone == null) {
-            preparedStatement.setTimestamp(parameterIndex, DateTimeUtils.toSqlTimestamp(time));
-        } else {
-            preparedStatement.setTimestamp(parameterIndex, DateTimeUtils.toSqlTimestamp(time), Calendar.getInstance(timeZone));
+    /**
+     * Extends the records using one UPDATE per {@value #MAX_NAMES_PER_STATEMENT} names. Only if the UPDATE has not
+     * extended all the records, the names of the extended ones are read back. lock_until has to be within
+     * {@value SqlStatements#LEASE_TOLERANCE_MILLIS} ms of leaseUntil.
+     */
+    @NotNull
+    @Override
+    public Set<String> extendRecords(@NotNull Collection<String> names, @NotNull final Instant leaseUntil, @NotNull final Instant lockUntil) {
+        final List<String> nameList = new ArrayList<String>(new LinkedHashSet<String>(names));
+        return transactionTemplate.execute(new TransactionCallback<Set<String>>() {
+            @Override
+            public Set<String> doInTransaction(@NotNull TransactionStatus transactionStatus) {
+                final Instant now = ClockProvider.now();
+                Set<String> extended = new LinkedHashSet<String>();
+                for (int from = 0; from < nameList.size(); from += MAX_NAMES_PER_STATEMENT) {
+                    final Map<String, String> chunk = byKey(nameList.subList(from, Math.min(from + MAX_NAMES_PER_STATEMENT, nameList.size())));
+                    final SqlStatement updateStatement = getSqlStatements().extendAll(chunk.size());
+                    int updatedRows = jdbcTemplate.update(updateStatement.getSql(), new PreparedStatementSetter() {
+                        @Override
+                        public void setValues(@NotNull PreparedStatement statement) throws SQLException {
+                            bindKeys(statement, updateStatement, chunk.keySet(), leaseUntil, lockUntil, now);
+                        }
+                    });
+                    if (updatedRows >= chunk.size()) {
+                        extended.addAll(chunk.values());
+                        continue;
+                    }
+
+                    // some of the locks have been lost, lock_until of the others is in the future now
+                    final SqlStatement selectStatement = getSqlStatements().selectHeld(chunk.size());
+                    extended.addAll(jdbcTemplate.query(selectStatement.getSql(), new PreparedStatementSetter() {
+                        @Override
+                        public void setValues(@NotNull PreparedStatement statement) throws SQLException {
+                            // the extended records have the new lock_until now
+                            bindKeys(statement, selectStatement, chunk.keySet(), lockUntil, lockUntil, now);
+                        }
+                    }, new RowMapper<String>() {
+                        @Override
+                        public String mapRow(@NotNull ResultSet resultSet, int rowNum) throws SQLException {
+                            return chunk.get(resultSet.getString(1));
+                        }
+                    }));
+                }
+                return extended;
+            }
+        });
+    }
+
+    /**
+     * Reads the existing records using one SELECT per {@value #MAX_NAMES_PER_STATEMENT} names and inserts the missing
+     * ones, unlocked, in one JDBC batch.
+     */
+    @NotNull
+    @Override
+    public Set<String> createRecords(@NotNull Collection<String> names) {
+        final List<String> nameList = new ArrayList<String>(new LinkedHashSet<String>(names));
+        final Set<String> existing = new LinkedHashSet<String>();
+        final Instant now = ClockProvider.now();
+        for (int from = 0; from < nameList.size(); from += MAX_NAMES_PER_STATEMENT) {
+            final Map<String, String> chunk = byKey(nameList.subList(from, Math.min(from + MAX_NAMES_PER_STATEMENT, nameList.size())));
+            final SqlStatement sqlStatement = getSqlStatements().selectExisting(chunk.size());
+            existing.addAll(jdbcTemplate.query(sqlStatement.getSql(), new PreparedStatementSetter() {
+                @Override
+                public void setValues(@NotNull PreparedStatement statement) throws SQLException {
+                    bindKeys(statement, sqlStatement, chunk.keySet(), now, now);
+                }
+            }, new RowMapper<String>() {
+                @Override
+                public String mapRow(@NotNull ResultSet resultSet, int rowNum) throws SQLException {
+                    return chunk.get(resultSet.getString(1));
+                }
+            }));
         }
+
+        final List<String> missing = new ArrayList<String>();
+        for (String name : nameList) {
+            if (!existing.contains(name)) {
+                missing.add(name);
+            }
+        }
+        if (missing.isEmpty()) {
+            return existing;
+        }
+
+        // lock_until = now, the records are not locked
+        final SqlStatement sqlStatement = getSqlStatements().insert();
+        try {
+            transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(@NotNull TransactionStatus status) {
+                    jdbcTemplate.batchUpdate(sqlStatement.getSql(), new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(@NotNull PreparedStatement statement, int i) throws SQLException {
+                            sqlStatement.bind(statement, missing.get(i), lockedByValue(), now, now, calendar());
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return missing.size();
+                        }
+                    });
+                }
+            });
+            // a record not inserted by the batch has been inserted by someone else in the meantime
+            existing.addAll(missing);
+        } catch (DataIntegrityViolationException e) {
+            // another node has inserted one of the records and the batch has been rolled back, the missing records
+            // are created on the first lock attempt
+            logger.debug("Can not insert lock records", e);
+        }
+        return existing;
+    }
+
+    /**
+     * Selects up to limit names of the expired records and deletes them with one DELETE per
+     * {@value #MAX_NAMES_PER_STATEMENT} names. The DELETE checks lock_until again, so a record locked in the meantime
+     * is not deleted.
+     */
+    @NotNull
+    @Override
+    public Set<String> deleteExpiredRecords(@NotNull final Instant expiredBefore, final int limit) {
+        final Instant now = ClockProvider.now();
+        final SqlStatement selectStatement = getSqlStatements().selectExpired();
+        final Map<String, String> expired = new LinkedHashMap<String, String>();
+        jdbcTemplate.query(selectStatement.getSql(), new PreparedStatementSetter() {
+            @Override
+            public void setValues(@NotNull PreparedStatement statement) throws SQLException {
+                statement.setMaxRows(limit);
+                selectStatement.bind(statement, null, lockedByValue(), expiredBefore, now, calendar());
+            }
+        }, new RowCallbackHandler() {
+            @Override
+            public void processRow(@NotNull ResultSet resultSet) throws SQLException {
+                String key = resultSet.getString(1);
+                String fullName = configuration.getUseHashedNames() ? resultSet.getString(2) : null;
+                expired.put(key, fullName != null ? fullName : key);
+            }
+        });
+        if (expired.isEmpty()) {
+            return new LinkedHashSet<String>();
+        }
+
+        final List<String> keys = new ArrayList<String>(expired.keySet());
+
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(@NotNull TransactionStatus status) {
+                for (int from = 0; from < keys.size(); from += MAX_NAMES_PER_STATEMENT) {
+                    final List<String> chunk = keys.subList(from, Math.min(from + MAX_NAMES_PER_STATEMENT, keys.size()));
+                    final SqlStatement deleteStatement = getSqlStatements().deleteExpired(chunk.size());
+                    jdbcTemplate.update(deleteStatement.getSql(), new PreparedStatementSetter() {
+                        @Override
+                        public void setValues(@NotNull PreparedStatement statement) throws SQLException {
+                            bindKeys(statement, deleteStatement, chunk, expiredBefore, now);
+                        }
+                    });
+                }
+            }
+        });
+        return new LinkedHashSet<String>(expired.values());
+    }
+
+    /**
+     * Maps the values of the name column to the lock names, see {@link SqlStatements#toKey(String)}.
+     */
+    private Map<String, String> byKey(List<String> names) {
+        Map<String, String> byKey = new LinkedHashMap<String, String>();
+        for (String name : names) {
+            byKey.put(getSqlStatements().toKey(name), name);
+        }
+        return byKey;
+    }
+
+    private void bindKeys(PreparedStatement statement, SqlStatement sqlStatement, Collection<String> keys, Instant lockUntil, Instant now) throws SQLException {
+        bindKeys(statement, sqlStatement, keys, null, lockUntil, now);
+    }
+
+    private void bindKeys(PreparedStatement statement, SqlStatement sqlStatement, Collection<String> keys, Instant leaseUntil, Instant lockUntil,
+                          Instant now) throws SQLException {
+        int index = sqlStatement.bind(statement, null, lockedByValue(), leaseUntil, lockUntil, now, calendar());
+        for (String key : keys) {
+            statement.setString(index++, key);
+        }
+    }
+
+    @NotNull
+    @Override
+    public Optional<Instant> getLockUntil(@NotNull final String name) {
+        final SqlStatement sqlStatement = getSqlStatements().selectLockUntil();
+        final Instant now = ClockProvider.now();
+        try {
+            List<Instant> lockUntil = jdbcTemplate.query(sqlStatement.getSql(), new PreparedStatementSetter() {
+                @Override
+                public void setValues(@NotNull PreparedStatement statement) throws SQLException {
+                    sqlStatement.bind(statement, name, lockedByValue(), now, now, calendar());
+                }
+            }, new RowMapper<Instant>() {
+                @Override
+                public Instant mapRow(@NotNull ResultSet resultSet, int rowNum) throws SQLException {
+                    Instant lockUntil = getSqlStatements().readTime(resultSet, 1, calendar());
+                    if (lockUntil != null && getSqlStatements().isUsingDbTime()) {
+                        return SqlStatements.toClientTime(lockUntil, DateTimeUtils.toInstant(resultSet.getTimestamp(2)), now);
+                    }
+                    return lockUntil;
+                }
+            });
+            if (!lockUntil.isEmpty() && lockUntil.get(0) != null) {
+                return Optional.of(lockUntil.get(0));
+            }
+        } catch (DataAccessException e) {
+            // we will just try to obtain the lock next time
+            logger.debug("Can not read lock_until of lock '{}'", name, e);
+        }
+        return Optional.empty();
+    }
+
+    private void bind(PreparedStatement statement, SqlStatement sqlStatement, LockConfiguration lockConfiguration, Instant now) throws SQLException {
+        sqlStatement.bind(statement, lockConfiguration.getName(), lockedByValue(), lockConfiguration.getLockAtMostUntil(), now, calendar());
+    }
+
+    private Set<String> affectedNames(List<LockConfiguration> configurations, int[] updateCounts) {
+        Set<String> names = new LinkedHashSet<String>();
+        for (int i = 0; i < updateCounts.length && i < configurations.size(); i++) {
+            if (updateCounts[i] > 0) {
+                names.add(configurations.get(i).getName());
+            } else if (updateCounts[i] == Statement.SUCCESS_NO_INFO) {
+                // we can not tell if we have the lock, let's be on the safe side
+                logger.warn("JDBC driver did not report update count for lock '{}', considering it not locked", configurations.get(i).getName());
+            }
+        }
+        return names;
+    }
+
+    private Calendar calendar() {
+        return calendarTimeZone == null ? null : Calendar.getInstance(calendarTimeZone);
     }
 
     @Override
     public void unlock(@NotNull final LockConfiguration lockConfiguration) {
-        final String sql = "UPDATE " + tableName() + " SET " + lockUntil() + " = ? WHERE " + name() + " = ?";
+        final SqlStatement sqlStatement = getSqlStatements().unlock();
         transactionTemplate.execute(new TransactionCallbackWithoutResult() {
             @Override
             protected void doInTransactionWithoutResult(@NotNull TransactionStatus status) {
-                jdbcTemplate.update(sql, new PreparedStatementSetter() {
+                jdbcTemplate.update(sqlStatement.getSql(), new PreparedStatementSetter() {
                     @Override
                     public void setValues(@NotNull PreparedStatement statement) throws SQLException {
-                        setTimestamp(statement, 1, lockConfiguration.getUnlockTime());
-                        statement.setString(2, lockConfiguration.getName());
+                        sqlStatement.bind(statement, lockConfiguration.getName(), lockedByValue(), lockConfiguration.getUnlockTime(),
+                            ClockProvider.now(), calendar());
                     }
                 });
             }
         });
     }
 
+    private SqlStatements getSqlStatements() {
+        // the dialect is detected lazily, we do not want to touch the database when the lock provider is being created
+        SqlStatements statements = sqlStatements;
+        if (statements == null) {
+            statements = newSqlStatements(SqlDialect.forDataSource(jdbcTemplate.getDataSource()));
+            sqlStatements = statements;
+        }
+        return statements;
+    }
+
+    private SqlStatements newSqlStatements(SqlDialect dialect) {
+        return new SqlStatements(dialect, tableName(), name(), lockUntil(), lockedAt(), lockedBy(), configuration.getUseDbTime(),
+            configuration.getUseEpochMillis(), configuration.getUseHashedNames() ? configuration.getColumnNames().getFullName() : null);
+    }
+
     private String name() {
         return configuration.getColumnNames().getName();
     }
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.provider.jdbc;
+
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.core.ClockProvider;
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import com.scottescue.backporchshedlock.core.SimpleLock;
+import com.scottescue.backporchshedlock.support.StorageBasedLockProvider;
+import com.scottescue.backporchshedlock.test.support.jdbc.AbstractH2JdbcLockProviderIntegrationTest;
+import org.junit.After;
+import org.junit.Test;
+import org.threeten.bp.Clock;
+import org.threeten.bp.Duration;
+import org.threeten.bp.Instant;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class H2JdbcLockProviderDbTimeIntegrationTest extends AbstractH2JdbcLockProviderIntegrationTest {
+
+    @Override
+    protected StorageBasedLockProvider getLockProvider() {
+        return new JdbcLockProvider(testUtils.getDatasource(), "shedlock", true);
+    }
+
+    @After
+    public void resetClock() {
+        ClockProvider.setClock(Clock.systemUTC());
+    }
+
+    @Test
+    public void shouldUseDatabaseTimeIfClientClockIsBehind() {
+        ClockProvider.setClock(Clock.offset(Clock.systemUTC(), Duration.ofHours(-1)));
+        Instant now = ClockProvider.now();
+        StorageBasedLockProvider provider = getLockProvider();
+
+        Optional<SimpleLock> lock = provider.lock(new LockConfiguration(LOCK_NAME1, now.plusSeconds(60), now));
+        assertThat(lock.isPresent()).isTrue();
+        assertLocked(LOCK_NAME1);
+
+        // lock_until is reported in client time
+        Instant lockUntil = provider.getLockUntil(LOCK_NAME1).get();
+        assertThat(lockUntil.toEpochMilli()).isBetween(now.plusSeconds(50).toEpochMilli(), ClockProvider.now().plusSeconds(70).toEpochMilli());
+
+        lock.get().unlock();
+        assertUnlocked(LOCK_NAME1);
+    }
+
+    @Test
+    public void shouldNotDeleteHeldRecordsIfClientClockIsAhead() {
+        testUtils.getJdbcTemplate().update("INSERT INTO shedlock(name, lock_until, locked_at, locked_by) VALUES(?, DATEADD(MINUTE, 5, LOCALTIMESTAMP(3)), LOCALTIMESTAMP(3), ?)", LOCK_NAME1, "other");
+        testUtils.getJdbcTemplate().update("INSERT INTO shedlock(name, lock_until, locked_at, locked_by) VALUES(?, DATEADD(DAY, -10, LOCALTIMESTAMP(3)), DATEADD(DAY, -10, LOCALTIMESTAMP(3)), ?)", "stale", "other");
+        ClockProvider.setClock(Clock.offset(Clock.systemUTC(), Duration.ofDays(10)));
+
+        assertThat(getLockProvider().deleteStaleRecords(Duration.ofDays(7), 10)).isEqualTo(1);
+        assertThat(testUtils.getJdbcTemplate().queryForList("SELECT name FROM shedlock", String.class)).containsExactly(LOCK_NAME1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectDbTimeOnUnsupportedDatabase() throws SQLException {
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.getMetaData()).thenReturn(metaData);
+        when(metaData.getDatabaseProductName()).thenReturn("Apache Derby");
+
+        new JdbcLockProvider(dataSource, "shedlock", true);
+    }
+}
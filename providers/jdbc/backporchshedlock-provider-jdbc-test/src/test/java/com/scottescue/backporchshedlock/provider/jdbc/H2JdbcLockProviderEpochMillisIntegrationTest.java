@@ -0,0 +1,65 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.provider.jdbc;
+
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import com.scottescue.backporchshedlock.core.SimpleLock;
+import com.scottescue.backporchshedlock.support.StorageBasedLockProvider;
+import com.scottescue.backporchshedlock.test.support.jdbc.AbstractH2JdbcLockProviderIntegrationTest;
+import org.junit.Before;
+import org.junit.Test;
+import org.threeten.bp.Instant;
+
+import java.util.Calendar;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class H2JdbcLockProviderEpochMillisIntegrationTest extends AbstractH2JdbcLockProviderIntegrationTest {
+
+    @Before
+    public void createEpochMillisTable() {
+        testUtils.getJdbcTemplate().execute("DROP TABLE shedlock");
+        testUtils.getJdbcTemplate().execute("CREATE TABLE shedlock(name VARCHAR(64), lock_until BIGINT, locked_at BIGINT, locked_by VARCHAR(255), PRIMARY KEY (name))");
+    }
+
+    @Override
+    protected StorageBasedLockProvider getLockProvider() {
+        return new JdbcLockProvider(getDatasource(), "shedlock", false, true);
+    }
+
+    @Override
+    protected Object time(Calendar calendar) {
+        return calendar.getTimeInMillis();
+    }
+
+    @Test
+    public void shouldStoreEpochMillis() {
+        Instant lockUntil = Instant.now().plusSeconds(60);
+        Optional<SimpleLock> lock = getLockProvider().lock(new LockConfiguration(LOCK_NAME1, lockUntil));
+        assertThat(lock.isPresent()).isTrue();
+
+        Long stored = testUtils.getJdbcTemplate().queryForObject("SELECT lock_until FROM shedlock WHERE name = ?", Long.class, LOCK_NAME1);
+        assertThat(stored).isEqualTo(lockUntil.toEpochMilli());
+        assertThat(getLockProvider().getLockUntil(LOCK_NAME1).get()).isEqualTo(Instant.ofEpochMilli(lockUntil.toEpochMilli()));
+        lock.get().unlock();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAllowDbTimeWithEpochMillis() {
+        new JdbcLockProvider(getDatasource(), "shedlock", true, true);
+    }
+}
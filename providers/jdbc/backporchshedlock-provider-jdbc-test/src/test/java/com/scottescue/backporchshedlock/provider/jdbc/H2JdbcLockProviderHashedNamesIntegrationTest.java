@@ -0,0 +1,102 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.provider.jdbc;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.core.SimpleLock;
+import com.scottescue.backporchshedlock.provider.jdbc.internal.FullNameVerifier;
+import com.scottescue.backporchshedlock.provider.jdbc.internal.SqlStatements;
+import com.scottescue.backporchshedlock.support.StorageBasedLockProvider;
+import com.scottescue.backporchshedlock.test.support.jdbc.AbstractH2JdbcLockProviderIntegrationTest;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.Calendar;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class H2JdbcLockProviderHashedNamesIntegrationTest extends AbstractH2JdbcLockProviderIntegrationTest {
+    private static final String LONG_NAME = "lock name that is too long Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore et dolore magna aliqua.";
+
+    @Before
+    public void createHashedNamesTable() {
+        testUtils.getJdbcTemplate().execute("DROP TABLE shedlock");
+        testUtils.getJdbcTemplate().execute("CREATE TABLE shedlock(name CHAR(32), full_name VARCHAR(1000), lock_until TIMESTAMP(3), locked_at TIMESTAMP(3), locked_by VARCHAR(255), PRIMARY KEY (name))");
+    }
+
+    @Override
+    protected StorageBasedLockProvider getLockProvider() {
+        return new JdbcLockProvider(JdbcLockProvider.Configuration.builder()
+            .withDataSource(getDatasource())
+            .usingHashedNames()
+            .build()
+        );
+    }
+
+    @Override
+    protected String key(String lockName) {
+        return SqlStatements.hashName(lockName);
+    }
+
+    @Test
+    @Override
+    public void shouldNotFailIfKeyNameTooLong() {
+        Optional<SimpleLock> lock = getLockProvider().lock(lockConfig(LONG_NAME));
+        assertThat(lock.isPresent()).isTrue();
+        assertLocked(LONG_NAME);
+        lock.get().unlock();
+        assertUnlocked(LONG_NAME);
+    }
+
+    @Test
+    public void shouldStoreFullName() {
+        getLockProvider().lock(lockConfig(LONG_NAME)).get().unlock();
+
+        String fullName = testUtils.getJdbcTemplate().queryForObject("SELECT full_name FROM shedlock WHERE name = ?", String.class, key(LONG_NAME));
+        assertThat(fullName).isEqualTo(LONG_NAME);
+    }
+
+    @Test
+    public void shouldReportHashCollision() {
+        // another lock name with the same hash holds the record
+        Calendar now = now();
+        Calendar lockUntil = (Calendar) now.clone();
+        lockUntil.add(Calendar.MINUTE, 5);
+        testUtils.getJdbcTemplate().update("INSERT INTO shedlock(name, full_name, lock_until, locked_at, locked_by) VALUES(?, ?, ?, ?, ?)",
+            key(LOCK_NAME1), "colliding name", time(lockUntil), time(now), "other");
+
+        Logger logger = (Logger) LoggerFactory.getLogger(FullNameVerifier.class);
+        ListAppender<ILoggingEvent> appender = new ListAppender<ILoggingEvent>();
+        appender.start();
+        logger.addAppender(appender);
+        try {
+            StorageBasedLockProvider provider = getLockProvider();
+            assertThat(provider.lock(lockConfig(LOCK_NAME1)).isPresent()).isFalse();
+            // checked only once
+            assertThat(provider.lock(lockConfig(LOCK_NAME1)).isPresent()).isFalse();
+        } finally {
+            logger.detachAppender(appender);
+        }
+        assertThat(appender.list).hasSize(1);
+        assertThat(appender.list.get(0).getLevel()).isEqualTo(Level.ERROR);
+        assertThat(appender.list.get(0).getFormattedMessage()).contains(LOCK_NAME1).contains("colliding name");
+    }
+}
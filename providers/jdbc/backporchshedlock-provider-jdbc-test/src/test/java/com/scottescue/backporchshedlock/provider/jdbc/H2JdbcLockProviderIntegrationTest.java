@@ -0,0 +1,80 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.provider.jdbc;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import com.scottescue.backporchshedlock.provider.jdbc.internal.SqlDialect;
+import com.scottescue.backporchshedlock.provider.jdbc.internal.SqlStatements;
+import com.scottescue.backporchshedlock.provider.jdbc.internal.SqlStatements.SqlStatement;
+import com.scottescue.backporchshedlock.support.StorageBasedLockProvider;
+import com.scottescue.backporchshedlock.test.support.jdbc.AbstractH2JdbcLockProviderIntegrationTest;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.threeten.bp.Instant;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class H2JdbcLockProviderIntegrationTest extends AbstractH2JdbcLockProviderIntegrationTest {
+
+    @Override
+    protected StorageBasedLockProvider getLockProvider() {
+        return new JdbcLockProvider(testUtils.getDatasource());
+    }
+
+    @Test
+    public void insertIfAbsentShouldNotFailOnExistingRecord() throws SQLException {
+        // H2 understands the MySQL flavour of the statement
+        SqlStatement insert = new SqlStatements(SqlDialect.MYSQL, "shedlock", "name", "lock_until", "locked_at", "locked_by", false).insert();
+        Instant now = Instant.now();
+
+        Connection connection = testUtils.getDatasource().getConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(insert.getSql());
+            insert.bind(statement, LOCK_NAME1, "me", now.plusSeconds(60), now, null);
+            assertThat(statement.executeUpdate()).isEqualTo(1);
+            insert.bind(statement, LOCK_NAME1, "other", now.plusSeconds(60), now, null);
+            assertThat(statement.executeUpdate()).isEqualTo(0);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        assertLocked(LOCK_NAME1);
+    }
+
+    @Test
+    public void shouldWarnIfKeyNameTooLong() {
+        Logger logger = (Logger) LoggerFactory.getLogger(JdbcStorageAccessor.class);
+        ListAppender<ILoggingEvent> appender = new ListAppender<ILoggingEvent>();
+        appender.start();
+        logger.addAppender(appender);
+        try {
+            LockConfiguration configuration = lockConfig("lock name that is too long Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore et dolore magna aliqua.");
+            assertThat(getLockProvider().lock(configuration).isPresent()).isFalse();
+        } finally {
+            logger.detachAppender(appender);
+        }
+        assertThat(appender.list).hasSize(1);
+        assertThat(appender.list.get(0).getLevel()).isEqualTo(Level.WARN);
+    }
+}
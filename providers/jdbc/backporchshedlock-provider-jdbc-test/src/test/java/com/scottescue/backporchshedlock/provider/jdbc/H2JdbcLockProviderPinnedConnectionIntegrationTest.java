@@ -0,0 +1,149 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.provider.jdbc;
+
+import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.core.SimpleLock;
+import com.scottescue.backporchshedlock.provider.jdbc.internal.JdbcConnections;
+import com.scottescue.backporchshedlock.support.LockException;
+import com.scottescue.backporchshedlock.support.StorageBasedLockProvider;
+import com.scottescue.backporchshedlock.test.support.jdbc.AbstractH2JdbcLockProviderIntegrationTest;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.threeten.bp.Duration;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class H2JdbcLockProviderPinnedConnectionIntegrationTest extends AbstractH2JdbcLockProviderIntegrationTest {
+    private final List<JdbcLockProvider> providers = new ArrayList<JdbcLockProvider>();
+
+    @Override
+    protected StorageBasedLockProvider getLockProvider() {
+        return pinnedLockProvider(unpooledDataSource(), Duration.ofSeconds(30));
+    }
+
+    @After
+    public void closeProviders() {
+        for (JdbcLockProvider provider : providers) {
+            provider.close();
+        }
+    }
+
+    @Test
+    public void shouldReconnectIfConnectionIsNotValid() throws SQLException {
+        RecordingDataSource dataSource = new RecordingDataSource(unpooledDataSource());
+        JdbcLockProvider provider = pinnedLockProvider(dataSource, Duration.ZERO);
+
+        provider.lock(lockConfig(LOCK_NAME1)).get().unlock();
+        int opened = dataSource.connections.size();
+
+        dataSource.closeAll();
+        Optional<SimpleLock> lock = provider.lock(lockConfig(LOCK_NAME1));
+        assertThat(lock.isPresent()).isTrue();
+        assertLocked(LOCK_NAME1);
+        lock.get().unlock();
+        assertThat(dataSource.connections).hasSize(opened + 1);
+    }
+
+    @Test
+    public void shouldReuseConnection() {
+        RecordingDataSource dataSource = new RecordingDataSource(unpooledDataSource());
+        JdbcLockProvider provider = pinnedLockProvider(dataSource, Duration.ofSeconds(30));
+
+        provider.lock(lockConfig(LOCK_NAME1)).get().unlock();
+        int opened = dataSource.connections.size();
+
+        for (int i = 0; i < 5; i++) {
+            provider.lock(lockConfig(LOCK_NAME1)).get().unlock();
+        }
+        assertThat(dataSource.connections).hasSize(opened);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotReconnectAfterClose() {
+        RecordingDataSource dataSource = new RecordingDataSource(unpooledDataSource());
+        JdbcLockProvider provider = pinnedLockProvider(dataSource, Duration.ofSeconds(30));
+        provider.lock(lockConfig(LOCK_NAME1)).get().unlock();
+        int opened = dataSource.connections.size();
+
+        provider.close();
+        try {
+            provider.lock(lockConfig(LOCK_NAME1));
+        } finally {
+            assertThat(dataSource.connections).hasSize(opened);
+        }
+    }
+
+    @Test
+    public void shouldTimeOutIfAllConnectionsAreInUse() throws SQLException {
+        JdbcConnections connections = JdbcConnections.pinned(unpooledDataSource(), 1, 30000, 50);
+        JdbcConnections.Lease lease = connections.acquire();
+        try {
+            connections.acquire();
+            fail("Exception expected");
+        } catch (LockException e) {
+            assertThat(e.getMessage()).contains("50 ms");
+        } finally {
+            lease.release();
+            connections.close();
+        }
+    }
+
+    private JdbcLockProvider pinnedLockProvider(DataSource dataSource, Duration validationInterval) {
+        JdbcLockProvider provider = new JdbcLockProvider(JdbcLockProvider.Configuration.builder()
+            .withDataSource(dataSource)
+            .withPinnedConnections(1)
+            .withValidationInterval(validationInterval)
+            .build());
+        providers.add(provider);
+        return provider;
+    }
+
+    private DataSource unpooledDataSource() {
+        // pinned connections of all the providers of a test would not fit into the pool of the test data source
+        return new DriverManagerDataSource(getDbConfig().getJdbcUrl(), getDbConfig().getUsername(), getDbConfig().getPassword());
+    }
+
+    private static class RecordingDataSource extends DelegatingDataSource {
+        private final List<Connection> connections = new ArrayList<Connection>();
+
+        RecordingDataSource(DataSource dataSource) {
+            super(dataSource);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            Connection connection = super.getConnection();
+            connections.add(connection);
+            return connection;
+        }
+
+        void closeAll() throws SQLException {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+        }
+    }
+}
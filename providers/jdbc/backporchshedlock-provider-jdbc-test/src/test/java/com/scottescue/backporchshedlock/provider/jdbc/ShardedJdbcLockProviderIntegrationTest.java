@@ -0,0 +1,106 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.provider.jdbc;
+
+import com.scottescue.backporchshedlock.core.LockConfiguration;
+import com.scottescue.backporchshedlock.core.SimpleLock;
+import com.scottescue.backporchshedlock.support.ShardedLockProvider;
+import com.scottescue.backporchshedlock.support.StorageAccessor;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.threeten.bp.Instant;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ShardedJdbcLockProviderIntegrationTest {
+    private final Map<String, HikariDataSource> dataSources = new LinkedHashMap<String, HikariDataSource>();
+    private ShardedLockProvider lockProvider;
+
+    @Before
+    public void createShards() {
+        dataSources.put("h2", dataSource("jdbc:h2:mem:shard1"));
+        dataSources.put("hsql", dataSource("jdbc:hsqldb:mem:shard2"));
+        Map<String, StorageAccessor> shards = new LinkedHashMap<String, StorageAccessor>();
+        for (Map.Entry<String, HikariDataSource> dataSource : dataSources.entrySet()) {
+            new JdbcTemplate(dataSource.getValue()).execute("CREATE TABLE shedlock(name VARCHAR(64), lock_until TIMESTAMP(3), locked_at TIMESTAMP(3), locked_by VARCHAR(255), PRIMARY KEY (name))");
+            shards.put(dataSource.getKey(), new JdbcStorageAccessor(JdbcLockProvider.Configuration.builder()
+                .withDataSource(dataSource.getValue())
+                .build()));
+        }
+        lockProvider = new ShardedLockProvider(shards);
+    }
+
+    @After
+    public void dropShards() {
+        lockProvider.close();
+        for (HikariDataSource dataSource : dataSources.values()) {
+            new JdbcTemplate(dataSource).execute("DROP TABLE shedlock");
+            dataSource.close();
+        }
+    }
+
+    @Test
+    public void shouldStoreLocksInTheirShards() {
+        List<LockConfiguration> configurations = new ArrayList<LockConfiguration>();
+        for (int i = 0; i < 50; i++) {
+            configurations.add(new LockConfiguration("lock" + i, Instant.now().plusSeconds(60)));
+        }
+
+        Map<String, SimpleLock> locks = lockProvider.lockAll(configurations);
+        assertThat(locks).hasSize(50);
+        assertThat(lockProvider.lockAll(configurations)).isEmpty();
+        for (LockConfiguration configuration : configurations) {
+            String name = configuration.getName();
+            for (Map.Entry<String, HikariDataSource> dataSource : dataSources.entrySet()) {
+                int records = new JdbcTemplate(dataSource.getValue()).queryForList("SELECT name FROM shedlock WHERE name = ?", name).size();
+                assertThat(records).isEqualTo(dataSource.getKey().equals(lockProvider.getShardId(name)) ? 1 : 0);
+            }
+        }
+
+        for (SimpleLock lock : locks.values()) {
+            lock.unlock();
+        }
+        assertThat(lockProvider.lock(configurations.get(0)).isPresent()).isTrue();
+    }
+
+    @Test
+    public void shouldUseBothShards() {
+        boolean h2 = false;
+        boolean hsql = false;
+        for (int i = 0; i < 50; i++) {
+            h2 |= lockProvider.getShardId("lock" + i).equals("h2");
+            hsql |= lockProvider.getShardId("lock" + i).equals("hsql");
+        }
+        assertThat(h2).isTrue();
+        assertThat(hsql).isTrue();
+    }
+
+    private static HikariDataSource dataSource(String jdbcUrl) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(jdbcUrl);
+        dataSource.setUsername("SA");
+        dataSource.setPassword("");
+        return dataSource;
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2009-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scottescue.backporchshedlock.provider.jdbc.internal;
+
+import com.scottescue.backporchshedlock.provider.jdbc.internal.SqlStatements.Parameter;
+import org.junit.Test;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SqlDialectTest {
+
+    @Test
+    public void shouldDetectDialectFromProductName() {
+        assertThat(SqlDialect.forDatabaseProductName("H2")).isEqualTo(SqlDialect.H2);
+        assertThat(SqlDialect.forDatabaseProductName("HSQL Database Engine")).isEqualTo(SqlDialect.HSQLDB);
+        assertThat(SqlDialect.forDatabaseProductName("MySQL")).isEqualTo(SqlDialect.MYSQL);
+        assertThat(SqlDialect.forDatabaseProductName("MariaDB")).isEqualTo(SqlDialect.MYSQL);
+        assertThat(SqlDialect.forDatabaseProductName("PostgreSQL")).isEqualTo(SqlDialect.POSTGRES);
+        assertThat(SqlDialect.forDatabaseProductName("Oracle")).isEqualTo(SqlDialect.ORACLE);
+        assertThat(SqlDialect.forDatabaseProductName("Microsoft SQL Server")).isEqualTo(SqlDialect.SQLSERVER);
+        assertThat(SqlDialect.forDatabaseProductName("Apache Derby")).isEqualTo(SqlDialect.DERBY);
+        assertThat(SqlDialect.forDatabaseProductName("Informix Dynamic Server")).isEqualTo(SqlDialect.GENERIC);
+        assertThat(SqlDialect.forDatabaseProductName(null)).isEqualTo(SqlDialect.GENERIC);
+    }
+
+    @Test
+    public void shouldRecognizeDuplicateKey() {
+        assertThat(SqlDialect.POSTGRES.isDuplicateKey(new SQLException("duplicate", "23505"))).isTrue();
+        assertThat(SqlDialect.POSTGRES.isDuplicateKey(new SQLException("not null", "23502"))).isFalse();
+        assertThat(SqlDialect.MYSQL.isDuplicateKey(new SQLException("duplicate", "23000", 1062))).isTrue();
+        assertThat(SqlDialect.MYSQL.isDuplicateKey(new SQLException("foreign key", "23000", 1452))).isFalse();
+        assertThat(SqlDialect.ORACLE.isDuplicateKey(new SQLException("ORA-00001", "23000", 1))).isTrue();
+        assertThat(SqlDialect.SQLSERVER.isDuplicateKey(new SQLException("PK violation", "23000", 2627))).isTrue();
+        assertThat(SqlDialect.GENERIC.isDuplicateKey(new SQLException("constraint", "23000"))).isTrue();
+        assertThat(SqlDialect.GENERIC.isDuplicateKey(new SQLException("syntax", "42000"))).isFalse();
+    }
+
+    @Test
+    public void shouldRecognizeChainedDuplicateKey() {
+        BatchUpdateException e = new BatchUpdateException("batch failed", "XJ208", 0, new int[0]);
+        e.setNextException(new SQLException("duplicate", "23505"));
+        assertThat(SqlDialect.H2.isDuplicateKey(e)).isTrue();
+    }
+
+    @Test
+    public void shouldBindMillisToAllParametersOfDbTimeExpression() {
+        SqlStatements statements = new SqlStatements(SqlDialect.SQLSERVER, "shedlock", "name", "lock_until", "locked_at", "locked_by", true);
+
+        assertThat(statements.upsert().getParameters())
+            .containsExactly(Parameter.NAME, Parameter.LOCK_UNTIL_MILLIS, Parameter.LOCK_UNTIL_MILLIS, Parameter.LOCKED_BY);
+        assertThat(statements.extend().getParameters())
+            .containsExactly(Parameter.LOCK_UNTIL_MILLIS, Parameter.LOCK_UNTIL_MILLIS, Parameter.NAME, Parameter.LOCKED_BY);
+    }
+
+    @Test
+    public void shouldInsertIfAbsentWhereUpsertIsNotSupported() {
+        SqlStatements statements = new SqlStatements(SqlDialect.DERBY, "shedlock", "name", "lock_until", "locked_at", "locked_by", false);
+
+        assertThat(statements.supportsUpsert()).isFalse();
+        assertThat(statements.insert().getSql()).contains("WHERE NOT EXISTS");
+        assertThat(statements.insert().getParameters())
+            .containsExactly(Parameter.NAME, Parameter.LOCK_UNTIL, Parameter.NOW, Parameter.LOCKED_BY, Parameter.NAME);
+    }
+
+    @Test
+    public void shouldCastEpochMillisParameters() {
+        SqlStatements statements = new SqlStatements(SqlDialect.ORACLE, "shedlock", "name", "lock_until", "locked_at", "locked_by", false, true);
+
+        assertThat(statements.isUsingEpochMillis()).isTrue();
+        assertThat(statements.upsert().getSql()).contains("CAST(? AS NUMBER(19)) AS lock_until").doesNotContain("TIMESTAMP");
+        assertThat(statements.upsert().getParameters())
+            .containsExactly(Parameter.NAME, Parameter.LOCK_UNTIL, Parameter.NOW, Parameter.LOCKED_BY);
+    }
+
+    @Test
+    public void shouldStoreFullNameOfHashedNames() {
+        SqlStatements statements = new SqlStatements(SqlDialect.MYSQL, "shedlock", "name", "lock_until", "locked_at", "locked_by", false, false,
+            "full_name");
+
+        assertThat(statements.toKey("name")).hasSize(32).isEqualTo(SqlStatements.hashName("name")).isNotEqualTo(SqlStatements.hashName("name2"));
+        assertThat(statements.insert().getSql()).contains("locked_by, full_name)");
+        assertThat(statements.insert().getParameters())
+            .containsExactly(Parameter.NAME, Parameter.LOCK_UNTIL, Parameter.NOW, Parameter.LOCKED_BY, Parameter.FULL_NAME, Parameter.NAME);
+        assertThat(statements.update().getSql()).contains("full_name = ?");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void shouldNotSupportDbTimeOnDerby() {
+        new SqlStatements(SqlDialect.DERBY, "shedlock", "name", "lock_until", "locked_at", "locked_by", true);
+    }
+}
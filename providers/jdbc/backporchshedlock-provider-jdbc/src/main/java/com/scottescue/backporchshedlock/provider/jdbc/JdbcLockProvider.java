@@ -17,8 +17,16 @@ package com.scottescue.backporchshedlock.provider.jdbc;
 
 import com.scottescue.backporchshedlock.support.StorageBasedLockProvider;
 import org.jetbrains.annotations.NotNull;
+import org.threeten.bp.Duration;
 
 import javax.sql.DataSource;
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.threeten.bp.jdk8.Jdk8Methods.requireNonNull;
 
 /**
  * Lock provided by plain JDBC. It uses a table that contains lock_name and locked_until.
@@ -31,6 +39,14 @@ import javax.sql.DataSource;
  * If the insert succeeds (1 inserted row) we have the lock.
  * </li>
  * <li>
+ * On databases that support it (H2, HSQLDB, PostgreSQL, Oracle, SQL Server) the insert is an upsert (MERGE or INSERT ... ON CONFLICT DO UPDATE)
+ * that also takes over an existing record if lock_until &lt;= :now. The lock is then obtained or refused in a single statement.
+ * </li>
+ * <li>
+ * On MySQL and Derby the insert is INSERT ... SELECT ... WHERE NOT EXISTS, it inserts no row instead of failing if the record
+ * already exists.
+ * </li>
+ * <li>
  * If the insert failed due to duplicate key or we have skipped the insertion, we will try to update lock record using
  * UPDATE tableName SET lock_until = :lockUntil WHERE name = :lockName AND lock_until &lt;= :now
  * </li>
@@ -41,13 +57,268 @@ import javax.sql.DataSource;
  * When unlocking, lock_until is set to now.
  * </li>
  * </ol>
+ * By default, :now and :lockUntil are computed from the clock of this JVM. If the clocks of the nodes can not be kept
+ * in sync, use {@link #JdbcLockProvider(DataSource, String, boolean)} to evaluate them on the database server instead
+ * (H2, HSQLDB, MySQL, PostgreSQL, Oracle and SQL Server).
+ * <p>
+ * lock_until and locked_at are TIMESTAMP columns by default. Use {@link Configuration.Builder#usingEpochMillis()} or
+ * {@link #JdbcLockProvider(DataSource, String, boolean, boolean)} if they are BIGINT columns holding epoch milliseconds.
+ * <p>
+ * Long lock names, e.g. built from user or tenant ids, make the primary key index wide. With
+ * {@link Configuration.Builder#usingHashedNames()} the name column holds a fixed width hash of the name, CHAR(32) is
+ * enough, and the full name goes to a full_name column that is not indexed.
+ * <p>
+ * Every operation gets a connection from the data source. If the lock provider should not compete with the application
+ * for pooled connections, or the prepare round trips matter, use {@link Configuration.Builder#withPinnedConnections(int)}
+ * and {@link #close()} the provider on shutdown.
+ * <p>
+ * The records of the locks listed in {@link Configuration.Builder#withKnownLockNames(Collection)} are created on the
+ * first lock attempt, using one SELECT and one batch of inserts, instead of one insert per lock.
  */
-public class JdbcLockProvider extends StorageBasedLockProvider {
+public class JdbcLockProvider extends StorageBasedLockProvider implements Closeable {
+    private static final String DEFAULT_TABLE_NAME = "shedlock";
+
+    private final JdbcStorageAccessor storageAccessor;
+
     public JdbcLockProvider(@NotNull DataSource datasource) {
-        this(datasource, "shedlock");
+        this(datasource, DEFAULT_TABLE_NAME);
     }
 
     public JdbcLockProvider(@NotNull DataSource datasource, @NotNull String tableName) {
-        super(new JdbcStorageAccessor(datasource, tableName));
+        this(Configuration.builder()
+            .withDataSource(datasource)
+            .withTableName(tableName)
+            .build()
+        );
+    }
+
+    /**
+     * @param useDbTime use the time of the database server instead of the time of this JVM. The database type is then
+     *                  detected right away, {@link IllegalArgumentException} is thrown if it does not support it.
+     */
+    public JdbcLockProvider(@NotNull DataSource datasource, @NotNull String tableName, boolean useDbTime) {
+        this(configuration(datasource, tableName, useDbTime, false));
+    }
+
+    /**
+     * @param useDbTime      use the time of the database server instead of the time of this JVM. The database type is
+     *                       then detected right away, {@link IllegalArgumentException} is thrown if it does not support it.
+     * @param useEpochMillis lock_until and locked_at are BIGINT columns holding epoch milliseconds, can not be
+     *                       combined with useDbTime
+     */
+    public JdbcLockProvider(@NotNull DataSource datasource, @NotNull String tableName, boolean useDbTime, boolean useEpochMillis) {
+        this(configuration(datasource, tableName, useDbTime, useEpochMillis));
+    }
+
+    public JdbcLockProvider(@NotNull Configuration configuration) {
+        this(new JdbcStorageAccessor(configuration));
+        setKnownLockNames(configuration.getKnownLockNames());
+    }
+
+    private JdbcLockProvider(JdbcStorageAccessor storageAccessor) {
+        super(storageAccessor);
+        this.storageAccessor = storageAccessor;
+    }
+
+    private static Configuration configuration(DataSource datasource, String tableName, boolean useDbTime, boolean useEpochMillis) {
+        Configuration.Builder builder = Configuration.builder()
+            .withDataSource(datasource)
+            .withTableName(tableName);
+        if (useDbTime) {
+            builder.usingDbTime();
+        }
+        if (useEpochMillis) {
+            builder.usingEpochMillis();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Closes the pinned connections, if any. Locks still held are not released.
+     */
+    @Override
+    public void close() {
+        storageAccessor.close();
+    }
+
+    public static class Configuration {
+        private final DataSource dataSource;
+        private final String tableName;
+        private final boolean useDbTime;
+        private final boolean useEpochMillis;
+        private final boolean useHashedNames;
+        private final int pinnedConnections;
+        private final Duration validationInterval;
+        private final Duration connectionTimeout;
+        private final Set<String> knownLockNames;
+
+        Configuration(
+            @NotNull DataSource dataSource,
+            @NotNull String tableName,
+            boolean useDbTime,
+            boolean useEpochMillis,
+            boolean useHashedNames,
+            int pinnedConnections,
+            @NotNull Duration validationInterval,
+            @NotNull Duration connectionTimeout,
+            @NotNull Collection<String> knownLockNames) {
+            this.dataSource = requireNonNull(dataSource, "dataSource can not be null");
+            this.tableName = requireNonNull(tableName, "tableName can not be null");
+            this.useDbTime = useDbTime;
+            if (useDbTime && useEpochMillis) {
+                throw new IllegalArgumentException("Can not set both useDbTime and useEpochMillis");
+            }
+            this.useEpochMillis = useEpochMillis;
+            this.useHashedNames = useHashedNames;
+            if (pinnedConnections < 0) {
+                throw new IllegalArgumentException("pinnedConnections can not be negative");
+            }
+            this.pinnedConnections = pinnedConnections;
+            this.validationInterval = requireNonNull(validationInterval, "validationInterval can not be null");
+            if (validationInterval.isNegative()) {
+                throw new IllegalArgumentException("validationInterval can not be negative");
+            }
+            this.connectionTimeout = requireNonNull(connectionTimeout, "connectionTimeout can not be null");
+            if (connectionTimeout.isNegative() || connectionTimeout.isZero()) {
+                throw new IllegalArgumentException("connectionTimeout has to be positive");
+            }
+            requireNonNull(knownLockNames, "knownLockNames can not be null");
+            this.knownLockNames = Collections.unmodifiableSet(new LinkedHashSet<String>(knownLockNames));
+        }
+
+        public DataSource getDataSource() {
+            return dataSource;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public boolean getUseDbTime() {
+            return useDbTime;
+        }
+
+        public boolean getUseEpochMillis() {
+            return useEpochMillis;
+        }
+
+        public boolean getUseHashedNames() {
+            return useHashedNames;
+        }
+
+        /**
+         * Number of connections kept open by the lock provider, 0 if every operation gets a connection from the data source.
+         */
+        public int getPinnedConnections() {
+            return pinnedConnections;
+        }
+
+        public Duration getValidationInterval() {
+            return validationInterval;
+        }
+
+        public Duration getConnectionTimeout() {
+            return connectionTimeout;
+        }
+
+        public Set<String> getKnownLockNames() {
+            return knownLockNames;
+        }
+
+        public static Configuration.Builder builder() {
+            return new Configuration.Builder();
+        }
+
+        public static class Builder {
+            private DataSource dataSource;
+            private String tableName = DEFAULT_TABLE_NAME;
+            private boolean useDbTime;
+            private boolean useEpochMillis;
+            private boolean useHashedNames;
+            private int pinnedConnections;
+            private Duration validationInterval = Duration.ofSeconds(30);
+            private Duration connectionTimeout = Duration.ofSeconds(30);
+            private Collection<String> knownLockNames = Collections.emptySet();
+
+            public Builder withDataSource(@NotNull DataSource dataSource) {
+                this.dataSource = dataSource;
+                return this;
+            }
+
+            public Builder withTableName(@NotNull String tableName) {
+                this.tableName = tableName;
+                return this;
+            }
+
+            /**
+             * Evaluates the current time on the database server instead of using the clock of this JVM. Supported on
+             * H2, HSQLDB, MySQL, PostgreSQL, Oracle and SQL Server. The database type is detected when the provider is
+             * created, the provider throws {@link IllegalArgumentException} on other databases.
+             */
+            public Builder usingDbTime() {
+                this.useDbTime = true;
+                return this;
+            }
+
+            /**
+             * lock_until and locked_at are BIGINT columns holding milliseconds since the epoch instead of TIMESTAMP
+             * columns. Can not be combined with {@link #usingDbTime()}.
+             */
+            public Builder usingEpochMillis() {
+                this.useEpochMillis = true;
+                return this;
+            }
+
+            /**
+             * The name column holds the first 128 bits of SHA-256 of the lock name as 32 hex digits, the full name is
+             * stored in a full_name column that is not part of the primary key.
+             * The first time a lock can not be obtained, the stored full name is compared with the lock name and a hash
+             * collision is logged as an error.
+             */
+            public Builder usingHashedNames() {
+                this.useHashedNames = true;
+                return this;
+            }
+
+            /**
+             * Keeps up to {@code poolSize} connections open for the lock provider, with their prepared statements
+             * cached. The connections are opened on first use and reopened if they stop being valid.
+             */
+            public Builder withPinnedConnections(int poolSize) {
+                this.pinnedConnections = poolSize;
+                return this;
+            }
+
+            /**
+             * A pinned connection idle for longer than this is validated before use. Defaults to 30 seconds.
+             */
+            public Builder withValidationInterval(@NotNull Duration validationInterval) {
+                this.validationInterval = validationInterval;
+                return this;
+            }
+
+            /**
+             * How long an operation waits for a pinned connection if all of them are in use, it throws
+             * {@link com.scottescue.backporchshedlock.support.LockException} afterwards. Defaults to 30 seconds.
+             */
+            public Builder withConnectionTimeout(@NotNull Duration connectionTimeout) {
+                this.connectionTimeout = connectionTimeout;
+                return this;
+            }
+
+            /**
+             * Names of the locks used by the application. Their records are created on the first lock attempt, using
+             * one SELECT and one batch of inserts.
+             */
+            public Builder withKnownLockNames(@NotNull Collection<String> knownLockNames) {
+                this.knownLockNames = knownLockNames;
+                return this;
+            }
+
+            public JdbcLockProvider.Configuration build() {
+                return new JdbcLockProvider.Configuration(dataSource, tableName, useDbTime, useEpochMillis, useHashedNames,
+                    pinnedConnections, validationInterval, connectionTimeout, knownLockNames);
+            }
+        }
     }
 }
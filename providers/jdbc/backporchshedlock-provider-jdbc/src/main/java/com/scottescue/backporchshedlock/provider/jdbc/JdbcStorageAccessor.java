@@ -16,26 +16,42 @@
 package com.scottescue.backporchshedlock.provider.jdbc;
 
 import com.scottescue.backporchshedlock.provider.jdbc.internal.AbstractJdbcStorageAccessor;
+import com.scottescue.backporchshedlock.provider.jdbc.internal.JdbcConnections;
 import com.scottescue.backporchshedlock.support.LockException;
 import org.jetbrains.annotations.NotNull;
 
-import javax.sql.DataSource;
 import java.sql.SQLException;
-import java.sql.SQLIntegrityConstraintViolationException;
 
-class JdbcStorageAccessor extends AbstractJdbcStorageAccessor {
+/**
+ * Storage of {@link JdbcLockProvider}, public to be used as a shard of a
+ * {@link com.scottescue.backporchshedlock.support.ShardedLockProvider}.
+ */
+public class JdbcStorageAccessor extends AbstractJdbcStorageAccessor {
 
-    JdbcStorageAccessor(@NotNull DataSource dataSource, @NotNull String tableName) {
-        super(dataSource, tableName);
+    public JdbcStorageAccessor(@NotNull JdbcLockProvider.Configuration configuration) {
+        super(configuration.getDataSource(), configuration.getTableName(), configuration.getUseDbTime(), configuration.getUseEpochMillis(),
+            configuration.getUseHashedNames(), connections(configuration));
+    }
+
+    private static JdbcConnections connections(JdbcLockProvider.Configuration configuration) {
+        if (configuration.getPinnedConnections() > 0) {
+            return JdbcConnections.pinned(configuration.getDataSource(), configuration.getPinnedConnections(),
+                configuration.getValidationInterval().toMillis(), configuration.getConnectionTimeout().toMillis());
+        }
+        return JdbcConnections.perOperation(configuration.getDataSource());
     }
 
     @Override
     protected void handleInsertionException(String sql, SQLException e) {
-        if (e instanceof SQLIntegrityConstraintViolationException) {
+        String sqlState = e.getSQLState();
+        if (isDuplicateKey(e)) {
             // lock record already exists
+        } else if (sqlState != null && sqlState.startsWith("22")) {
+            // the values do not fit the table, the record can never be created
+            logger.warn("Unexpected exception", e);
         } else {
-            // can not throw exception here, some drivers (Postgres) do not throw SQLIntegrityConstraintViolationException on duplicate key
-            // we will try update in the next step, su if there is another problem, an exception will be thrown there
+            // can not throw exception here, we will try update in the next step, so if there is another problem,
+            // an exception will be thrown there
             logger.debug("Exception thrown when inserting record", e);
         }
     }
@@ -18,16 +18,21 @@ package com.scottescue.backporchshedlock.test.support.jdbc;
 import com.scottescue.backporchshedlock.core.LockConfiguration;
 import com.scottescue.backporchshedlock.core.SimpleLock;
 import com.scottescue.backporchshedlock.Optional;
+import com.scottescue.backporchshedlock.support.StorageBasedLockProvider;
 import com.scottescue.backporchshedlock.test.support.AbstractStorageBasedLockProviderIntegrationTest;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.threeten.bp.Duration;
 
 import javax.sql.DataSource;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -49,23 +54,157 @@ public abstract class AbstractJdbcLockProviderIntegrationTest extends AbstractSt
 
     @Override
     protected void assertUnlocked(String lockName) {
-        List<Map<String, Object>> unlockedRows = testUtils.getJdbcTemplate().queryForList("SELECT * FROM shedlock WHERE name = ? AND lock_until <= ?", lockName, now());
+        List<Map<String, Object>> unlockedRows = testUtils.getJdbcTemplate().queryForList("SELECT * FROM shedlock WHERE name = ? AND lock_until <= ?", key(lockName), time(now()));
         assertThat(unlockedRows).hasSize(1);
     }
 
     @Override
     protected void assertLocked(String lockName) {
-        List<Map<String, Object>> lockedRows = testUtils.getJdbcTemplate().queryForList("SELECT * FROM shedlock WHERE name = ? AND lock_until > ?", lockName, now());
+        List<Map<String, Object>> lockedRows = testUtils.getJdbcTemplate().queryForList("SELECT * FROM shedlock WHERE name = ? AND lock_until > ?", key(lockName), time(now()));
         assertThat(lockedRows).hasSize(1);
     }
 
     @Test
     public void shouldCreateLockIfRecordAlreadyExists() {
         Calendar now = now();
-        testUtils.getJdbcTemplate().update("INSERT INTO shedlock(name, lock_until, locked_at, locked_by) VALUES(?, ?, ?, ?)", LOCK_NAME1, now, now, "me");
+        testUtils.getJdbcTemplate().update("INSERT INTO shedlock(name, lock_until, locked_at, locked_by) VALUES(?, ?, ?, ?)", key(LOCK_NAME1), time(now), time(now), "me");
         shouldCreateLock();
     }
 
+    @Test
+    public void shouldNotCreateLockIfRecordIsLocked() {
+        Calendar now = now();
+        Calendar lockUntil = (Calendar) now.clone();
+        lockUntil.add(Calendar.MINUTE, 5);
+        testUtils.getJdbcTemplate().update("INSERT INTO shedlock(name, lock_until, locked_at, locked_by) VALUES(?, ?, ?, ?)", key(LOCK_NAME1), time(lockUntil), time(now), "other");
+        Optional<? extends SimpleLock> lock = getLockProvider().lock(lockConfig(LOCK_NAME1));
+        assertThat(lock.isPresent()).isFalse();
+        assertLocked(LOCK_NAME1);
+    }
+
+    @Test
+    public void shouldNotTryToObtainLockKnownToBeHeld() {
+        Calendar now = now();
+        Calendar lockUntil = (Calendar) now.clone();
+        lockUntil.add(Calendar.MINUTE, 5);
+        testUtils.getJdbcTemplate().update("INSERT INTO shedlock(name, lock_until, locked_at, locked_by) VALUES(?, ?, ?, ?)", key(LOCK_NAME1), time(lockUntil), time(now), "other");
+
+        StorageBasedLockProvider provider = getLockProvider();
+        provider.enableHeldLockCache(Duration.ZERO);
+        assertThat(provider.lock(lockConfig(LOCK_NAME1)).isPresent()).isFalse();
+
+        // released behind our back, we still consider the lock held
+        testUtils.getJdbcTemplate().update("UPDATE shedlock SET lock_until = ? WHERE name = ?", time(now), key(LOCK_NAME1));
+        assertThat(provider.lock(lockConfig(LOCK_NAME1)).isPresent()).isFalse();
+
+        provider.disableHeldLockCache();
+        Optional<SimpleLock> lock = provider.lock(lockConfig(LOCK_NAME1));
+        assertThat(lock.isPresent()).isTrue();
+        lock.get().unlock();
+    }
+
+    @Test
+    public void shouldPreloadLockRecords() {
+        Calendar now = now();
+        Calendar lockUntil = (Calendar) now.clone();
+        lockUntil.add(Calendar.MINUTE, 5);
+        testUtils.getJdbcTemplate().update("INSERT INTO shedlock(name, lock_until, locked_at, locked_by) VALUES(?, ?, ?, ?)", key(LOCK_NAME1), time(lockUntil), time(now), "other");
+
+        StorageBasedLockProvider provider = getLockProvider();
+        provider.preloadLockRecords(Arrays.asList(LOCK_NAME1, "name2", "name3"));
+        assertLocked(LOCK_NAME1);
+        assertUnlocked("name2");
+        assertUnlocked("name3");
+
+        // the records are known to exist, no insert is attempted
+        long hits = provider.getLockRecordCacheHits();
+        assertThat(provider.lock(lockConfig(LOCK_NAME1)).isPresent()).isFalse();
+        Optional<SimpleLock> lock = provider.lock(lockConfig("name2"));
+        assertThat(lock.isPresent()).isTrue();
+        assertLocked("name2");
+        lock.get().unlock();
+        assertThat(provider.getLockRecordCacheHits()).isEqualTo(hits + 2);
+    }
+
+    @Test
+    public void shouldDeleteStaleRecords() {
+        Calendar stale = now();
+        stale.add(Calendar.DAY_OF_MONTH, -10);
+        for (int i = 0; i < 5; i++) {
+            testUtils.getJdbcTemplate().update("INSERT INTO shedlock(name, lock_until, locked_at, locked_by) VALUES(?, ?, ?, ?)", key("stale" + i), time(stale), time(stale), "other");
+        }
+        StorageBasedLockProvider provider = getLockProvider();
+        provider.lock(lockConfig(LOCK_NAME1)).get().unlock();
+        provider.lock(lockConfig("name2")).get().unlock();
+        testUtils.getJdbcTemplate().update("UPDATE shedlock SET lock_until = ? WHERE name = ?", time(stale), key(LOCK_NAME1));
+
+        assertThat(provider.deleteStaleRecords(Duration.ofDays(7), 2)).isEqualTo(6);
+        assertThat(testUtils.getJdbcTemplate().queryForList("SELECT name FROM shedlock", String.class)).containsExactly(key("name2"));
+
+        // the deleted record has been forgotten, it is created again
+        Optional<SimpleLock> lock = provider.lock(lockConfig(LOCK_NAME1));
+        assertThat(lock.isPresent()).isTrue();
+        assertLocked(LOCK_NAME1);
+        lock.get().unlock();
+    }
+
+    @Test
+    public void shouldRenewLeasesOfHeldLocks() throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        StorageBasedLockProvider provider = getLockProvider();
+        try {
+            provider.enableLeaseRenewal(scheduler, Duration.ofMillis(50), Duration.ofHours(1));
+            SimpleLock lock1 = provider.lock(lockConfig(LOCK_NAME1)).get();
+            SimpleLock lock2 = provider.lock(lockConfig("name2")).get();
+            // taken over by someone else
+            testUtils.getJdbcTemplate().update("UPDATE shedlock SET locked_by = ? WHERE name = ?", "other", key("name2"));
+
+            Calendar renewed = now();
+            renewed.add(Calendar.MINUTE, 30);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (testUtils.getJdbcTemplate().queryForList("SELECT * FROM shedlock WHERE name = ? AND lock_until > ?", key(LOCK_NAME1), time(renewed)).isEmpty()) {
+                assertThat(System.currentTimeMillis()).isLessThan(deadline);
+                Thread.sleep(20);
+            }
+            assertThat(testUtils.getJdbcTemplate().queryForList("SELECT * FROM shedlock WHERE name = ? AND lock_until > ?", key("name2"), time(renewed))).isEmpty();
+
+            lock1.unlock();
+            lock2.unlock();
+        } finally {
+            provider.disableLeaseRenewal();
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldNotRenewLeaseTakenOverWithSameLockedBy() throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        StorageBasedLockProvider provider = getLockProvider();
+        try {
+            provider.enableLeaseRenewal(scheduler, Duration.ofMillis(50), Duration.ofHours(1));
+            SimpleLock lock1 = provider.lock(lockConfig(LOCK_NAME1)).get();
+            assertThat(provider.lock(lockConfig("name2")).isPresent()).isTrue();
+            // expired and taken over by another provider running on the same host
+            Calendar takenOverUntil = now();
+            takenOverUntil.add(Calendar.MINUTE, 10);
+            testUtils.getJdbcTemplate().update("UPDATE shedlock SET lock_until = ? WHERE name = ?", time(takenOverUntil), key("name2"));
+
+            Calendar renewed = now();
+            renewed.add(Calendar.MINUTE, 30);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (testUtils.getJdbcTemplate().queryForList("SELECT * FROM shedlock WHERE name = ? AND lock_until > ?", key(LOCK_NAME1), time(renewed)).isEmpty()) {
+                assertThat(System.currentTimeMillis()).isLessThan(deadline);
+                Thread.sleep(20);
+            }
+            assertThat(testUtils.getJdbcTemplate().queryForList("SELECT * FROM shedlock WHERE name = ? AND lock_until > ?", key("name2"), time(renewed))).isEmpty();
+
+            lock1.unlock();
+        } finally {
+            provider.disableLeaseRenewal();
+            scheduler.shutdownNow();
+        }
+    }
+
     @Test
     public void fuzzTestShouldWorkWithTransaction() throws ExecutionException, InterruptedException {
         TransactionalFuzzTester.fuzzTestShouldWorkWithTransaction(getLockProvider(), getDatasource());
@@ -82,6 +221,20 @@ public abstract class AbstractJdbcLockProviderIntegrationTest extends AbstractSt
         return Calendar.getInstance();
     }
 
+    /**
+     * Value of lock_until or locked_at bound to the statements of the tests, override if the columns are not timestamps.
+     */
+    protected Object time(Calendar calendar) {
+        return calendar;
+    }
+
+    /**
+     * Value of the name column of the lock, override if the lock names are not stored as they are.
+     */
+    protected String key(String lockName) {
+        return lockName;
+    }
+
     protected DataSource getDatasource() {
         return testUtils.getDatasource();
     }